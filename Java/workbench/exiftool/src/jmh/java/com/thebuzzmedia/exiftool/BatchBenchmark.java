@@ -0,0 +1,97 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thebuzzmedia.exiftool.ExifTool.Feature;
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+
+/**
+ * Measures the latency of querying <code>batchSize</code> images in a single
+ * round trip to a daemon with
+ * {@link ExifTool#getImageMetadata(List, PreparedQuery)}.
+ * <p/>
+ * The image set is repeated as needed to fill a batch. Scores are per batch;
+ * divide by <code>batchSize</code> to compare against
+ * {@link GetImageMetaBenchmark}.
+ * 
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BatchBenchmark {
+	@Param({ "1", "10", "100" })
+	public int batchSize;
+
+	@Param({ "8", "all" })
+	public String tagCount;
+
+	@Param({ "NUMERIC" })
+	public Format format;
+
+	@Param({ "src/test/resources" })
+	public String imageDir;
+
+	private ExifTool tool;
+	private PreparedQuery query;
+	private List<File> batch;
+
+	@Setup
+	public void setup() throws IOException {
+		File[] images = BenchmarkSupport.images(imageDir);
+		batch = new ArrayList<File>(batchSize);
+
+		for (int i = 0; i < batchSize; i++)
+			batch.add(images[i % images.length]);
+
+		query = new PreparedQuery(format, BenchmarkSupport.tags(tagCount));
+		tool = new ExifTool(Feature.STAY_OPEN);
+		tool.warmUp();
+	}
+
+	@TearDown
+	public void tearDown() {
+		tool.close();
+	}
+
+	@Benchmark
+	public Map<File, ImageMetadata> getImageMetadata() throws IOException {
+		return tool.getImageMetadata(batch, query);
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.util.Arrays;
+
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Helpers shared by the JMH benchmarks for turning their <code>@Param</code>
+ * values into images and tags.
+ * 
+ * @since 1.2
+ */
+final class BenchmarkSupport {
+	private BenchmarkSupport() {
+		// no-op
+	}
+
+	/**
+	 * Used to list the images in the given directory, in a stable order so
+	 * every fork measures the same sequence of requests.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the directory does not exist or holds no files.
+	 */
+	static File[] images(String dir) throws IllegalArgumentException {
+		File[] files = new File(dir).listFiles();
+
+		if (files == null || files.length == 0)
+			throw new IllegalArgumentException("No images found in [" + dir
+					+ "], run the benchmarks from the project directory or set -p imageDir=...");
+
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Used to get the first <code>count</code> tags, or all of them for
+	 * "<code>all</code>".
+	 */
+	static Tag[] tags(String count) {
+		Tag[] all = Tag.values();
+
+		if ("all".equals(count))
+			return all;
+
+		return Arrays.copyOf(all, Math.min(Integer.parseInt(count), all.length));
+	}
+}
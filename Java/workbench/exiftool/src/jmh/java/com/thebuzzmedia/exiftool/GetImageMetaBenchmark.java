@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thebuzzmedia.exiftool.ExifTool.Feature;
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+
+/**
+ * Measures the latency of querying a single image with
+ * {@link ExifTool#getImageMetadata(File, PreparedQuery)}, one image after
+ * the other from the image set, as a daemon or with a new ExifTool process
+ * per call.
+ * 
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class GetImageMetaBenchmark {
+	/**
+	 * <code>true</code> for {@link Feature#STAY_OPEN}, <code>false</code> to
+	 * start a new ExifTool process for every call.
+	 */
+	@Param({ "true", "false" })
+	public boolean stayOpen;
+
+	@Param({ "1", "8", "all" })
+	public String tagCount;
+
+	@Param({ "NUMERIC", "HUMAN_READABLE" })
+	public Format format;
+
+	@Param({ "src/test/resources" })
+	public String imageDir;
+
+	private ExifTool tool;
+	private PreparedQuery query;
+	private File[] images;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		images = BenchmarkSupport.images(imageDir);
+		query = new PreparedQuery(format, BenchmarkSupport.tags(tagCount));
+		tool = (stayOpen ? new ExifTool(Feature.STAY_OPEN) : new ExifTool());
+
+		// Keep daemon startup out of the first iteration.
+		tool.warmUp();
+	}
+
+	@TearDown
+	public void tearDown() {
+		tool.close();
+	}
+
+	@Benchmark
+	public ImageMetadata getImageMetadata() throws IOException {
+		File image = images[next];
+		next = (next + 1) % images.length;
+
+		return tool.getImageMetadata(image, query);
+	}
+}
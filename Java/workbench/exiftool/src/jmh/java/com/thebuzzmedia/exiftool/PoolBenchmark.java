@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+
+/**
+ * Measures the throughput of 8 Threads sharing an {@link ExifToolPool} of
+ * <code>poolSize</code> daemons, including the time spent waiting for a
+ * daemon to be released.
+ * 
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@Threads(8)
+public class PoolBenchmark {
+	@Param({ "1", "2", "4", "8" })
+	public int poolSize;
+
+	@Param({ "8" })
+	public String tagCount;
+
+	@Param({ "src/test/resources" })
+	public String imageDir;
+
+	private ExifToolPool pool;
+	private PreparedQuery query;
+	private File[] images;
+
+	/**
+	 * Each Thread walks the image set on its own.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+	}
+
+	@Setup
+	public void setup() {
+		images = BenchmarkSupport.images(imageDir);
+		query = new PreparedQuery(Format.NUMERIC,
+				BenchmarkSupport.tags(tagCount));
+
+		// All daemons start (and warm up) now, not while being measured.
+		pool = new ExifToolPool(poolSize, poolSize, Integer.MAX_VALUE, false);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.close();
+	}
+
+	@Benchmark
+	public ImageMetadata getImageMetadata(Cursor cursor) throws IOException {
+		File image = images[cursor.next];
+		cursor.next = (cursor.next + 1) % images.length;
+
+		return pool.getImageMetadata(image, query);
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class used to split a set of files into batches laid out the way the files
+ * most likely are on disk, as used by {@link ExifToolPool} when
+ * {@link ExifToolPool#setDirectoryAffinityEnabled(boolean)} is on.
+ * <p/>
+ * Files are grouped by their parent directory and every group is sorted by
+ * inode number (or by name where the file system has no inodes), so a daemon
+ * working through a batch reads one directory at a time in roughly the order
+ * its files were written, which turns random seeks on HDD or NFS backed
+ * archives into mostly sequential reads and keeps the OS directory cache hot.
+ * <p/>
+ * Consecutive small directories are merged into one run of files until it
+ * holds at least the given batch size, so a set of files spread over many
+ * directories still doesn't cost a round trip per directory. Every run is
+ * then cut into batches of at most that size, so a huge directory never
+ * turns into a single request that holds all its results in memory and
+ * outlasts the request timeout. The batches of a run are meant to be
+ * worked through in order by one daemon, which keeps every directory read
+ * sequentially from start to end.
+ * 
+ * @since 1.2
+ */
+final class DirectoryBatches {
+	private DirectoryBatches() {
+		// no-op
+	}
+
+	/**
+	 * Used to split the given files into runs of batches.
+	 * 
+	 * @param images
+	 *            The files to split.
+	 * @param batchSize
+	 *            The number of files small directories are merged up to and
+	 *            the most files any batch holds.
+	 * 
+	 * @return the runs, ordered by directory path, each made of batches in
+	 *         the order they should be queried in.
+	 */
+	static List<List<List<File>>> split(List<File> images, int batchSize) {
+		Map<String, List<File>> directoryMap = new TreeMap<String, List<File>>();
+
+		for (File image : images) {
+			File parent = image.getAbsoluteFile().getParentFile();
+			String directory = (parent == null ? "" : parent.getPath());
+			List<File> group = directoryMap.get(directory);
+
+			if (group == null) {
+				group = new ArrayList<File>();
+				directoryMap.put(directory, group);
+			}
+
+			group.add(image);
+		}
+
+		List<List<File>> runs = new ArrayList<List<File>>();
+		List<File> run = null;
+
+		for (List<File> group : directoryMap.values()) {
+			sortByInode(group);
+
+			if (run == null || run.size() >= batchSize) {
+				run = group;
+				runs.add(run);
+			} else
+				run.addAll(group);
+		}
+
+		List<List<List<File>>> result = new ArrayList<List<List<File>>>(
+				runs.size());
+
+		for (List<File> files : runs) {
+			List<List<File>> batches = new ArrayList<List<File>>();
+
+			for (int i = 0, size = files.size(); i < size; i += batchSize)
+				batches.add(files.subList(i, Math.min(i + batchSize, size)));
+
+			result.add(batches);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper method used to sort the files of one directory by inode number,
+	 * reading each inode once.
+	 */
+	private static void sortByInode(List<File> group) {
+		int size = group.size();
+
+		if (size < 2)
+			return;
+
+		final File[] files = group.toArray(new File[size]);
+		final long[] inodes = new long[size];
+		Integer[] order = new Integer[size];
+
+		for (int i = 0; i < size; i++) {
+			inodes[i] = FileIdentity.inodeOf(files[i].toPath());
+			order[i] = Integer.valueOf(i);
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int result = Long.compare(inodes[a.intValue()],
+						inodes[b.intValue()]);
+
+				// Without inodes, names are the next best guess.
+				if (result == 0)
+					result = files[a.intValue()].getName().compareTo(
+							files[b.intValue()].getName());
+
+				return result;
+			}
+		});
+
+		for (int i = 0; i < size; i++)
+			group.set(i, files[order[i].intValue()]);
+	}
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.DEBUG;
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class used to represent the {@link Thread} that continuously reads the
+ * standard error stream of an external ExifTool process.
+ * <p/>
+ * If nothing reads it, the pipe buffer behind a process's standard error
+ * (only a few KB on some hosts) eventually fills up with warnings and the
+ * process blocks mid-request writing the next one, while we block waiting on
+ * its standard output; neither side ever makes progress again. Draining it on
+ * a dedicated Thread guarantees that cannot happen, no matter how chatty
+ * ExifTool is.
+ * <p/>
+ * To tie the lines back to the request that caused them, every request to a
+ * daemon process ends with <code>-echo4 {ready&lt;N&gt;}</code>, which makes
+ * ExifTool print that marker to standard error once it is done with the
+ * request. Every line read since the previous marker belongs to request
+ * <code>N</code> and can be collected with {@link #await(int, long)}. For a
+ * one-off process the whole stream belongs to the single request and is
+ * collected with {@link #awaitEnd(long)}. ExifTool versions older than
+ * {@link ExifTool#ERROR_MARKER_VERSION} don't know <code>-echo4</code>, so
+ * their requests go without a marker and get whatever has been read so far.
+ * <p/>
+ * All lines are also kept in a bounded ring buffer shared by every process
+ * of an {@link ExifTool} instance (see {@link ExifTool#getRecentErrors()})
+ * and never held anywhere without a bound: the lines kept per request are
+ * capped at {@link #MAX_LINES_PER_REQUEST} and only the most recent
+ * {@link #MAX_COMPLETED_REQUESTS} requests nobody collected are remembered.
+ * 
+ * @since 1.2
+ */
+final class ErrorStreamDrain extends Thread {
+	static final int MAX_LINES_PER_REQUEST = 100;
+	static final int MAX_COMPLETED_REQUESTS = 64;
+
+	private final ResponseReader reader;
+	private final RingBuffer recent;
+
+	private final Map<Integer, List<String>> completed;
+	private List<String> current;
+	private int dropped;
+	private int lastMarker;
+	private boolean ended;
+
+	/*
+	 * Set up front for ExifTool versions without -echo4 or once waiting for a
+	 * marker times out, which means this ExifTool doesn't support it after
+	 * all; from then on no markers are written or waited for and we simply
+	 * return whatever has been read so far.
+	 */
+	private volatile boolean markersUnsupported;
+
+	public ErrorStreamDrain(InputStream in, RingBuffer recent) {
+		super(ExifTool.ERROR_DRAIN_THREAD_NAME);
+		setDaemon(true);
+
+		this.reader = new ResponseReader(in);
+		this.recent = recent;
+		this.completed = new LinkedHashMap<Integer, List<String>>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, List<String>> eldest) {
+				return size() > MAX_COMPLETED_REQUESTS;
+			}
+		};
+		this.current = new ArrayList<String>();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (reader.nextLine()) {
+				int marker = reader.readyId();
+
+				if (marker > 0) {
+					complete(marker);
+					continue;
+				}
+
+				String line = reader.line();
+
+				if (line.isEmpty())
+					continue;
+
+				if (DEBUG)
+					log("\t\tExifTool stderr: %s", line);
+
+				recent.add(line);
+				append(line);
+			}
+		} catch (IOException e) {
+			// no-op, the process is gone.
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// no-op, just try to close it.
+			}
+
+			synchronized (this) {
+				ended = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Used to stop waiting for markers, for processes known not to support
+	 * them.
+	 */
+	public void disableMarkers() {
+		markersUnsupported = true;
+	}
+
+	/**
+	 * @return <code>true</code> if requests should end with a marker.
+	 */
+	public boolean isMarkersSupported() {
+		return !markersUnsupported;
+	}
+
+	/**
+	 * Used to collect the lines written for the request that ends with the
+	 * marker for the given id, waiting up to the given time for the marker to
+	 * be read.
+	 * 
+	 * @return the lines written for the request, never <code>null</code>.
+	 */
+	public synchronized List<String> await(int id, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (lastMarker < id && !ended && !markersUnsupported) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				log("\tExifTool did not echo error marker %d to stderr, no longer waiting for markers.",
+						id);
+				markersUnsupported = true;
+				break;
+			}
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		List<String> lines = completed.remove(id);
+
+		if (lines == null && (markersUnsupported || ended)) {
+			// Whatever has been read so far is the best we can do.
+			lines = takeCurrent();
+		}
+
+		return (lines == null ? Collections.<String> emptyList() : lines);
+	}
+
+	/**
+	 * Used to collect every line written until the end of the stream, waiting
+	 * up to the given time for the process to close it.
+	 * 
+	 * @return the lines written, never <code>null</code>.
+	 */
+	public synchronized List<String> awaitEnd(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (!ended) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0)
+				break;
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		return takeCurrent();
+	}
+
+	private synchronized void append(String line) {
+		if (current.size() < MAX_LINES_PER_REQUEST)
+			current.add(line);
+		else
+			dropped++;
+	}
+
+	private synchronized void complete(int marker) {
+		completed.put(marker, takeCurrent());
+		lastMarker = marker;
+		notifyAll();
+	}
+
+	private List<String> takeCurrent() {
+		List<String> lines = current;
+
+		if (dropped > 0) {
+			lines.add("... " + dropped + " more lines not kept");
+			dropped = 0;
+		}
+
+		current = new ArrayList<String>();
+		return lines;
+	}
+
+	/**
+	 * Class used to keep the most recent lines written to standard error by
+	 * the processes of an {@link ExifTool} instance.
+	 */
+	static final class RingBuffer {
+		private final String[] lines;
+		private int next;
+		private int count;
+
+		public RingBuffer(int capacity) {
+			this.lines = new String[capacity];
+		}
+
+		public synchronized void add(String line) {
+			lines[next] = line;
+			next = (next + 1) % lines.length;
+
+			if (count < lines.length)
+				count++;
+		}
+
+		public synchronized List<String> toList() {
+			List<String> list = new ArrayList<String>(count);
+			int start = (next - count + lines.length) % lines.length;
+
+			for (int i = 0; i < count; i++)
+				list.add(lines[(start + i) % lines.length]);
+
+			return list;
+		}
+
+		public synchronized void clear() {
+			for (int i = 0; i < lines.length; i++)
+				lines[i] = null;
+
+			next = 0;
+			count = 0;
+		}
+	}
+}
@@ -15,22 +15,45 @@
  */
 package com.thebuzzmedia.exiftool;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class used to provide a Java-like interface to Phil Harvey's excellent,
@@ -132,6 +155,15 @@ import java.util.regex.Pattern;
  * potentially never run, leaving the original host ExifTool process running
  * forever (which is fine).
  * <p/>
+ * Independently of how busy it is, a daemon can also be retired and replaced
+ * after a number of requests, once it grows too big or gets too old (see
+ * {@link #setRecyclePolicy(RecyclePolicy)}).
+ * <p/>
+ * A single task on a shared background {@link Thread} checks every daemon
+ * instance in the VM, so making a request only costs recording the time it
+ * happened and no matter how many instances exist, only one extra Thread is
+ * ever started to clean them up.
+ * <p/>
  * This design was chosen to help make using the class and not introducing
  * memory leaks and bugs into your code easier as well as making very inactive
  * instances of this class light weight while not in-use by cleaning up after
@@ -180,6 +212,11 @@ import java.util.regex.Pattern;
  * synchronized using an external mechanism or in a highly threaded environment
  * (e.g. web application), instances of this class can be used along with
  * {@link ThreadLocal}s to ensure Thread-safe, highly parallel use.
+ * <p/>
+ * In a highly threaded environment the preferred approach is to use an
+ * {@link ExifToolPool}, which owns a number of warm daemon instances of this
+ * class and lends each of them out to one caller at a time so requests are
+ * spread across as many ExifTool processes as the host can run.
  * <h3>Why ExifTool?</h3>
  * <a href="http://www.sno.phy.queensu.ca/~phil/exiftool">ExifTool</a> is
  * written in Perl and requires an external process call from Java to make use
@@ -294,6 +331,144 @@ public class ExifTool {
 	public static final long PROCESS_CLEANUP_DELAY = Long.getLong(
 			"exiftool.processCleanupDelay", 600000);
 
+	/**
+	 * Default maximum amount of time (in milliseconds) a single request to
+	 * ExifTool may take before the external process is considered hung.
+	 * <p/>
+	 * ExifTool can get stuck on corrupt or hostile files, and without a limit
+	 * the calling Thread blocks reading from it forever. When a request runs
+	 * past this limit, a watchdog kills the external process, the request
+	 * fails with a {@link RequestTimeoutException} and the next request
+	 * transparently starts a fresh process. The limit can be changed per
+	 * instance with {@link #setRequestTimeout(long, TimeUnit)}.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.requestTimeout=30000
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Setting this value to 0 disables the watchdog.
+	 * <p/>
+	 * Default value is <code>0</code> (disabled).
+	 */
+	public static final long REQUEST_TIMEOUT = Long.getLong(
+			"exiftool.requestTimeout", 0);
+
+	/**
+	 * The maximum number of images written with a single ExifTool request by
+	 * {@link #setImageMeta(List, Format, Map)} and
+	 * {@link #setImageMeta(Map, Format)}; larger sets are split into several
+	 * requests.
+	 * <p/>
+	 * Bigger batches save round trips to ExifTool, smaller ones bound how
+	 * long a single request runs (see {@link #REQUEST_TIMEOUT}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.writeBatchSize=1000
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>500</code>.
+	 */
+	public static final int WRITE_BATCH_SIZE = Math.max(1,
+			Integer.getInteger("exiftool.writeBatchSize", 500));
+
+	/**
+	 * The maximum amount of time (in milliseconds) {@link #close()} waits for
+	 * outstanding requests made with
+	 * {@link #getImageMetaAsync(File, Format, Tag...)} to be answered before
+	 * it kills the daemon process, failing whatever is still outstanding.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.closeTimeout=10000
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>10000</code> (10 seconds).
+	 */
+	public static final long CLOSE_TIMEOUT = Math.max(0,
+			Long.getLong("exiftool.closeTimeout", 10000));
+
+	/**
+	 * Flag used to indicate if instances created with
+	 * {@link Feature#STAY_OPEN} should start their daemon ExifTool process and
+	 * {@link #warmUp()} right away in the constructor instead of on the first
+	 * call to <code>getImageMeta</code>.
+	 * <p/>
+	 * This moves the several seconds it can take Perl to start and load the
+	 * ExifTool modules off the first request and onto startup, which is
+	 * usually what you want in a server that starts taking traffic as soon as
+	 * it comes up.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.eagerStart=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>false</code>.
+	 */
+	public static final boolean EAGER_START = Boolean
+			.getBoolean("exiftool.eagerStart");
+
+	/**
+	 * Flag used to indicate if new instances should answer queries for the
+	 * most common EXIF tags of JPEG and TIFF images directly in Java instead
+	 * of asking the external ExifTool process (see
+	 * {@link #setFastPathEnabled(boolean)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.fastPath=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>false</code>.
+	 */
+	public static final boolean FAST_PATH = Boolean
+			.getBoolean("exiftool.fastPath");
+
+	/**
+	 * Flag used to indicate if new instances should write tags to XMP
+	 * sidecar files next to the images instead of to the images themselves
+	 * (see {@link #setSidecarWritesEnabled(boolean)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.sidecarWrites=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>false</code>.
+	 */
+	public static final boolean SIDECAR_WRITES = Boolean
+			.getBoolean("exiftool.sidecarWrites");
+
+	/**
+	 * Flag used to indicate if new instances should merge the values from
+	 * XMP sidecar files into the values read from the images (see
+	 * {@link #setSidecarReadsEnabled(boolean)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.sidecarReads=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>false</code>.
+	 */
+	public static final boolean SIDECAR_READS = Boolean
+			.getBoolean("exiftool.sidecarReads");
+
+	/**
+	 * Extension of the XMP sidecar file of an image (see
+	 * {@link #getSidecar(File)}).
+	 */
+	public static final String SIDECAR_EXTENSION = ".xmp";
+
 	/**
 	 * Name used to identify the (optional) cleanup {@link Thread}.
 	 * <p/>
@@ -302,15 +477,124 @@ public class ExifTool {
 	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
 	 * <p/>
 	 * Default value is "<code>ExifTool Cleanup Thread</code>".
+	 * 
+	 * @deprecated Idle daemons are now shut down by a single task running on
+	 *             the shared {@link #SCHEDULER_THREAD_NAME} Thread; this name
+	 *             is no longer used.
 	 */
+	@Deprecated
 	protected static final String CLEANUP_THREAD_NAME = "ExifTool Cleanup Thread";
 
+	/**
+	 * Name used to identify the {@link Thread} that reads responses for
+	 * requests made with
+	 * {@link #getImageMetaAsync(File, Format, Tag...)}.
+	 * <p/>
+	 * This is only provided to make debugging and profiling easier for
+	 * implementors making use of this class such that the resources this class
+	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
+	 * <p/>
+	 * Default value is "<code>ExifTool Async Reader Thread</code>".
+	 */
+	protected static final String ASYNC_READER_THREAD_NAME = "ExifTool Async Reader Thread";
+
+	/**
+	 * Name used to identify the {@link Thread} shared by every instance of
+	 * this class to run request watchdogs.
+	 * <p/>
+	 * This is only provided to make debugging and profiling easier for
+	 * implementors making use of this class such that the resources this class
+	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
+	 * <p/>
+	 * Default value is "<code>ExifTool Scheduler Thread</code>".
+	 */
+	protected static final String SCHEDULER_THREAD_NAME = "ExifTool Scheduler Thread";
+
+	/**
+	 * Name used to identify the {@link Thread}s that drain the standard error
+	 * stream of every external ExifTool process.
+	 * <p/>
+	 * This is only provided to make debugging and profiling easier for
+	 * implementors making use of this class such that the resources this class
+	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
+	 * <p/>
+	 * Default value is "<code>ExifTool Stderr Drain Thread</code>".
+	 */
+	protected static final String ERROR_DRAIN_THREAD_NAME = "ExifTool Stderr Drain Thread";
+
+	/**
+	 * Name used to identify the {@link Thread}s that start and warm up the
+	 * replacement of a daemon process being recycled (see
+	 * {@link #setRecyclePolicy(RecyclePolicy)}).
+	 * <p/>
+	 * This is only provided to make debugging and profiling easier for
+	 * implementors making use of this class such that the resources this class
+	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
+	 * <p/>
+	 * Default value is "<code>ExifTool Recycler Thread</code>".
+	 */
+	protected static final String RECYCLER_THREAD_NAME = "ExifTool Recycler Thread";
+
+	/**
+	 * Number of the most recent lines ExifTool wrote to standard error that
+	 * are kept per instance (see {@link #getRecentErrors()}).
+	 */
+	protected static final int ERROR_BUFFER_SIZE = 256;
+
+	/**
+	 * Maximum amount of time (in milliseconds) to wait for the standard error
+	 * output of a request once its standard output has been read. It is
+	 * normally already there; this only bounds the wait when it isn't.
+	 */
+	private static final long ERROR_COLLECT_TIMEOUT = 1000;
+
+	/**
+	 * Version of ExifTool required for the <code>-echo4</code> option, which
+	 * every request to a daemon process ends with so the lines it writes to
+	 * standard error can be told apart from those of the next request (see
+	 * {@link RequestWriter#writeErrorMarker(int)}). Older versions would take
+	 * the marker for a file name, so their daemons are sent requests without
+	 * one.
+	 */
+	static final String ERROR_MARKER_VERSION = "9.37";
+
 	/**
 	 * Compiled {@link Pattern} of ": " used to split compact output from
 	 * ExifTool evenly into name/value pairs.
+	 * 
+	 * @deprecated Responses are now parsed directly from the bytes of the
+	 *             process output stream by a {@link ResponseReader}, which
+	 *             avoids the allocations a split incurs for every tag.
 	 */
+	@Deprecated
 	protected static final Pattern TAG_VALUE_PATTERN = Pattern.compile(": ");
 
+	/**
+	 * Prefix ExifTool prints in front of the path of each file when a single
+	 * request processes more than one file, e.g.
+	 * "<code>======== /path/to/image.jpg</code>".
+	 */
+	protected static final String FILE_HEADER_PREFIX = "======== ";
+
+	private static final byte[] FILE_HEADER_PREFIX_BYTES = ResponseReader
+			.toBytes(FILE_HEADER_PREFIX);
+
+	/**
+	 * Endings of the summary lines ExifTool prints after writing to files,
+	 * e.g. "<code>    3 image files updated</code>".
+	 */
+	private static final String WRITE_UPDATED_SUFFIX = "image files updated";
+	private static final String WRITE_CREATED_SUFFIX = "image files created";
+	private static final String WRITE_UNCHANGED_SUFFIX = "image files unchanged";
+	private static final String WRITE_FAILED_SUFFIX = "weren't updated due to errors";
+
+	/**
+	 * Prefix of the value ExifTool prints for binary tags without
+	 * <code>-b</code>, e.g.
+	 * "<code>(Binary data 8523 bytes, use -b option to extract)</code>".
+	 */
+	private static final String BINARY_DATA_PREFIX = "(Binary data ";
+
 	/**
 	 * Map shared across all instances of this class that maintains the state of
 	 * {@link Feature}s and if they are supported or not (supported=true,
@@ -327,25 +611,10 @@ public class ExifTool {
 	 * For efficiency reasons, individual {@link Feature}s are checked for
 	 * support one time during each run of the VM and never again during the
 	 * session of that running VM.
-	 */
-	protected static final Map<Feature, Boolean> FEATURE_SUPPORT_MAP = new HashMap<ExifTool.Feature, Boolean>();
-
-	/**
-	 * Static list of args used to execute ExifTool using the '-ver' flag in
-	 * order to get it to print out its version number. Used by the
-	 * {@link #checkFeatureSupport(Feature...)} method to check all the required
-	 * feature versions.
 	 * <p/>
-	 * Defined here as a <code>static final</code> list because it is used every
-	 * time and never changes.
+	 * The map is safe to read and update from any number of Threads.
 	 */
-	private static final List<String> VERIFY_FEATURE_ARGS = new ArrayList<String>(
-			2);
-
-	static {
-		VERIFY_FEATURE_ARGS.add(EXIF_TOOL_PATH);
-		VERIFY_FEATURE_ARGS.add("-ver");
-	}
+	protected static final Map<Feature, Boolean> FEATURE_SUPPORT_MAP = new ConcurrentHashMap<ExifTool.Feature, Boolean>();
 
 	/**
 	 * Used to determine if the given {@link Feature} is supported by the
@@ -387,7 +656,8 @@ public class ExifTool {
 		 * that.
 		 */
 		if (supported == null) {
-			log("\tSupport for feature %s has not been checked yet, checking...");
+			log("\tSupport for feature %s has not been checked yet, checking...",
+					feature);
 			checkFeatureSupport(feature);
 
 			// Re-query for the supported state
@@ -427,14 +697,38 @@ public class ExifTool {
 			System.out.printf(LOG_PREFIX + message + '\n', params);
 	}
 
+	/**
+	 * Used to get the version of the native ExifTool install pointed at by
+	 * {@link #EXIF_TOOL_PATH}, e.g. "<code>9.90</code>".
+	 * <p/>
+	 * The version is only probed (by running "<code>exiftool -ver</code>")
+	 * once per VM, however many Threads ask for it at the same time, and is
+	 * remembered on disk between VM runs for as long as the ExifTool
+	 * executable is not modified. The file used can be changed or the disk
+	 * cache disabled with the "<code>exiftool.versionCache</code>" system
+	 * property.
+	 * 
+	 * @return the installed version or <code>null</code> if ExifTool could
+	 *         not be run or did not report one.
+	 * 
+	 * @throws RuntimeException
+	 *             if the external ExifTool process could not be started.
+	 * 
+	 * @since 1.2
+	 */
+	public static String getInstalledVersion() throws RuntimeException {
+		return VersionProbe.getVersion();
+	}
+
 	/**
 	 * Used to verify the version of ExifTool installed is a high enough version
 	 * to support the given features.
 	 * <p/>
-	 * This method runs the command "<code>exiftool -ver</code>" to get the
-	 * version of the installed ExifTool and then compares that version to the
+	 * This method gets the version of the installed ExifTool (see
+	 * {@link #getInstalledVersion()}) and then compares that version to the
 	 * least required version specified by the given features (see
-	 * {@link Feature#getVersion()}).
+	 * {@link Feature#getVersion()}). Versions are compared as numbers, so
+	 * ExifTool 10.00 correctly counts as newer than 9.90.
 	 * 
 	 * @param features
 	 *            The features whose required versions will be checked against
@@ -453,46 +747,22 @@ public class ExifTool {
 		log("\tChecking %d feature(s) for support in the external ExifTool install...",
 				features.length);
 
+		/*
+		 * One probe answers every feature; a failure to communicate with
+		 * ExifTool surfaces on the first real call to getImageMeta, so it just
+		 * leaves the features unsupported here.
+		 */
+		String ver = getInstalledVersion();
+
 		for (int i = 0; i < features.length; i++) {
-			String ver = null;
 			Boolean supported;
 			Feature feature = features[i];
 
 			log("\t\tChecking feature %s for support, requires ExifTool version %s or higher...",
 					feature, feature.version);
 
-			// Execute 'exiftool -ver'
-			IOStream streams = startExifToolProcess(VERIFY_FEATURE_ARGS);
-
-			try {
-				// Read the single-line reply (version number)
-				ver = streams.reader.readLine();
-
-				// Close r/w streams to exited process.
-				streams.close();
-			} catch (Exception e) {
-				/*
-				 * no-op, while it is important to know that we COULD launch the
-				 * ExifTool process (i.e. startExifToolProcess call worked) but
-				 * couldn't communicate with it, the context with which this
-				 * method is called is from the constructor of this class which
-				 * would just wrap this exception and discard it anyway if it
-				 * failed.
-				 * 
-				 * the caller will realize there is something wrong with the
-				 * ExifTool process communication as soon as they make their
-				 * first call to getImageMeta in which case whatever was causing
-				 * the exception here will popup there and then need to be
-				 * corrected.
-				 * 
-				 * This is an edge case that should only happen in really rare
-				 * scenarios, so making this method easier to use is more
-				 * important that robust IOException handling right here.
-				 */
-			}
-
 			// Ensure the version found is >= the required version.
-			if (ver != null && ver.compareTo(feature.version) >= 0) {
+			if (ver != null && VersionProbe.compare(ver, feature.version) >= 0) {
 				supported = Boolean.TRUE;
 				log("\t\tFound ExifTool version %s, feature %s is SUPPORTED.",
 						ver, feature);
@@ -509,6 +779,12 @@ public class ExifTool {
 
 	protected static IOStream startExifToolProcess(List<String> args)
 			throws RuntimeException {
+		return startExifToolProcess(args, new ErrorStreamDrain.RingBuffer(
+				ERROR_BUFFER_SIZE));
+	}
+
+	private static IOStream startExifToolProcess(List<String> args,
+			ErrorStreamDrain.RingBuffer recentErrors) throws RuntimeException {
 		Process proc = null;
 		IOStream streams = null;
 
@@ -532,14 +808,33 @@ public class ExifTool {
 		log("\tSetting up Read/Write streams to the external ExifTool process...");
 
 		// Setup read/write streams to the new process.
-		streams = new IOStream(new BufferedReader(new InputStreamReader(
-				proc.getInputStream())), new OutputStreamWriter(
-				proc.getOutputStream()));
+		streams = new IOStream(proc,
+				new ResponseReader(proc.getInputStream()), new RequestWriter(
+						proc.getOutputStream()), new ErrorStreamDrain(
+						proc.getErrorStream(), recentErrors));
+
+		// Keep stderr flowing so the process can never block writing to it.
+		streams.errors.start();
 
 		log("\t\tSuccessful, returning streams to caller.");
 		return streams;
 	}
 
+	/**
+	 * Helper method used to determine if the installed ExifTool supports the
+	 * <code>-echo4</code> option used for error markers.
+	 */
+	private static boolean supportsErrorMarkers() {
+		String ver = VersionProbe.getVersion();
+
+		try {
+			return (ver != null && VersionProbe.compare(ver,
+					ERROR_MARKER_VERSION) >= 0);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Simple class used to house the read/write streams used to communicate
 	 * with an external ExifTool process as well as the logic used to safely
@@ -552,13 +847,41 @@ public class ExifTool {
 	 * @author Riyad Kalla (software@thebuzzmedia.com)
 	 * @since 1.1
 	 */
-	private static class IOStream {
-		BufferedReader reader;
-		OutputStreamWriter writer;
+	static class IOStream {
+		ResponseReader reader;
+		RequestWriter writer;
+
+		final ErrorStreamDrain errors;
 
-		public IOStream(BufferedReader reader, OutputStreamWriter writer) {
+		private final Process process;
+		private volatile boolean killed;
+
+		public IOStream(Process process, ResponseReader reader,
+				RequestWriter writer, ErrorStreamDrain errors) {
+			this.process = process;
 			this.reader = reader;
 			this.writer = writer;
+			this.errors = errors;
+		}
+
+		/**
+		 * Used to forcibly kill the external process, which makes any Thread
+		 * blocked reading from or writing to it fail or see the end of the
+		 * stream.
+		 */
+		public void kill() {
+			killed = true;
+			process.destroyForcibly();
+		}
+
+		/**
+		 * Used to append the error marker for the given request id (see
+		 * {@link RequestWriter#writeErrorMarker(int)}) if the process
+		 * supports it.
+		 */
+		public void writeErrorMarker(int id) {
+			if (errors.isMarkersSupported())
+				writer.writeErrorMarker(id);
 		}
 
 		public void close() {
@@ -753,7 +1076,9 @@ public class ExifTool {
                 String.class), CREATOR("Creator", String.class), IPTC_KEYWORDS("Keywords",
                 String.class), COPYRIGHT_NOTICE("CopyrightNotice", String.class),
                 FILE_TYPE("FileType", String.class), AVG_BITRATE("AvgBitrate", String.class),
-                MIME_TYPE("MIMEType", String.class);
+                MIME_TYPE("MIMEType", String.class), THUMBNAIL_IMAGE("ThumbnailImage",
+                String.class), PREVIEW_IMAGE("PreviewImage", String.class),
+                JPG_FROM_RAW("JpgFromRaw", String.class);
 
 		private static final Map<String, Tag> TAG_LOOKUP_MAP;
 
@@ -889,14 +1214,54 @@ public class ExifTool {
 		}
 	}
 
-	private Timer cleanupTimer;
-	private TimerTask currentCleanupTask;
+	/**
+	 * Every instance with a running daemon process, checked periodically by
+	 * the shared {@link IdleReaper}.
+	 */
+	private static final Set<ExifTool> DAEMONS = Collections
+			.newSetFromMap(new ConcurrentHashMap<ExifTool, Boolean>());
+
+	private static ScheduledFuture<?> idleReaper;
+
+	/*
+	 * System.nanoTime() of the last request; a single volatile write per
+	 * request is all it costs to keep the daemon from being reaped.
+	 */
+	private volatile long lastUsed;
+	private volatile boolean keepWarm;
 
 	private IOStream streams;
 	private List<String> args;
 
+	private final Object asyncLock = new Object();
+	private AsyncReader asyncReader;
+	private int requestId;
+	private volatile CompletableFuture<Map<Tag, String>> lastAsyncRequest;
+
 	private Set<Feature> featureSet;
 
+	private volatile MetadataCache cache;
+
+	private volatile long requestTimeout = REQUEST_TIMEOUT;
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	private volatile ExifToolMetrics metrics;
+	private boolean daemonStarted;
+
+	private volatile RecyclePolicy recyclePolicy = RecyclePolicy
+			.fromDefaults();
+	private long daemonStartTime;
+	private long daemonRequests;
+	private long lastRssCheck;
+	private volatile CompletableFuture<IOStream> replacement;
+
+	private volatile boolean fastPath = FAST_PATH;
+	private volatile boolean sidecarWrites = SIDECAR_WRITES;
+	private volatile boolean sidecarReads = SIDECAR_READS;
+
+	private final ErrorStreamDrain.RingBuffer recentErrors = new ErrorStreamDrain.RingBuffer(
+			ERROR_BUFFER_SIZE);
+
 	public ExifTool() {
 		this((Feature[]) null);
 	}
@@ -936,15 +1301,13 @@ public class ExifTool {
 
 		args = new ArrayList<String>(64);
 
-		/*
-		 * Now that initialization is done, init the cleanup timer if we are
-		 * using STAY_OPEN and the delay time set is non-zero.
-		 */
-		if (isFeatureEnabled(Feature.STAY_OPEN) && PROCESS_CLEANUP_DELAY > 0) {
-			this.cleanupTimer = new Timer(CLEANUP_THREAD_NAME, true);
-
-			// Start the first cleanup task counting down.
-			resetCleanupTask();
+		if (EAGER_START && featureSet.contains(Feature.STAY_OPEN)) {
+			try {
+				warmUp();
+			} catch (IOException e) {
+				// The first real request will report (and retry) this.
+				log("\tUnable to warm up ExifTool daemon: %s", e);
+			}
 		}
 	}
 
@@ -961,10 +1324,20 @@ public class ExifTool {
 	 * The cleanup thread will automatically call this after an interval of
 	 * inactivity defined by {@link #PROCESS_CLEANUP_DELAY}.
 	 * <p/>
+	 * Outstanding asynchronous requests are given up to
+	 * {@link #CLOSE_TIMEOUT} to complete; any still outstanding after that
+	 * fail with an {@link IOException}.
+	 * <p/>
 	 * Calling this method on an instance of this class without
 	 * {@link Feature#STAY_OPEN} support enabled has no effect.
 	 */
 	public void close() {
+		DAEMONS.remove(this);
+
+		// Let pipelined requests finish (for a while) before the daemon goes.
+		shutdownAsyncReader();
+		discardReplacement();
+
 		/*
 		 * no-op if the underlying process and streams have already been closed
 		 * OR if stayOpen was never used in the first place in which case
@@ -981,6 +1354,21 @@ public class ExifTool {
 		 */
 		if (streams == null) {
 			log("\tThis ExifTool instance was never used so no external process or streams were ever created (nothing to clean up, we will just exit).");
+		} else
+			shutdownDaemon(streams);
+
+		streams = null;
+		log("\tExifTool daemon process successfully terminated.");
+	}
+
+	/**
+	 * Helper method used to tell the given daemon process to exit and close
+	 * the streams used to communicate with it.
+	 */
+	private static void shutdownDaemon(IOStream streams) {
+		if (streams.killed) {
+			log("\tExifTool process was killed, closing its streams...");
+			streams.close();
 		} else {
 			try {
 				log("\tAttempting to close ExifTool daemon process, issuing '-stay_open\\nFalse\\n' command...");
@@ -996,9 +1384,6 @@ public class ExifTool {
 				streams.close();
 			}
 		}
-
-		streams = null;
-		log("\tExifTool daemon process successfully terminated.");
 	}
 
 	/**
@@ -1020,48 +1405,640 @@ public class ExifTool {
 	}
 
 	/**
-	 * Used to determine if the given {@link Feature} has been enabled for this
-	 * particular instance of {@link ExifTool}.
+	 * Used to start the daemon ExifTool process and the read/write streams
+	 * used to communicate with it if they are not already running.
 	 * <p/>
-	 * This method is different from {@link #isFeatureSupported(Feature)}, which
-	 * checks if the given feature is supported by the underlying ExifTool
-	 * install where as this method tells the caller if the given feature has
-	 * been enabled for use in this particular instance.
-	 * 
-	 * @param feature
-	 *            The feature to check if it has been enabled for us or not on
-	 *            this instance.
-	 * 
-	 * @return <code>true</code> if the given {@link Feature} is currently
-	 *         enabled on this instance of {@link ExifTool}, otherwise returns
-	 *         <code>false</code>.
+	 * This is normally done lazily on the first call to
+	 * <code>getImageMeta</code>, but is exposed to the package so
+	 * {@link ExifToolPool} can hand out daemons that are already warm.
+	 * <p/>
+	 * Calling this method on an instance of this class without
+	 * {@link Feature#STAY_OPEN} support enabled has no effect.
 	 * 
-	 * @throws IllegalArgumentException
-	 *             if <code>feature</code> is <code>null</code>.
+	 * @throws RuntimeException
+	 *             if the external ExifTool process could not be started.
 	 */
-	public boolean isFeatureEnabled(Feature feature)
-			throws IllegalArgumentException {
-		if (feature == null)
-			throw new IllegalArgumentException("feature cannot be null");
+	void ensureDaemonRunning() throws RuntimeException {
+		if (!featureSet.contains(Feature.STAY_OPEN))
+			return;
 
-		return featureSet.contains(feature);
+		if (streams != null) {
+			RecyclePolicy policy = recyclePolicy;
+
+			if (policy != null)
+				recycleIfDue(policy);
+
+			return;
+		}
+
+		log("\tStarting daemon ExifTool process and creating read/write streams (this only happens once)...");
+
+		// Begin the persistent ExifTool process.
+		streams = startProcess(daemonArgs(), true);
+		resetDaemonAge();
+
+		if (daemonStarted) {
+			ExifToolMetrics metrics = this.metrics;
+
+			if (metrics != null)
+				metrics.onRestart();
+		}
+
+		daemonStarted = true;
+
+		// Let the shared reaper clean it up once it sits idle for too long.
+		lastUsed = System.nanoTime();
+
+		if (PROCESS_CLEANUP_DELAY > 0) {
+			DAEMONS.add(this);
+			startIdleReaper();
+		}
 	}
 
-	public Map<Tag, String> getImageMeta(File image, Tag... tags)
-			throws IllegalArgumentException, SecurityException, IOException {
-		return getImageMeta(image, Format.NUMERIC, tags);
+	private static List<String> daemonArgs() {
+		List<String> daemonArgs = new ArrayList<String>(5);
+		daemonArgs.add(EXIF_TOOL_PATH);
+		daemonArgs.add("-stay_open");
+		daemonArgs.add("True");
+		daemonArgs.add("-@");
+		daemonArgs.add("-");
+
+		return daemonArgs;
 	}
 
-	public Map<Tag, String> getImageMeta(File image, Format format, Tag... tags)
-			throws IllegalArgumentException, SecurityException, IOException {
+	private void resetDaemonAge() {
+		daemonStartTime = lastRssCheck = System.nanoTime();
+		daemonRequests = 0;
+	}
+
+	/**
+	 * Helper method called before every request to the running daemon
+	 * process to count the request against the given policy and recycle the
+	 * daemon once it is due.
+	 * <p/>
+	 * Once the daemon is due, its replacement is started in the background
+	 * (see {@link #startReplacement()}) and the current daemon keeps serving
+	 * requests; the first request after the replacement is ready swaps it in
+	 * and shuts the old daemon down. A daemon with pipelined requests still
+	 * in flight is only swapped once they are done.
+	 */
+	private void recycleIfDue(RecyclePolicy policy) {
+		daemonRequests++;
+
+		CompletableFuture<IOStream> pending = replacement;
+
+		if (pending == null) {
+			long now = System.nanoTime();
+			boolean due = policy.isDue(daemonRequests, now - daemonStartTime);
+
+			if (!due && policy.getMaxRss() > 0
+					&& now - lastRssCheck >= RecyclePolicy.RSS_CHECK_INTERVAL) {
+				lastRssCheck = now;
+				due = policy.isDueForRss(ProcessMemory
+						.residentSetSize(streams.process));
+			}
+
+			if (due) {
+				log("\tDaemon ExifTool process is due for recycling after %d requests, starting its replacement...",
+						daemonRequests);
+				replacement = startReplacement();
+			}
+
+			return;
+		}
+
+		if (!pending.isDone())
+			return;
+
+		CompletableFuture<Map<Tag, String>> last = lastAsyncRequest;
+
+		if (last != null && !last.isDone())
+			return;
+
+		replacement = null;
+
+		IOStream fresh;
+
+		try {
+			fresh = pending.join();
+		} catch (RuntimeException e) {
+			// Keep the old daemon for another full period before retrying.
+			log("\tFailed to start replacement daemon ExifTool process: %s", e);
+			resetDaemonAge();
+			return;
+		}
+
+		shutdownAsyncReader();
+
+		IOStream old = streams;
+		streams = fresh;
+		resetDaemonAge();
+
+		shutdownDaemon(old);
+		log("\tRecycled daemon ExifTool process.");
+
+		ExifToolMetrics metrics = this.metrics;
+
+		if (metrics != null)
+			metrics.onRecycle();
+	}
+
+	/**
+	 * Helper method used to start a new daemon process on a background
+	 * {@link Thread} (see {@link #RECYCLER_THREAD_NAME}) and read the
+	 * warm-up image through it, so it is as fast as the daemon it replaces
+	 * by the time it is swapped in.
+	 * 
+	 * @return the started daemon, completed exceptionally if it could not be
+	 *         started or warmed up.
+	 */
+	private CompletableFuture<IOStream> startReplacement() {
+		final CompletableFuture<IOStream> future = new CompletableFuture<IOStream>();
+
+		Thread thread = new Thread(RECYCLER_THREAD_NAME) {
+			@Override
+			public void run() {
+				IOStream started = null;
+
+				try {
+					started = startProcess(daemonArgs(), true);
+
+					started.writer.write(WarmUpHolder.QUERY.header());
+					started.writer.writeLine(WarmUpHolder.getImage()
+							.getAbsolutePath());
+					started.writer.writeExecute(0);
+					started.writer.flush();
+
+					while (started.reader.nextLine())
+						if (started.reader.readyId() == 0) {
+							future.complete(started);
+							return;
+						}
+
+					throw new IOException(
+							"Replacement ExifTool process exited during warm-up.");
+				} catch (Exception e) {
+					if (started != null) {
+						started.kill();
+						started.close();
+					}
+
+					future.completeExceptionally(e);
+				}
+			}
+		};
+
+		thread.setDaemon(true);
+		thread.start();
+
+		return future;
+	}
+
+	/**
+	 * Helper method used to shut down the replacement of a daemon that is
+	 * being recycled, if any, as soon as it is ready.
+	 */
+	private void discardReplacement() {
+		CompletableFuture<IOStream> pending = replacement;
+
+		if (pending == null)
+			return;
+
+		replacement = null;
+		pending.thenAccept(new Consumer<IOStream>() {
+			public void accept(IOStream unused) {
+				shutdownDaemon(unused);
+			}
+		});
+	}
+
+	/**
+	 * Used to get this instance ready to answer requests as fast as it ever
+	 * will: the daemon ExifTool process is started (when
+	 * {@link Feature#STAY_OPEN} is enabled) and a tiny built-in image is read
+	 * through it so Perl has loaded the ExifTool modules needed to read JPEG
+	 * and EXIF metadata before the first real request arrives.
+	 * <p/>
+	 * Without {@link Feature#STAY_OPEN} every request starts a new process
+	 * anyway, so this only warms the OS file caches.
+	 * <p/>
+	 * Calling this method on a daemon that is already warm is cheap, but not
+	 * free; it always makes one round trip to the daemon.
+	 * 
+	 * @throws RuntimeException
+	 *             if the external ExifTool process could not be started.
+	 * @throws IOException
+	 *             if the warm-up image could not be written to a temporary
+	 *             file or the request to ExifTool failed.
+	 * 
+	 * @see #EAGER_START
+	 * @since 1.2
+	 */
+	public void warmUp() throws RuntimeException, IOException {
+		long startTime = System.currentTimeMillis();
+
+		ensureDaemonRunning();
+
+		// Goes straight to ExifTool; the image must never land in the cache.
+		queryExifTool(Collections.singletonList(WarmUpHolder.getImage()),
+				WarmUpHolder.QUERY);
+
+		if (DEBUG)
+			log("\tWarmed up ExifTool in %d ms",
+					(System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Used to determine if the given {@link Feature} has been enabled for this
+	 * particular instance of {@link ExifTool}.
+	 * <p/>
+	 * This method is different from {@link #isFeatureSupported(Feature)}, which
+	 * checks if the given feature is supported by the underlying ExifTool
+	 * install where as this method tells the caller if the given feature has
+	 * been enabled for use in this particular instance.
+	 * 
+	 * @param feature
+	 *            The feature to check if it has been enabled for us or not on
+	 *            this instance.
+	 * 
+	 * @return <code>true</code> if the given {@link Feature} is currently
+	 *         enabled on this instance of {@link ExifTool}, otherwise returns
+	 *         <code>false</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>feature</code> is <code>null</code>.
+	 */
+	public boolean isFeatureEnabled(Feature feature)
+			throws IllegalArgumentException {
+		if (feature == null)
+			throw new IllegalArgumentException("feature cannot be null");
+
+		return featureSet.contains(feature);
+	}
+
+	/**
+	 * Used to get the {@link MetadataCache} consulted by this instance before
+	 * querying ExifTool.
+	 * 
+	 * @return the cache in use or <code>null</code> if caching is disabled
+	 *         (the default).
+	 */
+	public MetadataCache getMetadataCache() {
+		return cache;
+	}
+
+	/**
+	 * Used to set a {@link MetadataCache} that every
+	 * <code>getImageMeta</code> call on this instance consults before
+	 * querying ExifTool, and records the result in afterwards.
+	 * <p/>
+	 * Only calls reading tag values go through the cache. Calling
+	 * <code>setImageMeta</code> changes the file and so its identity, which
+	 * automatically invalidates anything cached for it.
+	 * 
+	 * @param cache
+	 *            The cache to use or <code>null</code> to disable caching.
+	 */
+	public void setMetadataCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the maximum amount of time (in milliseconds) a single request
+	 *         may take before the watchdog kills the external process, or
+	 *         <code>0</code> if the watchdog is disabled.
+	 * 
+	 * @see #REQUEST_TIMEOUT
+	 */
+	public long getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	/**
+	 * Used to set the maximum amount of time a single request to ExifTool made
+	 * through this instance may take.
+	 * <p/>
+	 * The deadline applies to every request individually, starting when this
+	 * class begins waiting for the response (for
+	 * {@link #getImageMetaAsync(File, Format, Tag...)}, when the response to
+	 * the request is next in line). When it passes, the external ExifTool
+	 * process is killed, only the request in flight fails with a
+	 * {@link RequestTimeoutException} and the next request transparently
+	 * starts a fresh process. Any other asynchronous requests already written
+	 * to the killed process fail with an {@link IOException} and can simply
+	 * be retried.
+	 * 
+	 * @param timeout
+	 *            The maximum duration of a request or <code>0</code> to
+	 *            disable the watchdog.
+	 * @param unit
+	 *            The unit of <code>timeout</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>timeout</code> is &lt; <code>0</code> or if
+	 *             <code>unit</code> is <code>null</code>.
+	 * 
+	 * @see #REQUEST_TIMEOUT
+	 */
+	public void setRequestTimeout(long timeout, TimeUnit unit)
+			throws IllegalArgumentException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout [" + timeout
+					+ "] must be >= 0");
+		if (unit == null)
+			throw new IllegalArgumentException("unit cannot be null");
+
+		this.requestTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * @return the number of requests made through this instance that failed
+	 *         with a {@link RequestTimeoutException}.
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * @return the policy deciding when the daemon process is recycled or
+	 *         <code>null</code> if it never is.
+	 * 
+	 * @since 1.2
+	 */
+	public RecyclePolicy getRecyclePolicy() {
+		return recyclePolicy;
+	}
+
+	/**
+	 * Used to set the policy deciding when the daemon process of this
+	 * instance is retired and replaced by a fresh one, to keep the Perl
+	 * process from growing without bound over millions of files.
+	 * <p/>
+	 * The replacement is started and warmed up in the background while the
+	 * current daemon keeps answering requests (see {@link RecyclePolicy}).
+	 * This is independent of {@link #PROCESS_CLEANUP_DELAY}, which shuts
+	 * down daemons that sit idle.
+	 * <p/>
+	 * Calling this method on an instance of this class without
+	 * {@link Feature#STAY_OPEN} support enabled has no effect.
+	 * <p/>
+	 * Default value is a policy with the limits set by the
+	 * "<code>exiftool.recycle.*</code>" system properties or
+	 * <code>null</code> if none is set.
+	 * 
+	 * @param policy
+	 *            The policy to use or <code>null</code> to never recycle the
+	 *            daemon.
+	 * 
+	 * @since 1.2
+	 */
+	public void setRecyclePolicy(RecyclePolicy policy) {
+		this.recyclePolicy = policy;
+	}
+
+	/**
+	 * @return <code>true</code> if common EXIF tags are read directly in Java
+	 *         when possible.
+	 * 
+	 * @since 1.2
+	 */
+	public boolean isFastPathEnabled() {
+		return fastPath;
+	}
+
+	/**
+	 * Used to enable answering queries directly in Java, without a round trip
+	 * to the external ExifTool process, when every tag queried is one of
+	 * {@link Tag#ORIENTATION}, {@link Tag#ISO}, {@link Tag#IMAGE_WIDTH},
+	 * {@link Tag#IMAGE_HEIGHT}, {@link Tag#DATE_TIME_ORIGINAL},
+	 * {@link Tag#MAKE}, {@link Tag#MODEL} or the GPS position tags and the
+	 * {@link Format} is {@link Format#NUMERIC}.
+	 * <p/>
+	 * Only the EXIF data of JPEG and TIFF images is read this way, and only
+	 * when the result is sure to be exactly what ExifTool would return;
+	 * anything else (other formats, files with XMP or IPTC data, tags missing
+	 * from the EXIF data, unusual encodings) transparently falls back to
+	 * ExifTool. Values read this way never have
+	 * {@link ImageMetadata#getErrors()}.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to read common tags in Java when possible.
+	 * 
+	 * @see #FAST_PATH
+	 * @since 1.2
+	 */
+	public void setFastPathEnabled(boolean enabled) {
+		this.fastPath = enabled;
+	}
+
+	/**
+	 * @return <code>true</code> if tags are written to XMP sidecar files
+	 *         instead of to the images themselves.
+	 * 
+	 * @since 1.2
+	 */
+	public boolean isSidecarWritesEnabled() {
+		return sidecarWrites;
+	}
+
+	/**
+	 * Used to make every <code>setImageMeta</code> call write the tags to the
+	 * XMP sidecar file of each image (see {@link #getSidecar(File)}) instead
+	 * of to the image itself.
+	 * <p/>
+	 * ExifTool has to rewrite the whole file to change any of its metadata,
+	 * which for large media files (e.g. multi-gigabyte videos) means copying
+	 * gigabytes to change a few bytes. A sidecar is a small stand-alone XMP
+	 * file, so writing to it costs a few kilobytes of I/O no matter how large
+	 * the image is, and the image itself is never touched (it only has to be
+	 * readable). A missing sidecar is created holding just the tags written.
+	 * <p/>
+	 * Only tags that exist in XMP can be stored this way; ExifTool maps the
+	 * others to their XMP equivalents where there is one and reports the
+	 * rest as not written. Use {@link #setSidecarReadsEnabled(boolean)} to
+	 * see the values again when reading the image.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to write tags to sidecar files.
+	 * 
+	 * @see #SIDECAR_WRITES
+	 * @since 1.2
+	 */
+	public void setSidecarWritesEnabled(boolean enabled) {
+		this.sidecarWrites = enabled;
+	}
+
+	/**
+	 * @return <code>true</code> if values from XMP sidecar files are merged
+	 *         into the values read from the images.
+	 * 
+	 * @since 1.2
+	 */
+	public boolean isSidecarReadsEnabled() {
+		return sidecarReads;
+	}
+
+	/**
+	 * Used to make every <code>getImageMeta</code> call also read the XMP
+	 * sidecar file of each image that has one (see {@link #getSidecar(File)})
+	 * and merge its values into the result, values from the sidecar taking
+	 * precedence over the ones in the image.
+	 * <p/>
+	 * The sidecar is read in the same request to ExifTool as the image. The
+	 * {@link MetadataCache} and the fast path are bypassed for images with a
+	 * sidecar, since a change to the sidecar doesn't change the
+	 * {@link FileIdentity} of the image; images without one are not affected
+	 * beyond checking that the sidecar doesn't exist.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to merge sidecar values into the results.
+	 * 
+	 * @see #SIDECAR_READS
+	 * @since 1.2
+	 */
+	public void setSidecarReadsEnabled(boolean enabled) {
+		this.sidecarReads = enabled;
+	}
+
+	/**
+	 * @return the listener receiving timings and counts for this instance or
+	 *         <code>null</code> if there is none.
+	 * 
+	 * @since 1.2
+	 */
+	public ExifToolMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Used to set a listener that receives timings and counts for every
+	 * request made through this instance and every external process it
+	 * starts; see {@link HistogramMetrics} for a ready to use implementation.
+	 * <p/>
+	 * Without a listener (the default) no time is spent measuring anything
+	 * beyond what {@link #DEBUG} logging already does.
+	 * 
+	 * @param metrics
+	 *            The listener to use or <code>null</code> to stop reporting.
+	 * 
+	 * @since 1.2
+	 */
+	public void setMetrics(ExifToolMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Used to get the most recent lines (up to {@link #ERROR_BUFFER_SIZE})
+	 * the ExifTool processes of this instance wrote to standard error,
+	 * oldest first.
+	 * <p/>
+	 * The lines belonging to a given image are also available from
+	 * {@link ImageMetadata#getErrors()}; this is mostly useful to diagnose
+	 * failures that have no result to attach them to, like files ExifTool
+	 * could not read at all.
+	 * 
+	 * @return a copy of the recent lines.
+	 */
+	public List<String> getRecentErrors() {
+		return recentErrors.toList();
+	}
+
+	/**
+	 * Helper method used to get the id of the next request, used to number
+	 * <code>-execute</code> commands and the markers echoed to standard error.
+	 */
+	private int nextRequestId() {
+		synchronized (asyncLock) {
+			return ++requestId;
+		}
+	}
+
+	public Map<Tag, String> getImageMeta(File image, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMeta(image, Format.NUMERIC, tags);
+	}
+
+	public Map<Tag, String> getImageMeta(File image, Format format, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMetadata(image, format, tags).toMap();
+	}
+
+	public ImageMetadata getImageMetadata(File image, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMetadata(image, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Used to query tags from an image and get the values back as an
+	 * {@link ImageMetadata} instead of a {@link Map}.
+	 * <p/>
+	 * This is the same call as {@link #getImageMeta(File, Format, Tag...)}
+	 * (which is implemented on top of it), but the values are parsed straight
+	 * into the compact, ordinal-indexed storage of {@link ImageMetadata} and
+	 * numeric values can be read back as primitives without boxing.
+	 * 
+	 * @param image
+	 *            The image to query.
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query from the image.
+	 * 
+	 * @return the values found in the image; tags with no value are absent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code> or <code>format</code> is
+	 *             <code>null</code> or if <code>tags</code> is
+	 *             <code>null</code> or empty.
+	 * @throws SecurityException
+	 *             if the image cannot be read.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process.
+	 */
+	public ImageMetadata getImageMetadata(File image, Format format,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
 		if (image == null)
 			throw new IllegalArgumentException(
 					"image cannot be null and must be a valid stream of image data.");
-		if (format == null)
-			throw new IllegalArgumentException("format cannot be null");
-		if (tags == null || tags.length == 0)
+
+		return getImageMetadata(image, new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against an image.
+	 * <p/>
+	 * This is the cheapest way to query the same set of tags from many images
+	 * one at a time: the arguments for the tags were encoded once when the
+	 * query was created, so each call only writes those bytes, the path of
+	 * the image and <code>-execute</code> to the daemon ExifTool process.
+	 * 
+	 * @param image
+	 *            The image to query.
+	 * @param query
+	 *            The query to run.
+	 * 
+	 * @return the values found in the image; tags with no value are absent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code> or <code>query</code> is
+	 *             <code>null</code>.
+	 * @throws SecurityException
+	 *             if the image cannot be read.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process.
+	 * 
+	 * @see #getImageMetadata(File, Format, Tag...)
+	 */
+	public ImageMetadata getImageMetadata(File image, PreparedQuery query)
+			throws IllegalArgumentException, SecurityException, IOException {
+		if (image == null)
 			throw new IllegalArgumentException(
-					"tags cannot be null and must contain 1 or more Tag to query the image for.");
+					"image cannot be null and must be a valid stream of image data.");
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
 		if (!image.canRead())
 			throw new SecurityException(
 					"Unable to read the given image ["
@@ -1070,359 +2047,2848 @@ public class ExifTool {
 
 		long startTime = System.currentTimeMillis();
 
-		/*
-		 * Create a result map big enough to hold results for each of the tags
-		 * and avoid collisions while inserting.
-		 */
-		Map<Tag, String> resultMap = new HashMap<ExifTool.Tag, String>(
-				tags.length * 3);
+		Format format = query.getFormat();
+		Tag[] tags = query.tags();
+
+		if (sidecarReads && findSidecar(image) != null) {
+			ImageMetadata metadata = queryWithSidecars(
+					Collections.singletonList(image), query).get(image);
+
+			return (metadata == null ? new ImageMetadata(image, format)
+					: metadata);
+		}
+
+		MetadataCache cache = (query.cacheable() ? this.cache : null);
+		FileIdentity identity = null;
+
+		if (cache != null) {
+			identity = FileIdentity.of(image);
+			Map<Tag, String> cachedMap = cache.get(identity, format, tags);
+
+			if (cachedMap != null) {
+				if (DEBUG)
+					log("Answered %d tags for image from cache: %s",
+							tags.length, image.getAbsolutePath());
+
+				return new ImageMetadata(image, format, cachedMap);
+			}
+		}
+
+		if (fastPath && query.fastPath()) {
+			ImageMetadata metadata = FastExifReader.read(image, tags);
+
+			if (metadata != null) {
+				if (DEBUG)
+					log("Read %d tags without ExifTool from image: %s",
+							tags.length, image.getAbsolutePath());
+
+				if (cache != null)
+					cache.put(identity, format, tags, metadata.toMap());
+
+				return metadata;
+			}
+		}
+
+		ImageMetadata metadata = new ImageMetadata(image, format);
 
 		if (DEBUG)
 			log("Querying %d tags from image: %s", tags.length,
 					image.getAbsolutePath());
 
 		long exifToolCallElapsedTime = 0;
+		int errorMarker = 0;
+
+		// Only read the clock for the listener if there is one.
+		ExifToolMetrics metrics = this.metrics;
+		long requestStart = 0;
+		long requestWritten = 0;
+		long firstLine = 0;
+
+		/*
+		 * Using ExifTool in daemon mode (-stay_open True) executes different
+		 * code paths below. So establish the flag for this once and it is
+		 * reused a multitude of times later in this method to figure out where
+		 * to branch to.
+		 */
+		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+
+		// Clear process args
+		args.clear();
+
+		if (stayOpen) {
+			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+
+			// Keep the daemon from being reaped while in use.
+			markUsed();
+
+			// Pipelined requests must be done with the streams first.
+			awaitAsyncRequests();
+
+			/*
+			 * If this is our first time calling getImageMeta with a stayOpen
+			 * connection, set up the persistent process and run it so it is
+			 * ready to receive commands from us.
+			 */
+			ensureDaemonRunning();
+
+			log("\tStreaming arguments to ExifTool process...");
+
+			requestStart = nanoTime(metrics);
+
+			streams.writer.write(query.header());
+			streams.writer.writeLine(image.getAbsolutePath());
+
+			errorMarker = nextRequestId();
+			streams.writeErrorMarker(errorMarker);
+
+			log("\tExecuting ExifTool...");
+
+			// Begin tracking the duration ExifTool takes to respond.
+			exifToolCallElapsedTime = System.currentTimeMillis();
+
+			// Run ExifTool on our file with all the given arguments.
+			streams.writer.writeExecute(0);
+			streams.writer.flush();
+
+			requestWritten = nanoTime(metrics);
+		} else {
+			log("\tUsing ExifTool in non-daemon mode (-stay_open False)...");
+
+			/*
+			 * Since we are not using a stayOpen process, we need to setup the
+			 * execution arguments completely each time.
+			 */
+			args.add(EXIF_TOOL_PATH);
+			query.addArguments(args);
+			args.add(image.getAbsolutePath());
+
+			// Nothing to write, ExifTool starts working as soon as it runs.
+			requestStart = requestWritten = nanoTime(metrics);
+
+			// Run the ExifTool with our args.
+			streams = startProcess(args, false);
+
+			// Begin tracking the duration ExifTool takes to respond.
+			exifToolCallElapsedTime = System.currentTimeMillis();
+		}
+
+		log("\tReading response back from ExifTool...");
+
+		Watchdog watchdog = startWatchdog(streams);
+		ResponseReader reader = streams.reader;
+
+		try {
+			while (reader.nextLine()) {
+				if (firstLine == 0 && metrics != null)
+					firstLine = System.nanoTime();
+
+				/*
+				 * When using a persistent ExifTool process, it terminates
+				 * its output to us with a "{ready}" clause on a new line, we
+				 * need to look for it and break from this loop when we see
+				 * it otherwise this process will hang indefinitely blocking
+				 * on the input stream with no data to read.
+				 */
+				if (stayOpen && reader.readyId() == 0)
+					break;
+
+				parseTagLine(reader, metadata);
+			}
+		} finally {
+			stopWatchdog(watchdog);
+		}
+
+		if (metrics != null)
+			reportRequest(metrics, 1, tags.length, metadata.size(),
+					requestWritten - requestStart, requestWritten, firstLine);
+
+		// Print out how long the call to external ExifTool process took.
+		log("\tFinished reading ExifTool response in %d ms.",
+				(System.currentTimeMillis() - exifToolCallElapsedTime));
+
+		// Everything ExifTool wrote to stderr was about this one image.
+		metadata.setErrors(collectErrors(stayOpen, errorMarker));
+
+		/*
+		 * If we are not using a persistent ExifTool process, then after running
+		 * the command above, the process exited in which case we need to clean
+		 * our streams up since it no longer exists. If we were using a
+		 * persistent ExifTool process, leave the streams open for future calls.
+		 */
+		if (!stayOpen) {
+			streams.close();
+			streams = null;
+		}
+
+		if (cache != null)
+			cache.put(identity, format, tags, metadata.toMap());
+
+		if (DEBUG)
+			log("\tImage Meta Processed in %d ms [queried %d tags and found %d values]",
+					(System.currentTimeMillis() - startTime), tags.length,
+					metadata.size());
+
+		return metadata;
+	}
+
+	/**
+	 * Used to query tags from image data that is not in a file (e.g. an
+	 * upload or an object read from remote storage) without writing it to a
+	 * temporary file first.
+	 * <p/>
+	 * Every call starts a one-off ExifTool process run with
+	 * <code>-fast</code> and streams the data to its standard input; the
+	 * daemon is never used, even with {@link Feature#STAY_OPEN} enabled (see
+	 * {@link #getImageMetadata(InputStream, PreparedQuery)} for the details).
+	 * The stream is not closed.
+	 * 
+	 * @param in
+	 *            The stream to read the image from, positioned at its start.
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query from the image.
+	 * 
+	 * @return the values found in the image; tags with no value are absent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>in</code> or <code>format</code> is
+	 *             <code>null</code> or if <code>tags</code> is
+	 *             <code>null</code> or empty.
+	 * @throws IOException
+	 *             if an error occurs reading from the stream or communicating
+	 *             with the external ExifTool process.
+	 */
+	public Map<Tag, String> getImageMeta(InputStream in, Format format,
+			Tag... tags) throws IllegalArgumentException, IOException {
+		return getImageMetadata(in, new PreparedQuery(format, tags)).toMap();
+	}
+
+	/**
+	 * Used to query tags from image data held in memory.
+	 * <p/>
+	 * Like {@link #getImageMeta(InputStream, Format, Tag...)}, every call
+	 * starts a one-off ExifTool process run with <code>-fast</code> and never
+	 * uses the daemon.
+	 * 
+	 * @param data
+	 *            The image data.
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query from the image.
+	 * 
+	 * @return the values found in the image; tags with no value are absent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>data</code> or <code>format</code> is
+	 *             <code>null</code> or if <code>tags</code> is
+	 *             <code>null</code> or empty.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process.
+	 */
+	public Map<Tag, String> getImageMeta(byte[] data, Format format,
+			Tag... tags) throws IllegalArgumentException, IOException {
+		return getImageMetadata(data, new PreparedQuery(format, tags)).toMap();
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against image data held in memory.
+	 * 
+	 * @see #getImageMetadata(InputStream, PreparedQuery)
+	 */
+	public ImageMetadata getImageMetadata(byte[] data, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+
+		return getImageMetadata(ImageHeader.asStream(ByteBuffer.wrap(data)),
+				query);
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against the remaining bytes of the
+	 * given buffer, which can be a heap, direct or memory-mapped buffer. The
+	 * position of the buffer is not changed.
+	 * 
+	 * @see #getImageMetadata(InputStream, PreparedQuery)
+	 */
+	public ImageMetadata getImageMetadata(ByteBuffer data, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+
+		return getImageMetadata(ImageHeader.asStream(data), query);
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against image data that is not in a
+	 * file (e.g. an upload or an object read from remote storage) without
+	 * writing it to a temporary file first.
+	 * <p/>
+	 * The data is streamed to ExifTool's standard input and ExifTool is run
+	 * with <code>-fast</code>. For JPEG images only the segments in front of
+	 * the compressed image data are sent, which is everything ExifTool reads
+	 * in that mode, and the rest of the stream is never read; other formats
+	 * are sent until ExifTool stops reading.
+	 * <p/>
+	 * The standard input of a daemon ExifTool process already carries the
+	 * arguments of every request, so this call always runs a separate
+	 * ExifTool process regardless of {@link Feature#STAY_OPEN}; the daemon,
+	 * if any, is neither used nor disturbed. Results are never cached as
+	 * there is no {@link FileIdentity} to key them by, and the returned
+	 * {@link ImageMetadata#getFile()} is <code>null</code>.
+	 * <p/>
+	 * The stream is not closed.
+	 * 
+	 * @param in
+	 *            The stream to read the image from, positioned at its start.
+	 * @param query
+	 *            The query to run.
+	 * 
+	 * @return the values found in the image; tags with no value are absent.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>in</code> or <code>query</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if an error occurs reading from the stream or communicating
+	 *             with the external ExifTool process.
+	 */
+	public ImageMetadata getImageMetadata(InputStream in, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		if (in == null)
+			throw new IllegalArgumentException(
+					"in cannot be null and must be a valid stream of image data.");
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+
+		long startTime = System.currentTimeMillis();
+
+		Format format = query.getFormat();
+		Tag[] tags = query.tags();
+		ImageMetadata metadata = new ImageMetadata(null, format);
+
+		if (DEBUG)
+			log("Querying %d tags from image stream", tags.length);
+
+		List<String> streamArgs = new ArrayList<String>(tags.length + 5);
+		streamArgs.add(EXIF_TOOL_PATH);
+		streamArgs.add("-fast"); // stop at the compressed image data
+		query.addArguments(streamArgs);
+		streamArgs.add("-"); // read the image from stdin
+
+		ExifToolMetrics metrics = this.metrics;
+		IOStream process = startProcess(streamArgs, false);
+
+		long requestStart = nanoTime(metrics);
+		long requestWritten = 0;
+		long firstLine = 0;
+		long sent;
+		boolean completed = false;
+
+		try {
+			// Also covers a process that hangs without reading its input.
+			Watchdog watchdog = startWatchdog(process);
+
+			try {
+				log("\tStreaming image to ExifTool process...");
+
+				/*
+				 * The response to a handful of tags fits in the pipe, so it is
+				 * safe to write all of the input before reading any output.
+				 */
+				sent = new ImageHeader(in, process.writer).copy();
+				requestWritten = nanoTime(metrics);
+
+				log("\tReading response back from ExifTool...");
+
+				ResponseReader reader = process.reader;
+
+				while (reader.nextLine()) {
+					if (firstLine == 0 && metrics != null)
+						firstLine = System.nanoTime();
+
+					parseTagLine(reader, metadata);
+				}
+			} finally {
+				stopWatchdog(watchdog);
+			}
+
+			metadata.setErrors(process.errors.awaitEnd(ERROR_COLLECT_TIMEOUT));
+			completed = true;
+		} finally {
+			// Don't leave a process behind waiting for the rest of its input.
+			if (!completed)
+				process.kill();
+
+			process.close();
+		}
+
+		if (metrics != null)
+			reportRequest(metrics, 1, tags.length, metadata.size(),
+					requestWritten - requestStart, requestWritten, firstLine);
+
+		if (DEBUG)
+			log("\tImage Meta Processed in %d ms [sent %d bytes, queried %d tags and found %d values]",
+					(System.currentTimeMillis() - startTime), sent,
+					tags.length, metadata.size());
+
+		return metadata;
+	}
+
+	/**
+	 * Used to extract the binary value of a tag, like the embedded
+	 * {@link Tag#THUMBNAIL_IMAGE}, {@link Tag#PREVIEW_IMAGE} or
+	 * {@link Tag#JPG_FROM_RAW}, into a newly allocated direct buffer.
+	 * 
+	 * @return a buffer holding the value, ready to be read, or
+	 *         <code>null</code> if the image has no binary value for the tag.
+	 * 
+	 * @see #extractBinary(File, Tag, WritableByteChannel)
+	 */
+	public ByteBuffer extractBinary(File image, Tag tag)
+			throws IllegalArgumentException, SecurityException, IOException {
+		ByteBuffer[] result = new ByteBuffer[1];
+
+		if (extractBinary(image, tag, null, result) < 0)
+			return null;
+
+		result[0].flip();
+		return result[0];
+	}
+
+	/**
+	 * Used to extract the binary value of a tag into the given buffer (e.g.
+	 * one taken from a pool of direct buffers), starting at its position.
+	 * <p/>
+	 * On return the position of the buffer is just past the value. If the
+	 * buffer doesn't have room for the value, nothing is written to it and a
+	 * {@link BufferOverflowException} is thrown; the daemon process is left
+	 * ready for the next request either way.
+	 * 
+	 * @return the length of the value or <code>-1</code> if the image has no
+	 *         binary value for the tag.
+	 * 
+	 * @throws BufferOverflowException
+	 *             if the value is larger than the remaining space in
+	 *             <code>target</code>.
+	 * 
+	 * @see #extractBinary(File, Tag, WritableByteChannel)
+	 */
+	public int extractBinary(File image, Tag tag, ByteBuffer target)
+			throws IllegalArgumentException, SecurityException,
+			BufferOverflowException, IOException {
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		ByteBuffer[] result = { target };
+		return (int) extractBinary(image, tag, null, result);
+	}
+
+	/**
+	 * Used to extract the binary value of a tag, like the embedded
+	 * {@link Tag#THUMBNAIL_IMAGE}, {@link Tag#PREVIEW_IMAGE} or
+	 * {@link Tag#JPG_FROM_RAW}, and stream it straight into the given channel
+	 * (e.g. a {@link java.nio.channels.FileChannel} or socket).
+	 * <p/>
+	 * The bytes ExifTool prints with <code>-b</code> are copied from its
+	 * output to the channel as-is; they are never decoded into a
+	 * {@link String} nor base64 encoded. Generating a thumbnail from an
+	 * embedded preview this way is far cheaper than decoding the image.
+	 * <p/>
+	 * With {@link Feature#STAY_OPEN} this goes through the daemon process:
+	 * two commands are sent at once, the first to learn the length of the
+	 * value and the second to print it, so the end of the value is known
+	 * without scanning the data for the <code>{ready}</code> marker.
+	 * 
+	 * @param image
+	 *            The image to extract the value from.
+	 * @param tag
+	 *            The binary tag to extract.
+	 * @param target
+	 *            The channel to write the value to; it is not closed.
+	 * 
+	 * @return the number of bytes written to <code>target</code> or
+	 *         <code>-1</code> if the image has no binary value for the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code>, <code>tag</code> or
+	 *             <code>target</code> is <code>null</code>.
+	 * @throws SecurityException
+	 *             if the image cannot be read.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process or writing to the channel.
+	 * 
+	 * @since 1.2
+	 */
+	public long extractBinary(File image, Tag tag, WritableByteChannel target)
+			throws IllegalArgumentException, SecurityException, IOException {
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		return extractBinary(image, tag, target, null);
+	}
+
+	/**
+	 * Helper method used to extract a binary value into either the given
+	 * channel or the buffer in <code>buffer[0]</code> (allocating it if it
+	 * is <code>null</code>).
+	 */
+	private long extractBinary(File image, Tag tag,
+			WritableByteChannel target, ByteBuffer[] buffer)
+			throws IllegalArgumentException, SecurityException, IOException {
+		if (image == null)
+			throw new IllegalArgumentException(
+					"image cannot be null and must be a valid stream of image data.");
+		if (tag == null)
+			throw new IllegalArgumentException("tag cannot be null");
+		if (!image.canRead())
+			throw new SecurityException(
+					"Unable to read the given image ["
+							+ image.getAbsolutePath()
+							+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
+
+		long startTime = System.currentTimeMillis();
+
+		if (DEBUG)
+			log("Extracting binary tag %s from image: %s", tag.name,
+					image.getAbsolutePath());
+
+		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+		int errorMarker = 0;
+
+		if (stayOpen) {
+			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+
+			// Keep the daemon from being reaped while in use.
+			markUsed();
+
+			// Pipelined requests must be done with the streams first.
+			awaitAsyncRequests();
+			ensureDaemonRunning();
+
+			String path = image.getAbsolutePath();
+
+			// First the length of the value...
+			streams.writer.write("-S\n-");
+			streams.writer.writeLine(tag.name);
+			streams.writer.writeLine(path);
+			streams.writer.writeExecute(0);
+
+			// ...then the value itself.
+			streams.writer.write("-b\n-");
+			streams.writer.writeLine(tag.name);
+			streams.writer.writeLine(path);
+
+			errorMarker = nextRequestId();
+			streams.writeErrorMarker(errorMarker);
+			streams.writer.writeExecute(0);
+			streams.writer.flush();
+		} else {
+			log("\tUsing ExifTool in non-daemon mode (-stay_open False)...");
+
+			args.clear();
+			args.add(EXIF_TOOL_PATH);
+			args.add("-b");
+			args.add("-" + tag.name);
+			args.add(image.getAbsolutePath());
+
+			streams = startProcess(args, false);
+		}
+
+		Watchdog watchdog = startWatchdog(streams);
+		ResponseReader reader = streams.reader;
+		long length = -1;
+		boolean overflow = false;
+		boolean inSync = false;
+
+		try {
+			if (stayOpen) {
+				while (reader.nextLine() && reader.readyId() != 0) {
+					if (reader.tag() == tag)
+						length = parseBinaryLength(reader.value());
+				}
+			}
+
+			if (!stayOpen) {
+				// A one-off process just ends after the value.
+				if (buffer == null)
+					length = reader.transferTo(-1, target);
+				else {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					length = reader.transferTo(-1, Channels.newChannel(bytes));
+
+					if (length > 0) {
+						overflow = !fits(buffer, length);
+
+						if (!overflow)
+							buffer[0].put(bytes.toByteArray());
+					}
+				}
+
+				if (length == 0)
+					length = -1;
+			} else if (length >= 0) {
+				WritableByteChannel sink = target;
+
+				// A value that doesn't fit is skipped, but still read.
+				if (buffer != null) {
+					overflow = !fits(buffer, length);
+					sink = (overflow ? null : new BufferChannel(buffer));
+				}
+
+				reader.transferTo(length, sink);
+
+				if (!reader.nextLine() || reader.readyId() != 0)
+					throw new IOException("ExifTool printed more than the "
+							+ length
+							+ " bytes of binary data it reported for tag "
+							+ tag.name);
+			} else {
+				// No binary value; whatever was printed is skipped.
+				while (reader.nextLine() && reader.readyId() != 0)
+					;
+			}
+
+			inSync = true;
+		} finally {
+			try {
+				stopWatchdog(watchdog);
+			} finally {
+				// Never reuse a process whose output can't be trusted anymore.
+				if (!inSync && streams != null) {
+					shutdownAsyncReader();
+					streams.kill();
+					streams.close();
+					streams = null;
+				}
+			}
+		}
+
+		for (String line : collectErrors(stayOpen, errorMarker))
+			log("\t\tExifTool reported: %s", line);
+
+		if (!stayOpen) {
+			streams.close();
+			streams = null;
+		}
+
+		if (DEBUG)
+			log("\tBinary tag extracted in %d ms [%d bytes]",
+					(System.currentTimeMillis() - startTime), length);
+
+		if (overflow)
+			throw new BufferOverflowException();
+
+		return length;
+	}
+
+	/**
+	 * Helper method used to determine if a binary value of the given length
+	 * fits the buffer in <code>buffer[0]</code>, allocating a direct buffer
+	 * of exactly that size if there is none yet.
+	 */
+	private static boolean fits(ByteBuffer[] buffer, long length) {
+		if (buffer[0] == null)
+			buffer[0] = ByteBuffer.allocateDirect((int) length);
+
+		return length <= buffer[0].remaining();
+	}
+
+	/**
+	 * Simple {@link WritableByteChannel} appending everything written to it
+	 * to a {@link ByteBuffer}, used to extract binary values straight into a
+	 * caller's buffer.
+	 */
+	private static class BufferChannel implements WritableByteChannel {
+		private final ByteBuffer[] buffer;
+
+		public BufferChannel(ByteBuffer[] buffer) {
+			this.buffer = buffer;
+		}
+
+		public int write(ByteBuffer source) {
+			int length = source.remaining();
+			buffer[0].put(source);
+			return length;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+			// no-op, the buffer belongs to the caller.
+		}
+	}
+
+	/**
+	 * Helper method used to parse the length out of the value ExifTool prints
+	 * for binary tags without <code>-b</code> (see
+	 * {@link #BINARY_DATA_PREFIX}).
+	 * 
+	 * @return the length or <code>-1</code> if the value isn't binary data.
+	 */
+	private static long parseBinaryLength(String value) {
+		if (!value.startsWith(BINARY_DATA_PREFIX))
+			return -1;
+
+		int start = BINARY_DATA_PREFIX.length();
+		int end = start;
+
+		while (end < value.length() && Character.isDigit(value.charAt(end)))
+			end++;
+
+		if (end == start || !value.startsWith(" bytes", end))
+			return -1;
+
+		try {
+			return Long.parseLong(value.substring(start, end));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public Map<File, Map<Tag, String>> getImageMeta(List<File> images,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
+		return getImageMeta(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Used to query the same set of tags from many images with a single
+	 * request to ExifTool.
+	 * <p/>
+	 * Instead of paying one full round trip to the external process per image
+	 * like {@link #getImageMeta(File, Format, Tag...)} does, every path is
+	 * streamed to ExifTool ahead of a single <code>-execute</code> and the
+	 * combined response is split back up per image using the
+	 * "<code>======== path</code>" header ExifTool prints in front of the
+	 * values for each file.
+	 * <p/>
+	 * When {@link Feature#STAY_OPEN} is not enabled the paths are handed to the
+	 * one-off ExifTool process over its standard input (<code>-@ -</code>)
+	 * rather than the command line so very large batches don't run into the
+	 * host OS limit on argument length.
+	 * 
+	 * @param images
+	 *            The images to query, each must be readable.
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query from every image.
+	 * 
+	 * @return a {@link Map} from each image ExifTool was able to read to the
+	 *         tag values found in it (in the same order as
+	 *         <code>images</code>). Images ExifTool could not read are omitted
+	 *         and tags with no value in a given image are omitted from that
+	 *         image's map, same as with the single image call.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>images</code> is <code>null</code>, empty or
+	 *             contains <code>null</code>, if <code>format</code> is
+	 *             <code>null</code> or if <code>tags</code> is
+	 *             <code>null</code> or empty.
+	 * @throws SecurityException
+	 *             if any of the images cannot be read.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process.
+	 */
+	public Map<File, Map<Tag, String>> getImageMeta(List<File> images,
+			Format format, Tag... tags) throws IllegalArgumentException,
+			SecurityException, IOException {
+		Map<File, ImageMetadata> metadataMap = getImageMetadata(images,
+				format, tags);
+		Map<File, Map<Tag, String>> resultMap = new LinkedHashMap<File, Map<Tag, String>>(
+				metadataMap.size() * 2);
+
+		for (Entry<File, ImageMetadata> entry : metadataMap.entrySet())
+			resultMap.put(entry.getKey(), entry.getValue().toMap());
+
+		return resultMap;
+	}
+
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
+		return getImageMetadata(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Used to query the same set of tags from many images with a single
+	 * request to ExifTool and get the values for each back as an
+	 * {@link ImageMetadata}.
+	 * <p/>
+	 * This is the same call as {@link #getImageMeta(List, Format, Tag...)}
+	 * (which is implemented on top of it), but avoids a {@link Map} per
+	 * image, which adds up quickly for large batches.
+	 * 
+	 * @return a {@link Map} from each image ExifTool was able to read to the
+	 *         values found in it (in the same order as <code>images</code>).
+	 * 
+	 * @see #getImageMeta(List, Format, Tag...)
+	 */
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			Format format, Tag... tags) throws IllegalArgumentException,
+			SecurityException, IOException {
+		if (images == null || images.isEmpty())
+			throw new IllegalArgumentException(
+					"images cannot be null and must contain 1 or more image to query.");
+
+		return getImageMetadata(images, new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against many images with a single
+	 * request to ExifTool.
+	 * 
+	 * @return a {@link Map} from each image ExifTool was able to read to the
+	 *         values found in it (in the same order as <code>images</code>).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>images</code> is <code>null</code>, empty or
+	 *             contains <code>null</code> or if <code>query</code> is
+	 *             <code>null</code>.
+	 * 
+	 * @see #getImageMetadata(List, Format, Tag...)
+	 * @see #getImageMetadata(File, PreparedQuery)
+	 */
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IOException {
+		MetadataCache cache = this.cache;
+
+		if (cache == null || images == null || query == null
+				|| !query.cacheable())
+			return queryImageMeta(images, query);
+
+		Format format = query.getFormat();
+		Tag[] tags = query.tags();
+
+		/*
+		 * Answer what we can from the cache and only send the misses to
+		 * ExifTool, keeping the results in the order of the images given.
+		 */
+		Map<File, ImageMetadata> resultMap = new LinkedHashMap<File, ImageMetadata>(
+				images.size() * 2);
+		Map<File, FileIdentity> missMap = new LinkedHashMap<File, FileIdentity>();
+		boolean sidecarReads = this.sidecarReads;
+
+		for (File image : images) {
+			if (image == null)
+				throw new IllegalArgumentException(
+						"images cannot contain a null image.");
+			if (!image.canRead())
+				throw new SecurityException(
+						"Unable to read the given image ["
+								+ image.getAbsolutePath()
+								+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
+
+			// Images with a sidecar are never cached (no identity).
+			if (sidecarReads && findSidecar(image) != null) {
+				resultMap.put(image, null);
+				missMap.put(image, null);
+				continue;
+			}
+
+			FileIdentity identity = FileIdentity.of(image);
+			Map<Tag, String> cachedMap = cache.get(identity, format, tags);
+
+			// Reserve the slot either way to preserve ordering.
+			resultMap.put(image, cachedMap == null ? null : new ImageMetadata(
+					image, format, cachedMap));
+
+			if (cachedMap == null)
+				missMap.put(image, identity);
+		}
+
+		if (DEBUG)
+			log("Answered %d of %d images from cache", images.size()
+					- missMap.size(), images.size());
+
+		if (!missMap.isEmpty()) {
+			Map<File, ImageMetadata> queriedMap = queryImageMeta(
+					new ArrayList<File>(missMap.keySet()), query);
+
+			for (Entry<File, FileIdentity> miss : missMap.entrySet()) {
+				ImageMetadata metadata = queriedMap.get(miss.getKey());
+
+				if (metadata == null)
+					resultMap.remove(miss.getKey());
+				else {
+					if (miss.getValue() != null)
+						cache.put(miss.getValue(), format, tags,
+								metadata.toMap());
+
+					resultMap.put(miss.getKey(), metadata);
+				}
+			}
+		}
+
+		return resultMap;
+	}
+
+	private Map<File, ImageMetadata> queryImageMeta(List<File> images,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IOException {
+		if (!fastPath || images == null || query == null || !query.fastPath())
+			return queryWithSidecars(images, query);
+
+		boolean sidecarReads = this.sidecarReads;
+
+		/*
+		 * Read what we can in Java and only send the rest to ExifTool, keeping
+		 * the results in the order of the images given. Anything invalid is
+		 * left for queryExifTool to reject.
+		 */
+		Map<File, ImageMetadata> resultMap = new LinkedHashMap<File, ImageMetadata>(
+				images.size() * 2);
+		List<File> misses = new ArrayList<File>();
+
+		for (File image : images) {
+			ImageMetadata metadata = null;
+
+			if (image != null && image.canRead()
+					&& !(sidecarReads && findSidecar(image) != null))
+				metadata = FastExifReader.read(image, query.tags());
+
+			// Reserve the slot either way to preserve ordering.
+			resultMap.put(image, metadata);
+
+			if (metadata == null)
+				misses.add(image);
+		}
+
+		if (DEBUG)
+			log("Read %d of %d images without ExifTool", images.size()
+					- misses.size(), images.size());
+
+		if (!misses.isEmpty()) {
+			Map<File, ImageMetadata> queriedMap = queryWithSidecars(misses,
+					query);
+
+			for (File miss : misses) {
+				ImageMetadata metadata = queriedMap.get(miss);
+
+				if (metadata == null)
+					resultMap.remove(miss);
+				else
+					resultMap.put(miss, metadata);
+			}
+		}
+
+		return resultMap;
+	}
+
+	/**
+	 * Helper method used to query the given images and, if enabled, their
+	 * sidecar files with a single request to ExifTool, merging the values
+	 * from each sidecar into the result for its image.
+	 */
+	private Map<File, ImageMetadata> queryWithSidecars(List<File> images,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IOException {
+		if (!sidecarReads || images == null || query == null)
+			return queryExifTool(images, query);
+
+		Map<File, File> sidecarMap = new HashMap<File, File>();
+		List<File> files = new ArrayList<File>(images);
+		Set<File> fileSet = new HashSet<File>(images);
+
+		for (File image : images) {
+			File sidecar = (image == null ? null : findSidecar(image));
+
+			if (sidecar == null)
+				continue;
+
+			sidecarMap.put(image, sidecar);
+
+			// Images sharing a sidecar (photo.jpg, photo.cr2) read it once.
+			if (fileSet.add(sidecar))
+				files.add(sidecar);
+		}
+
+		if (sidecarMap.isEmpty())
+			return queryExifTool(images, query);
+
+		if (DEBUG)
+			log("Reading %d sidecar files along with %d images",
+					files.size() - images.size(), images.size());
+
+		Map<File, ImageMetadata> queriedMap = queryExifTool(files, query);
+		Map<File, ImageMetadata> resultMap = new LinkedHashMap<File, ImageMetadata>(
+				images.size() * 2);
+
+		for (File image : images) {
+			ImageMetadata metadata = queriedMap.get(image);
+			File sidecar = sidecarMap.get(image);
+			ImageMetadata sidecarMetadata = (sidecar == null ? null
+					: queriedMap.get(sidecar));
+
+			if (sidecarMetadata != null) {
+				ImageMetadata merged = new ImageMetadata(image,
+						query.getFormat());
+				List<String> errors = new ArrayList<String>();
+
+				if (metadata != null) {
+					merged.putAll(metadata);
+					errors.addAll(metadata.getErrors());
+				}
+
+				merged.putAll(sidecarMetadata);
+				errors.addAll(sidecarMetadata.getErrors());
+
+				if (!errors.isEmpty())
+					merged.setErrors(errors);
+
+				metadata = merged;
+			}
+
+			if (metadata != null)
+				resultMap.put(image, metadata);
+		}
+
+		return resultMap;
+	}
+
+	/**
+	 * Helper method used to query the given images with a single request to
+	 * ExifTool.
+	 */
+	private Map<File, ImageMetadata> queryExifTool(List<File> images,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IOException {
+		if (images == null || images.isEmpty())
+			throw new IllegalArgumentException(
+					"images cannot be null and must contain 1 or more image to query.");
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+
+		Format format = query.getFormat();
+		Tag[] tags = query.tags();
+
+		/*
+		 * Map the exact path we hand to ExifTool back to the File so the
+		 * per-file headers in the response can be resolved.
+		 */
+		Map<String, File> pathMap = new HashMap<String, File>(
+				images.size() * 2);
+
+		for (File image : images) {
+			if (image == null)
+				throw new IllegalArgumentException(
+						"images cannot contain a null image.");
+			if (!image.canRead())
+				throw new SecurityException(
+						"Unable to read the given image ["
+								+ image.getAbsolutePath()
+								+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
+
+			pathMap.put(image.getAbsolutePath(), image);
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		if (DEBUG)
+			log("Querying %d tags from %d images", tags.length, images.size());
+
+		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+
+		// Only read the clock for the listener if there is one.
+		ExifToolMetrics metrics = this.metrics;
+		long requestStart;
+		long firstLine = 0;
+
+		if (stayOpen) {
+			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+
+			// Keep the daemon from being reaped while in use.
+			markUsed();
+
+			// Pipelined requests must be done with the streams first.
+			awaitAsyncRequests();
+			ensureDaemonRunning();
+
+			requestStart = nanoTime(metrics);
+		} else {
+			log("\tUsing ExifTool in non-daemon mode (-stay_open False), streaming arguments over stdin...");
+
+			args.clear();
+			args.add(EXIF_TOOL_PATH);
+			args.add("-@");
+			args.add("-");
+
+			requestStart = nanoTime(metrics);
+			streams = startProcess(args, false);
+		}
+
+		log("\tStreaming arguments for %d images to ExifTool process...",
+				images.size());
+
+		streams.writer.write(query.header());
+
+		for (File image : images)
+			streams.writer.writeLine(image.getAbsolutePath());
+
+		int errorMarker = 0;
+
+		if (stayOpen) {
+			errorMarker = nextRequestId();
+			streams.writeErrorMarker(errorMarker);
+		}
+
+		log("\tExecuting ExifTool...");
+
+		long exifToolCallElapsedTime = System.currentTimeMillis();
+
+		if (stayOpen) {
+			streams.writer.writeExecute(0);
+			streams.writer.flush();
+		} else {
+			// Closing stdin is what tells the one-off process to begin.
+			streams.writer.close();
+		}
+
+		long requestWritten = nanoTime(metrics);
+
+		log("\tReading response back from ExifTool...");
+
+		Map<File, ImageMetadata> resultMap = new LinkedHashMap<File, ImageMetadata>(
+				images.size() * 2);
+
+		/*
+		 * ExifTool only prints per-file headers when more than one file is
+		 * being processed, so a single image batch starts out already
+		 * "inside" that image's block.
+		 */
+		ImageMetadata current = null;
+
+		if (images.size() == 1) {
+			current = new ImageMetadata(images.get(0), format);
+			resultMap.put(images.get(0), current);
+		}
+
+		Watchdog watchdog = startWatchdog(streams);
+		ResponseReader reader = streams.reader;
+
+		try {
+			while (reader.nextLine()) {
+				if (firstLine == 0 && metrics != null)
+					firstLine = System.nanoTime();
+
+				if (stayOpen && reader.readyId() == 0)
+					break;
+
+				if (reader.startsWith(FILE_HEADER_PREFIX_BYTES)) {
+					String path = reader
+							.substring(FILE_HEADER_PREFIX_BYTES.length);
+					File image = resolvePath(pathMap, path);
+
+					if (image == null) {
+						log("\t\tSkipping values for unexpected file: %s",
+								path);
+						current = null;
+					} else {
+						current = new ImageMetadata(image, format);
+						resultMap.put(image, current);
+					}
+
+					continue;
+				}
+
+				// Values before the first header or unknown files are skipped.
+				if (current == null)
+					continue;
+
+				parseTagLine(reader, current);
+			}
+		} finally {
+			stopWatchdog(watchdog);
+		}
+
+		log("\tFinished reading ExifTool response in %d ms.",
+				(System.currentTimeMillis() - exifToolCallElapsedTime));
+
+		if (metrics != null) {
+			int found = 0;
+
+			for (ImageMetadata metadata : resultMap.values())
+				found += metadata.size();
+
+			reportRequest(metrics, images.size(), images.size() * tags.length,
+					found, requestWritten - requestStart, requestWritten,
+					firstLine);
+		}
+
+		attachErrors(collectErrors(stayOpen, errorMarker), pathMap, resultMap);
+
+		if (!stayOpen) {
+			streams.close();
+			streams = null;
+		}
+
+		if (DEBUG)
+			log("\tImage Meta Processed in %d ms [queried %d tags from %d images, %d images read]",
+					(System.currentTimeMillis() - startTime), tags.length,
+					images.size(), resultMap.size());
+
+		return resultMap;
+	}
+
+	/**
+	 * Used to lazily query every file in a directory tree.
+	 * <p/>
+	 * The returned {@link Stream} walks the tree and queries ExifTool only as
+	 * results are consumed: whenever the consumer needs another result, the
+	 * next {@link ScanOptions#getBatchSize()} files of the walk are sent to
+	 * ExifTool with a single request (see
+	 * {@link #getImageMetadata(List, PreparedQuery)}) and handed out one by
+	 * one. Memory use stays bounded by the batch size no matter how many
+	 * files the tree holds, and a consumer that stops early (e.g. with
+	 * {@link Stream#limit(long)}) stops the walk with it.
+	 * <p/>
+	 * Files are returned in the order they are walked (depth-first, in
+	 * directory listing order). Files ExifTool cannot read as well as
+	 * directories and files that cannot be read are skipped. An
+	 * {@link IOException} talking to ExifTool ends the stream with an
+	 * {@link UncheckedIOException}.
+	 * <p/>
+	 * The stream must be closed (e.g. with try-with-resources) to release
+	 * any directories still open if it is not consumed to the end. It is
+	 * always sequential since an {@link ExifTool} instance can only work on
+	 * one request at a time; use {@link ExifToolPool#scan(Path, ScanOptions)}
+	 * to spread a scan over several daemons.
+	 * 
+	 * @param root
+	 *            The directory to scan, or a single file.
+	 * @param options
+	 *            The query to run and which files to include.
+	 * 
+	 * @return a lazy stream of the values found in every file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>root</code> or <code>options</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if <code>root</code> does not exist or cannot be read.
+	 * 
+	 * @since 1.2
+	 */
+	public Stream<ImageMetadata> scan(Path root, ScanOptions options)
+			throws IllegalArgumentException, IOException {
+		if (root == null)
+			throw new IllegalArgumentException("root cannot be null");
+		if (options == null)
+			throw new IllegalArgumentException("options cannot be null");
+
+		final ScanSpliterator spliterator = new ScanSpliterator(root, options,
+				new ScanSpliterator.BatchQuery() {
+					public Map<File, ImageMetadata> query(List<File> images,
+							PreparedQuery query) throws IOException {
+						return getImageMetadata(images, query);
+					}
+				}, 0);
+
+		return StreamSupport.stream(spliterator, false).onClose(
+				new Runnable() {
+					public void run() {
+						spliterator.close();
+					}
+				});
+	}
+
+	public CompletableFuture<Map<Tag, String>> getImageMetaAsync(File image,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IllegalStateException {
+		return getImageMetaAsync(image, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Used to query tags from an image without blocking the caller while
+	 * ExifTool processes the request.
+	 * <p/>
+	 * The request is written to the daemon process immediately followed by a
+	 * numbered <code>-execute&lt;N&gt;</code> command and the returned
+	 * {@link CompletableFuture} is completed by a dedicated reader
+	 * {@link Thread} (see {@link #ASYNC_READER_THREAD_NAME}) once the matching
+	 * <code>{ready&lt;N&gt;}</code> marker comes back. Because the caller does
+	 * not wait for the response, many requests can be written back-to-back,
+	 * keeping the external ExifTool process busy all the time instead of
+	 * sitting idle while Java parses one response and prepares the next
+	 * request.
+	 * <p/>
+	 * Unlike the rest of this class, this method is safe to call from multiple
+	 * Threads at once. Calls to the blocking methods of this class (e.g.
+	 * {@link #getImageMeta(File, Format, Tag...)}) first wait for every
+	 * outstanding asynchronous request to complete, but must not be made while
+	 * other Threads are still submitting asynchronous requests.
+	 * <p/>
+	 * If the ExifTool process dies or is shut down via {@link #close()}, every
+	 * outstanding future is completed exceptionally with an
+	 * {@link IOException}.
+	 * 
+	 * @param image
+	 *            The image to query.
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query from the image.
+	 * 
+	 * @return a future completed with the same {@link Map} of values that
+	 *         {@link #getImageMeta(File, Format, Tag...)} would have returned.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code> or <code>format</code> is
+	 *             <code>null</code> or if <code>tags</code> is
+	 *             <code>null</code> or empty.
+	 * @throws SecurityException
+	 *             if the image cannot be read.
+	 * @throws IllegalStateException
+	 *             if {@link Feature#STAY_OPEN} is not enabled on this instance;
+	 *             requests can only be pipelined to a daemon process.
+	 */
+	public CompletableFuture<Map<Tag, String>> getImageMetaAsync(File image,
+			Format format, Tag... tags) throws IllegalArgumentException,
+			SecurityException, IllegalStateException {
+		if (image == null)
+			throw new IllegalArgumentException(
+					"image cannot be null and must be a valid stream of image data.");
+
+		return getImageMetaAsync(image, new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Used to run a {@link PreparedQuery} against an image without blocking
+	 * the caller while ExifTool processes the request.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code> or <code>query</code> is
+	 *             <code>null</code> or if <code>query</code> returns tags in
+	 *             both formats.
+	 * 
+	 * @see #getImageMetaAsync(File, Format, Tag...)
+	 * @see #getImageMetadata(File, PreparedQuery)
+	 */
+	public CompletableFuture<Map<Tag, String>> getImageMetaAsync(File image,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IllegalStateException {
+		if (image == null)
+			throw new IllegalArgumentException(
+					"image cannot be null and must be a valid stream of image data.");
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+		if (!image.canRead())
+			throw new SecurityException(
+					"Unable to read the given image ["
+							+ image.getAbsolutePath()
+							+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
+		if (!query.cacheable())
+			throw new IllegalArgumentException(
+					"query cannot return tags in both formats, the Map returned by asynchronous requests only holds values in one; use getImageMetadata instead.");
+		if (!featureSet.contains(Feature.STAY_OPEN))
+			throw new IllegalStateException(
+					"Asynchronous requests can only be pipelined to a daemon process, enable Feature.STAY_OPEN on this instance to use them.");
+
+		/*
+		 * The sidecar is read in the same request, after the image, so its
+		 * values overwrite those of the image the same way they are merged
+		 * by queryWithSidecars. Images with a sidecar are never cached.
+		 */
+		final File sidecar = (sidecarReads ? findSidecar(image) : null);
+		final Format format = query.getFormat();
+		final Tag[] tags = query.tags();
+		final MetadataCache cache = (sidecar == null ? this.cache : null);
+		final FileIdentity identity;
+
+		if (cache != null) {
+			try {
+				identity = FileIdentity.of(image);
+			} catch (IOException e) {
+				CompletableFuture<Map<Tag, String>> failed = new CompletableFuture<Map<Tag, String>>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+
+			Map<Tag, String> cachedMap = cache.get(identity, format, tags);
+
+			if (cachedMap != null)
+				return CompletableFuture.completedFuture(cachedMap);
+		} else
+			identity = null;
+
+		if (sidecar == null && fastPath && query.fastPath()) {
+			ImageMetadata metadata = FastExifReader.read(image, tags);
+
+			if (metadata != null) {
+				Map<Tag, String> resultMap = metadata.toMap();
+
+				if (cache != null)
+					cache.put(identity, format, tags, resultMap);
+
+				return CompletableFuture.completedFuture(resultMap);
+			}
+		}
+
+		AsyncRequest request;
+
+		synchronized (asyncLock) {
+			markUsed();
+
+			/*
+			 * If the reader Thread stopped, the process it was reading from is
+			 * gone too, so throw both away and start over.
+			 */
+			if (asyncReader != null && !asyncReader.isRunning())
+				close();
+
+			ensureDaemonRunning();
+
+			if (asyncReader == null) {
+				log("\tStarting async reader thread for daemon ExifTool process...");
+				asyncReader = new AsyncReader(this, streams);
+				asyncReader.start();
+			}
+
+			request = new AsyncRequest(++requestId, tags.length);
+			request.metrics = metrics;
+			request.start = nanoTime(request.metrics);
+
+			/*
+			 * Register the request before writing it so the reader Thread is
+			 * guaranteed to know about it by the time the response arrives.
+			 */
+			asyncReader.pending.add(request);
+			lastAsyncRequest = request.future;
+
+			if (DEBUG)
+				log("Queueing async request %d for %d tags from image: %s",
+						request.id, tags.length, image.getAbsolutePath());
+
+			try {
+				streams.writer.write(query.header());
+				streams.writer.writeLine(image.getAbsolutePath());
+
+				if (sidecar != null)
+					streams.writer.writeLine(sidecar.getAbsolutePath());
+
+				// Keep its stderr output from being blamed on a later request.
+				streams.writeErrorMarker(request.id);
+
+				// Number the request so its {ready<N>} reply can be matched.
+				streams.writer.writeExecute(request.id);
+				streams.writer.flush();
+
+				request.written = nanoTime(request.metrics);
+			} catch (IOException e) {
+				/*
+				 * A partially written request leaves the daemon in an unknown
+				 * state, so fail this request and shut the process down which
+				 * fails anything else still outstanding.
+				 */
+				asyncReader.pending.remove(request);
+				request.future.completeExceptionally(e);
+				asyncReader.shutdown();
+				asyncReader = null;
+				close();
+			}
+		}
+
+		if (cache == null)
+			return request.future;
+
+		return request.future
+				.thenApply(new Function<Map<Tag, String>, Map<Tag, String>>() {
+					public Map<Tag, String> apply(Map<Tag, String> resultMap) {
+						cache.put(identity, format, tags, resultMap);
+						return resultMap;
+					}
+				});
+	}
+        
+        public void setImageMeta(File image, Map<Tag, String> tags) 
+                        throws IllegalArgumentException, SecurityException, IOException {
+		setImageMeta(image, Format.NUMERIC, tags);
+	}
+        
+        public void setImageMeta(File image, Format format, Map<Tag, String> tags )
+			throws IllegalArgumentException, SecurityException, IOException {
+		if (image == null)
+			throw new IllegalArgumentException(
+					"image cannot be null and must be a valid stream of image data.");
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+		if (tags == null || tags.size() == 0)
+			throw new IllegalArgumentException(
+					"tags cannot be null and must contain 1 or more Tag to query the image for.");
+
+		if (sidecarWrites) {
+			WriteResult result = setImageMeta(Collections.singletonList(image),
+					format, tags).get(image);
+
+			for (String line : result.getMessages())
+				log("\t\tExifTool reported: %s", line);
+
+			if (result.getStatus() == WriteResult.Status.FAILED)
+				throw new IOException(writeFailure(image, result.getMessages()));
+
+			return;
+		}
+
+		if (!image.canWrite())
+			throw new SecurityException(
+					"Unable to read the given image ["
+							+ image.getAbsolutePath()
+							+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
+
+		long startTime = System.currentTimeMillis();
+
+		if (DEBUG)
+			log("Writing %d tags to image: %s", tags.size(),
+					image.getAbsolutePath());
+
+		long exifToolCallElapsedTime = 0;
+		int errorMarker = 0;
+
+		/*
+		 * Using ExifTool in daemon mode (-stay_open True) executes different
+		 * code paths below. So establish the flag for this once and it is
+		 * reused a multitude of times later in this method to figure out where
+		 * to branch to.
+		 */
+		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+
+		// Clear process args
+		args.clear();
+
+		if (stayOpen) {
+			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+
+			// Keep the daemon from being reaped while in use.
+			markUsed();
+
+			// Pipelined requests must be done with the streams first.
+			awaitAsyncRequests();
+
+			/*
+			 * If this is our first time calling getImageMeta with a stayOpen
+			 * connection, set up the persistent process and run it so it is
+			 * ready to receive commands from us.
+			 */
+			ensureDaemonRunning();
+
+			log("\tStreaming arguments to ExifTool process...");
+
+			if (format == Format.NUMERIC)
+				streams.writer.write("-n\n"); // numeric output
+
+			streams.writer.write("-S\n"); // compact output
+
+			writeTagValues(streams.writer, tags);
+			streams.writer.writeLine(image.getAbsolutePath());
+
+			errorMarker = nextRequestId();
+			streams.writeErrorMarker(errorMarker);
+
+			log("\tExecuting ExifTool...");
+
+			// Begin tracking the duration ExifTool takes to respond.
+			exifToolCallElapsedTime = System.currentTimeMillis();
+
+			// Run ExifTool on our file with all the given arguments.
+			streams.writer.writeExecute(0);
+			streams.writer.flush();
+		} else {
+			log("\tUsing ExifTool in non-daemon mode (-stay_open False)...");
+
+			/*
+			 * Since we are not using a stayOpen process, we need to setup the
+			 * execution arguments completely each time.
+			 */
+			args.add(EXIF_TOOL_PATH);
+
+			if (format == Format.NUMERIC)
+				args.add("-n"); // numeric output
+
+			args.add("-S"); // compact output
+
+			/*
+			 * Arguments are handed to ExifTool as-is (there is no shell to
+			 * strip quotes), so the value must not be quoted.
+			 */
+			for (Entry<Tag, String> entry : tags.entrySet())
+				args.add("-" + entry.getKey().name + "=" + entry.getValue());
+
+			args.add(image.getAbsolutePath());
+
+			// Run the ExifTool with our args.
+			streams = startProcess(args, false);
+
+			// Begin tracking the duration ExifTool takes to respond.
+			exifToolCallElapsedTime = System.currentTimeMillis();
+		}
+
+		log("\tReading response back from ExifTool...");
+
+		Watchdog watchdog = startWatchdog(streams);
+		ResponseReader reader = streams.reader;
+
+		try {
+			while (reader.nextLine()) {
+				/*
+				 * When using a persistent ExifTool process, it terminates
+				 * its output to us with a "{ready}" clause on a new line, we
+				 * need to look for it and break from this loop when we see
+				 * it otherwise this process will hang indefinitely blocking
+				 * on the input stream with no data to read.
+				 */
+				if (stayOpen && reader.readyId() == 0)
+					break;
+			}
+		} finally {
+			stopWatchdog(watchdog);
+		}
+
+		// Print out how long the call to external ExifTool process took.
+		log("\tFinished reading ExifTool response in %d ms.",
+				(System.currentTimeMillis() - exifToolCallElapsedTime));
+
+		List<String> lines = collectErrors(stayOpen, errorMarker);
+		boolean failed = false;
+
+		for (String line : lines) {
+			log("\t\tExifTool reported: %s", line);
+
+			if (line.startsWith("Error"))
+				failed = true;
+		}
+
+		/*
+		 * If we are not using a persistent ExifTool process, then after running
+		 * the command above, the process exited in which case we need to clean
+		 * our streams up since it no longer exists. If we were using a
+		 * persistent ExifTool process, leave the streams open for future calls.
+		 */
+		if (!stayOpen) {
+			streams.close();
+			streams = null;
+		}
+
+		if (failed)
+			throw new IOException(writeFailure(image, lines));
+
+		if (DEBUG)
+			log("\tImage Meta Processed in %d ms [write %d tags]",
+					(System.currentTimeMillis() - startTime), tags.size());
+	}
+
+	/**
+	 * Helper method used to describe a failed write to the given image,
+	 * including everything ExifTool reported about it.
+	 */
+	private static String writeFailure(File image, List<String> lines) {
+		StringBuilder message = new StringBuilder(
+				"ExifTool was unable to write to image [").append(
+				image.getAbsolutePath()).append(']');
+
+		for (String line : lines)
+			message.append("\n\t").append(line);
+
+		return message.toString();
+	}
+
+	public Map<File, WriteResult> setImageMeta(List<File> images,
+			Map<Tag, String> tags) throws IllegalArgumentException, IOException {
+		return setImageMeta(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Used to write the same tag values to many images (e.g. the copyright
+	 * and artist of a whole shoot) with as few requests to ExifTool as
+	 * possible.
+	 * <p/>
+	 * Instead of one request per image, the images are handed to ExifTool in
+	 * batches of up to {@link #WRITE_BATCH_SIZE} per request, and the outcome
+	 * for each image is worked out from the summary ExifTool prints for the
+	 * request and the messages it writes to standard error (see
+	 * {@link WriteResult}). An image that cannot be written does not fail the
+	 * call; it is reported as {@link WriteResult.Status#FAILED}, and images
+	 * the executing Java process has no permission to write to are reported
+	 * that way without being handed to ExifTool at all.
+	 * 
+	 * @param images
+	 *            The images to write to.
+	 * @param format
+	 *            The format the values are given in.
+	 * @param tags
+	 *            The tag values to write to every image.
+	 * 
+	 * @return the outcome for every image, in the order they were given.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>images</code> or <code>tags</code> is
+	 *             <code>null</code> or empty, if <code>images</code> contains
+	 *             <code>null</code> or if <code>format</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process; images in batches already done were written even
+	 *             though their results are lost.
+	 * 
+	 * @see #setSidecarWritesEnabled(boolean)
+	 */
+	public Map<File, WriteResult> setImageMeta(List<File> images,
+			Format format, Map<Tag, String> tags)
+			throws IllegalArgumentException, IOException {
+		if (images == null || images.isEmpty())
+			throw new IllegalArgumentException(
+					"images cannot be null and must contain 1 or more image to write to.");
+
+		Map<File, Map<Tag, String>> tagMap = new LinkedHashMap<File, Map<Tag, String>>(
+				images.size() * 2);
+
+		for (File image : images) {
+			if (image == null)
+				throw new IllegalArgumentException(
+						"images cannot contain a null image.");
+
+			tagMap.put(image, tags);
+		}
+
+		return setImageMeta(tagMap, format);
+	}
+
+	public Map<File, WriteResult> setImageMeta(
+			Map<File, Map<Tag, String>> tagMap)
+			throws IllegalArgumentException, IOException {
+		return setImageMeta(tagMap, Format.NUMERIC);
+	}
+
+	/**
+	 * Used to write a different set of tag values to each of many images with
+	 * as few requests to ExifTool as possible.
+	 * <p/>
+	 * Images that get exactly the same tag values are written together in
+	 * batches of up to {@link #WRITE_BATCH_SIZE} per request, just like
+	 * {@link #setImageMeta(List, Format, Map)} does; every distinct set of
+	 * values needs at least one request of its own.
+	 * 
+	 * @param tagMap
+	 *            The tag values to write, per image.
+	 * @param format
+	 *            The format the values are given in.
+	 * 
+	 * @return the outcome for every image, in the order of
+	 *         <code>tagMap</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tagMap</code> is <code>null</code> or empty, if it
+	 *             holds a <code>null</code> image or a <code>null</code> or
+	 *             empty set of values or if <code>format</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if an error occurs communicating with the external ExifTool
+	 *             process; images in batches already done were written even
+	 *             though their results are lost.
+	 * 
+	 * @see #setImageMeta(List, Format, Map)
+	 */
+	public Map<File, WriteResult> setImageMeta(
+			Map<File, Map<Tag, String>> tagMap, Format format)
+			throws IllegalArgumentException, IOException {
+		if (tagMap == null || tagMap.isEmpty())
+			throw new IllegalArgumentException(
+					"tagMap cannot be null and must contain 1 or more image to write to.");
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+
+		long startTime = System.currentTimeMillis();
+		Map<File, WriteResult> batchResults = new HashMap<File, WriteResult>(
+				tagMap.size() * 2);
+		boolean sidecarWrites = this.sidecarWrites;
+
+		// Group the images by the values they get, keeping the given order.
+		Map<Map<Tag, String>, List<File>> groups = new LinkedHashMap<Map<Tag, String>, List<File>>();
+
+		for (Entry<File, Map<Tag, String>> entry : tagMap.entrySet()) {
+			File image = entry.getKey();
+			Map<Tag, String> tags = entry.getValue();
+
+			if (image == null)
+				throw new IllegalArgumentException(
+						"tagMap cannot contain a null image.");
+			if (tags == null || tags.isEmpty())
+				throw new IllegalArgumentException(
+						"tags cannot be null and must contain 1 or more Tag to write to the image ["
+								+ image.getAbsolutePath() + "].");
+			if (!image.canWrite() && !sidecarWrites) {
+				batchResults.put(image, new WriteResult(image,
+						WriteResult.Status.FAILED, Collections
+								.singletonList("Unable to write the given image ["
+										+ image.getAbsolutePath()
+										+ "], ensure that the image exists at the given path and that the executing Java process has permissions to write it.")));
+				continue;
+			}
+
+			// Sidecars are created from the image, so it must be readable.
+			if (!image.canRead() && sidecarWrites) {
+				batchResults.put(image, new WriteResult(image,
+						WriteResult.Status.FAILED, Collections
+								.singletonList("Unable to read the given image ["
+										+ image.getAbsolutePath()
+										+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.")));
+				continue;
+			}
+
+			Map<Tag, String> key = new EnumMap<Tag, String>(tags);
+			List<File> group = groups.get(key);
+
+			if (group == null) {
+				group = new ArrayList<File>();
+				groups.put(key, group);
+			}
+
+			group.add(image);
+		}
+
+		for (Entry<Map<Tag, String>, List<File>> group : groups.entrySet()) {
+			List<File> images = group.getValue();
+
+			for (int i = 0; i < images.size(); i += WRITE_BATCH_SIZE) {
+				List<File> batch = images.subList(i,
+						Math.min(images.size(), i + WRITE_BATCH_SIZE));
+
+				if (!sidecarWrites) {
+					writeBatch(batch, format, group.getKey(),
+							WriteTarget.IMAGE, batchResults);
+					continue;
+				}
+
+				// Existing sidecars are updated, missing ones created.
+				List<File> existing = new ArrayList<File>();
+				List<File> missing = new ArrayList<File>();
+
+				for (File image : batch)
+					(getSidecar(image).exists() ? existing : missing)
+							.add(image);
+
+				if (!existing.isEmpty())
+					writeBatch(existing, format, group.getKey(),
+							WriteTarget.SIDECAR, batchResults);
+				if (!missing.isEmpty())
+					writeBatch(missing, format, group.getKey(),
+							WriteTarget.NEW_SIDECAR, batchResults);
+			}
+		}
+
+		Map<File, WriteResult> resultMap = new LinkedHashMap<File, WriteResult>(
+				tagMap.size() * 2);
+
+		for (File image : tagMap.keySet())
+			resultMap.put(image, batchResults.get(image));
+
+		if (DEBUG)
+			log("\tWrote %d distinct sets of tags to %d images in %d ms",
+					groups.size(), tagMap.size(),
+					(System.currentTimeMillis() - startTime));
+
+		return resultMap;
+	}
+
+	/**
+	 * Helper method used to write the given tag values to the given images
+	 * (or their sidecar files) with a single request to ExifTool.
+	 */
+	private void writeBatch(List<File> images, Format format,
+			Map<Tag, String> tags, WriteTarget target,
+			Map<File, WriteResult> resultMap) throws IOException {
+		Map<String, File> pathMap = new HashMap<String, File>(
+				images.size() * 4);
+		List<String> paths = new ArrayList<String>(images.size());
+
+		for (File image : images) {
+			String path = (target == WriteTarget.SIDECAR ? getSidecar(image)
+					.getAbsolutePath() : image.getAbsolutePath());
+
+			paths.add(path);
+			pathMap.put(path, image);
+
+			// Messages about a sidecar being created may name either file.
+			if (target == WriteTarget.NEW_SIDECAR)
+				pathMap.put(getSidecar(image).getAbsolutePath(), image);
+		}
+
+		if (DEBUG)
+			log("Writing %d tags to %d images", tags.size(), images.size());
+
+		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+
+		if (stayOpen) {
+			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+
+			// Keep the daemon from being reaped while in use.
+			markUsed();
+
+			// Pipelined requests must be done with the streams first.
+			awaitAsyncRequests();
+			ensureDaemonRunning();
+		} else {
+			log("\tUsing ExifTool in non-daemon mode (-stay_open False), streaming arguments over stdin...");
+
+			args.clear();
+			args.add(EXIF_TOOL_PATH);
+			args.add("-@");
+			args.add("-");
+
+			streams = startProcess(args, false);
+		}
+
+		if (format == Format.NUMERIC)
+			streams.writer.write("-n\n"); // numeric output
+
+		if (target == WriteTarget.NEW_SIDECAR) {
+			// Write a new XMP file holding only the given tags per image.
+			streams.writer.writeLine("-o");
+			streams.writer.writeLine("%d%f" + SIDECAR_EXTENSION);
+		}
+
+		writeTagValues(streams.writer, tags);
+
+		for (String path : paths)
+			streams.writer.writeLine(path);
+
+		int errorMarker = 0;
+
+		if (stayOpen) {
+			errorMarker = nextRequestId();
+			streams.writeErrorMarker(errorMarker);
+			streams.writer.writeExecute(0);
+			streams.writer.flush();
+		} else {
+			// Closing stdin is what tells the one-off process to begin.
+			streams.writer.close();
+		}
+
+		long exifToolCallElapsedTime = System.currentTimeMillis();
+
+		// Counts from the summary ExifTool prints at the end of the request.
+		int updated = 0;
+		int unchanged = 0;
+		int failed = 0;
+
+		Watchdog watchdog = startWatchdog(streams);
+		ResponseReader reader = streams.reader;
+
+		try {
+			while (reader.nextLine()) {
+				if (stayOpen && reader.readyId() == 0)
+					break;
+
+				String line = reader.line().trim();
+				int index = line.indexOf(' ');
+
+				if (index < 1 || !Character.isDigit(line.charAt(0)))
+					continue;
+
+				int count;
+
+				try {
+					count = Integer.parseInt(line.substring(0, index));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+
+				if (line.endsWith(WRITE_FAILED_SUFFIX))
+					failed += count;
+				else if (line.endsWith(WRITE_UNCHANGED_SUFFIX))
+					unchanged += count;
+				else if (line.endsWith(WRITE_UPDATED_SUFFIX)
+						|| line.endsWith(WRITE_CREATED_SUFFIX))
+					updated += count;
+			}
+		} finally {
+			stopWatchdog(watchdog);
+		}
+
+		log("\tFinished reading ExifTool response in %d ms [updated=%d, unchanged=%d, failed=%d]",
+				(System.currentTimeMillis() - exifToolCallElapsedTime),
+				updated, unchanged, failed);
+
+		List<String> lines = collectErrors(stayOpen, errorMarker);
+
+		if (!stayOpen) {
+			streams.close();
+			streams = null;
+		}
+
+		// Hand each message to the image it names.
+		Map<File, List<String>> messageMap = new HashMap<File, List<String>>();
+		Set<File> failedImages = new HashSet<File>();
+
+		for (String line : lines) {
+			File image = null;
+
+			if (images.size() == 1)
+				image = images.get(0);
+			else {
+				int index = line.lastIndexOf(" - ");
+
+				if (index >= 0)
+					image = resolvePath(pathMap, line.substring(index + 3));
+			}
+
+			if (image == null)
+				continue;
+
+			List<String> imageLines = messageMap.get(image);
+
+			if (imageLines == null) {
+				imageLines = new ArrayList<String>(2);
+				messageMap.put(image, imageLines);
+			}
+
+			imageLines.add(line);
+
+			if (line.startsWith("Error"))
+				failedImages.add(image);
+		}
+
+		// A lone image the summary counted as failed failed, message or not.
+		if (images.size() == 1 && failed > 0)
+			failedImages.add(images.get(0));
+
+		/*
+		 * Everything that didn't fail shares the same outcome, which can only
+		 * be told from the summary if it accounts for every one of them.
+		 */
+		int remaining = images.size() - failedImages.size();
+		WriteResult.Status status;
+
+		if (updated + unchanged == remaining)
+			status = (unchanged == 0 ? WriteResult.Status.UPDATED
+					: updated == 0 ? WriteResult.Status.UNCHANGED
+							: WriteResult.Status.SUCCEEDED);
+		else if (updated + unchanged == 0
+				&& failed - failedImages.size() >= remaining)
+			status = WriteResult.Status.FAILED;
+		else
+			status = WriteResult.Status.UNKNOWN;
+
+		for (File image : images)
+			resultMap.put(image, new WriteResult(image, failedImages
+					.contains(image) ? WriteResult.Status.FAILED : status,
+					messageMap.get(image)));
+	}
+
+	/**
+	 * Enum used to define what a batch of tag values is written to.
+	 */
+	private enum WriteTarget {
+		/**
+		 * The images themselves.
+		 */
+		IMAGE,
+		/**
+		 * The existing sidecar files of the images.
+		 */
+		SIDECAR,
+		/**
+		 * New sidecar files created for the images.
+		 */
+		NEW_SIDECAR;
+	}
+
+	/**
+	 * Helper method used to write the "<code>-TAG=value</code>" arguments for
+	 * the given tag values.
+	 * <p/>
+	 * Arguments read with <code>-@</code> are taken literally, so the value
+	 * is not quoted; quotes would end up in the image as part of the value.
+	 */
+	private static void writeTagValues(RequestWriter writer,
+			Map<Tag, String> tags) {
+		for (Entry<Tag, String> entry : tags.entrySet()) {
+			writer.write('-');
+			writer.write(entry.getKey().name);
+			writer.write('=');
+			writer.writeLine(entry.getValue());
+		}
+	}
+
+	/**
+	 * Helper method used to parse the current line of compact (<code>-S</code>)
+	 * output from ExifTool into a {@link Tag} and its value and store it in
+	 * the given result map.
+	 * <p/>
+	 * The value is only stored if we were able to map the name back to a Tag
+	 * instance. If not, then this is an unknown/unexpected tag return value
+	 * and we skip it since we cannot translate it back to one of our
+	 * supported tags. Empty values are skipped as well.
+	 */
+	private static void parseTagLine(ResponseReader reader,
+			Map<Tag, String> resultMap) {
+		// Determine the tag represented by this value.
+		Tag tag = reader.tag();
+
+		if (tag != null && !reader.isValueEmpty()) {
+			String value = reader.value();
+			resultMap.put(tag, value);
+
+			if (DEBUG)
+				log("\t\tRead Tag [name=%s, value=%s]", tag.name, value);
+		}
+	}
+
+	/**
+	 * Helper method used to parse the current line of compact (<code>-S</code>)
+	 * output from ExifTool into the given {@link ImageMetadata}.
+	 * <p/>
+	 * ExifTool only prints a tag twice for an image when a
+	 * {@link PreparedQuery} asked for it in both formats, in which case the
+	 * second value is the one in the other format.
+	 * 
+	 * @see #parseTagLine(ResponseReader, Map)
+	 */
+	private static void parseTagLine(ResponseReader reader,
+			ImageMetadata metadata) {
+		Tag tag = reader.tag();
+
+		if (tag != null && !reader.isValueEmpty()) {
+			String value = reader.value();
+
+			if (metadata.has(tag))
+				metadata.putAlternate(tag, value);
+			else
+				metadata.put(tag, value);
+
+			if (DEBUG)
+				log("\t\tRead Tag [name=%s, value=%s]", tag.name, value);
+		}
+	}
+
+	/**
+	 * Helper method used to block until every request made with
+	 * {@link #getImageMetaAsync(File, Format, Tag...)} so far has been fully
+	 * read back, at which point the streams are free to be used directly
+	 * again.
+	 */
+	private void awaitAsyncRequests() {
+		CompletableFuture<Map<Tag, String>> last = lastAsyncRequest;
+
+		if (last != null && !last.isDone()) {
+			log("\tWaiting for outstanding async requests to complete...");
+
+			try {
+				last.join();
+			} catch (RuntimeException e) {
+				// no-op, the failure is reported to the async caller.
+			}
+		}
+
+		/*
+		 * If the reader Thread died (e.g. its process was killed by the
+		 * watchdog), throw the process away so a fresh one is started.
+		 */
+		synchronized (asyncLock) {
+			if (asyncReader != null && !asyncReader.isRunning())
+				close();
+		}
+	}
+
+	/**
+	 * Helper method used to let outstanding asynchronous requests finish and
+	 * then stop the reader {@link Thread}.
+	 * <p/>
+	 * Requests still outstanding after {@link #CLOSE_TIMEOUT} are not waited
+	 * for any longer; the process they were sent to is killed, which makes
+	 * the reader fail them and exit.
+	 */
+	private void shutdownAsyncReader() {
+		AsyncReader reader;
+
+		synchronized (asyncLock) {
+			reader = asyncReader;
+			asyncReader = null;
+		}
+
+		if (reader == null)
+			return;
+
+		CompletableFuture<Map<Tag, String>> last = lastAsyncRequest;
+
+		if (last != null && !last.isDone()) {
+			log("\tWaiting up to %d ms for outstanding async requests to complete...",
+					CLOSE_TIMEOUT);
+
+			try {
+				last.get(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				log("\tAsync requests still outstanding, killing ExifTool daemon process...");
+				reader.streams.kill();
+			} catch (InterruptedException e) {
+				reader.streams.kill();
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// no-op, the failure is reported to the async caller.
+			}
+		}
+
+		reader.shutdown();
+	}
+
+	/**
+	 * Used to get the XMP sidecar file of the given image, which is the file
+	 * with the same name in the same directory but with its extension
+	 * replaced by {@link #SIDECAR_EXTENSION} (e.g. <code>clip.mp4</code> ->
+	 * <code>clip.xmp</code>). This is the same file ExifTool names with
+	 * <code>%d%f.xmp</code> and the convention most photo management
+	 * applications follow.
+	 * <p/>
+	 * The file may or may not exist.
+	 * 
+	 * @param image
+	 *            The image to get the sidecar file of.
+	 * 
+	 * @return the sidecar file of the image.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>image</code> is <code>null</code>.
+	 * 
+	 * @since 1.2
+	 */
+	public static File getSidecar(File image) throws IllegalArgumentException {
+		if (image == null)
+			throw new IllegalArgumentException("image cannot be null");
+
+		File absolute = image.getAbsoluteFile();
+		String name = absolute.getName();
+		int index = name.lastIndexOf('.');
+
+		if (index > 0)
+			name = name.substring(0, index);
+
+		return new File(absolute.getParentFile(), name + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Helper method used to get the sidecar file of the given image if it
+	 * exists and isn't the image itself.
+	 * 
+	 * @return the sidecar file or <code>null</code>.
+	 */
+	static File findSidecar(File image) {
+		File sidecar = getSidecar(image);
+
+		if (!sidecar.isFile() || sidecar.equals(image.getAbsoluteFile()))
+			return null;
+
+		return sidecar;
+	}
+
+	/**
+	 * Helper method used to map a path printed by ExifTool back to the
+	 * {@link File} it was given as.
+	 */
+	private static File resolvePath(Map<String, File> pathMap, String path) {
+		File image = pathMap.get(path);
+
+		/*
+		 * ExifTool on Windows reports paths with forward slashes, so fall back
+		 * to the native separator if the exact path isn't known.
+		 */
+		if (image == null && File.separatorChar != '/')
+			image = pathMap.get(path.replace('/', File.separatorChar));
+
+		return image;
+	}
+
+	/**
+	 * Helper method used to hand the lines ExifTool wrote to standard error
+	 * for a batch to the images they are about.
+	 * <p/>
+	 * ExifTool ends its messages with "<code> - path</code>" naming the file
+	 * they are about, which is used to find the image. Lines for files that
+	 * have no result (e.g. ExifTool could not read them at all) or that name
+	 * no file are only kept in {@link #getRecentErrors()}, unless the batch
+	 * holds a single image in which case every line is about it.
+	 */
+	private static void attachErrors(List<String> lines,
+			Map<String, File> pathMap, Map<File, ImageMetadata> resultMap) {
+		if (lines.isEmpty())
+			return;
+
+		if (resultMap.size() == 1 && pathMap.size() == 1) {
+			resultMap.values().iterator().next().setErrors(lines);
+			return;
+		}
 
-		/*
-		 * Using ExifTool in daemon mode (-stay_open True) executes different
-		 * code paths below. So establish the flag for this once and it is
-		 * reused a multitude of times later in this method to figure out where
-		 * to branch to.
-		 */
-		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+		Map<File, List<String>> errorMap = new HashMap<File, List<String>>();
 
-		// Clear process args
-		args.clear();
+		for (String line : lines) {
+			int index = line.lastIndexOf(" - ");
 
-		if (stayOpen) {
-			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+			if (index < 0)
+				continue;
 
-			// Always reset the cleanup task.
-			resetCleanupTask();
+			File image = resolvePath(pathMap, line.substring(index + 3));
 
-			/*
-			 * If this is our first time calling getImageMeta with a stayOpen
-			 * connection, set up the persistent process and run it so it is
-			 * ready to receive commands from us.
-			 */
-			if (streams == null) {
-				log("\tStarting daemon ExifTool process and creating read/write streams (this only happens once)...");
+			if (image == null || !resultMap.containsKey(image))
+				continue;
 
-				args.add(EXIF_TOOL_PATH);
-				args.add("-stay_open");
-				args.add("True");
-				args.add("-@");
-				args.add("-");
+			List<String> imageLines = errorMap.get(image);
 
-				// Begin the persistent ExifTool process.
-				streams = startExifToolProcess(args);
+			if (imageLines == null) {
+				imageLines = new ArrayList<String>(2);
+				errorMap.put(image, imageLines);
 			}
 
-			log("\tStreaming arguments to ExifTool process...");
+			imageLines.add(line);
+		}
 
-			if (format == Format.NUMERIC)
-				streams.writer.write("-n\n"); // numeric output
+		for (Entry<File, List<String>> entry : errorMap.entrySet())
+			resultMap.get(entry.getKey()).setErrors(entry.getValue());
+	}
 
-			streams.writer.write("-S\n"); // compact output
+	/**
+	 * Helper method used to collect the lines ExifTool wrote to standard error
+	 * for the request whose standard output was just read.
+	 * 
+	 * @param stayOpen
+	 *            If the request was made to the daemon process (and so ended
+	 *            with the given error marker) or to a one-off process.
+	 * @param errorMarker
+	 *            The id written with {@link RequestWriter#writeErrorMarker(int)}
+	 *            for daemon requests.
+	 */
+	private List<String> collectErrors(boolean stayOpen, int errorMarker) {
+		if (stayOpen)
+			return streams.errors.await(errorMarker, ERROR_COLLECT_TIMEOUT);
+		else
+			return streams.errors.awaitEnd(ERROR_COLLECT_TIMEOUT);
+	}
 
-			for (int i = 0; i < tags.length; i++) {
-				streams.writer.write('-');
-				streams.writer.write(tags[i].name);
-				streams.writer.write("\n");
-			}
+	/**
+	 * Helper method used to start the watchdog for a request about to be read
+	 * from the given streams.
+	 * 
+	 * @return the watchdog or <code>null</code> if it is disabled.
+	 */
+	private Watchdog startWatchdog(IOStream target) {
+		long timeout = requestTimeout;
 
-			streams.writer.write(image.getAbsolutePath());
-			streams.writer.write("\n");
+		if (timeout <= 0)
+			return null;
 
-			log("\tExecuting ExifTool...");
+		Watchdog watchdog = new Watchdog(target, timeout);
+		watchdog.future = schedule(watchdog, timeout, TimeUnit.MILLISECONDS);
+		return watchdog;
+	}
 
-			// Begin tracking the duration ExifTool takes to respond.
-			exifToolCallElapsedTime = System.currentTimeMillis();
+	/**
+	 * Helper method used to stop the watchdog of a request once it is done
+	 * (successfully or not).
+	 * <p/>
+	 * If the watchdog already fired, the process it was watching is dead, so
+	 * its streams are thrown away (letting the next request start a fresh
+	 * process) and the request fails with a {@link RequestTimeoutException}
+	 * regardless of how reading the response ended.
+	 * 
+	 * @throws RequestTimeoutException
+	 *             if the watchdog fired.
+	 */
+	private void stopWatchdog(Watchdog watchdog)
+			throws RequestTimeoutException {
+		if (watchdog == null || !watchdog.stop())
+			return;
 
-			// Run ExifTool on our file with all the given arguments.
-			streams.writer.write("-execute\n");
-			streams.writer.flush();
-		} else {
-			log("\tUsing ExifTool in non-daemon mode (-stay_open False)...");
+		timeoutCount.incrementAndGet();
 
-			/*
-			 * Since we are not using a stayOpen process, we need to setup the
-			 * execution arguments completely each time.
-			 */
-			args.add(EXIF_TOOL_PATH);
+		ExifToolMetrics metrics = this.metrics;
 
-			if (format == Format.NUMERIC)
-				args.add("-n"); // numeric output
+		if (metrics != null)
+			metrics.onTimeout();
 
-			args.add("-S"); // compact output
+		if (streams == watchdog.target) {
+			shutdownAsyncReader();
+			streams = null;
+		}
 
-			for (int i = 0; i < tags.length; i++)
-				args.add("-" + tags[i].name);
+		watchdog.target.close();
+		throw new RequestTimeoutException(watchdog.timeout);
+	}
 
-			args.add(image.getAbsolutePath());
+	/**
+	 * Helper method used to run a task on the {@link Thread} shared by every
+	 * instance of this class (see {@link #SCHEDULER_THREAD_NAME}).
+	 */
+	static ScheduledFuture<?> schedule(Runnable task, long delay,
+			TimeUnit unit) {
+		return SchedulerHolder.SCHEDULER.schedule(task, delay, unit);
+	}
 
-			// Run the ExifTool with our args.
-			streams = startExifToolProcess(args);
+	/**
+	 * Helper method used to start an external ExifTool process for this
+	 * instance and tell the {@link ExifToolMetrics} listener about it.
+	 */
+	private IOStream startProcess(List<String> args, boolean daemon)
+			throws RuntimeException {
+		IOStream started = startExifToolProcess(args, recentErrors);
+		ExifToolMetrics metrics = this.metrics;
 
-			// Begin tracking the duration ExifTool takes to respond.
-			exifToolCallElapsedTime = System.currentTimeMillis();
+		if (daemon && !supportsErrorMarkers()) {
+			log("\tExifTool older than %s cannot echo error markers, standard error is collected without them.",
+					ERROR_MARKER_VERSION);
+			started.errors.disableMarkers();
 		}
 
-		log("\tReading response back from ExifTool...");
+		if (metrics != null)
+			metrics.onProcessStart(daemon);
 
-		String line = null;
+		return started;
+	}
 
-		while ((line = streams.reader.readLine()) != null) {
-			String[] pair = TAG_VALUE_PATTERN.split(line);
+	/**
+	 * Helper method used to read the clock only when there is a listener to
+	 * report the time to.
+	 */
+	private static long nanoTime(ExifToolMetrics metrics) {
+		return (metrics == null ? 0 : System.nanoTime());
+	}
 
-			if (pair != null && pair.length == 2) {
-				// Determine the tag represented by this value.
-				Tag tag = Tag.forName(pair[0]);
+	/**
+	 * Helper method used to split the time a request took into its phases
+	 * (see {@link ExifToolMetrics}) and report them to the listener.
+	 * 
+	 * @param writeNanos
+	 *            How long writing the request took.
+	 * @param sent
+	 *            When ExifTool could start working on the request.
+	 * @param firstLine
+	 *            When the first line of the response arrived, or
+	 *            <code>0</code> if there was no response at all.
+	 */
+	private static void reportRequest(ExifToolMetrics metrics, int images,
+			int tagsRequested, int tagsFound, long writeNanos, long sent,
+			long firstLine) {
+		long end = System.nanoTime();
 
-				/*
-				 * Store the tag and the associated value in the result map only
-				 * if we were able to map the name back to a Tag instance. If
-				 * not, then this is an unknown/unexpected tag return value and
-				 * we skip it since we cannot translate it back to one of our
-				 * supported tags.
-				 */
-				if (tag != null) {
-					resultMap.put(tag, pair[1]);
-					log("\t\tRead Tag [name=%s, value=%s]", tag.name, pair[1]);
-				}
-			}
+		if (firstLine == 0)
+			firstLine = end;
 
-			/*
-			 * When using a persistent ExifTool process, it terminates its
-			 * output to us with a "{ready}" clause on a new line, we need to
-			 * look for it and break from this loop when we see it otherwise
-			 * this process will hang indefinitely blocking on the input stream
-			 * with no data to read.
-			 */
-			if (stayOpen && line.equals("{ready}"))
-				break;
+		try {
+			metrics.onRequest(images, tagsRequested, tagsFound, writeNanos,
+					firstLine - sent, end - firstLine);
+		} catch (RuntimeException e) {
+			// A broken listener must never fail the request it measured.
+			log("\tExifToolMetrics listener failed: %s", e);
 		}
+	}
 
-		// Print out how long the call to external ExifTool process took.
-		log("\tFinished reading ExifTool response in %d ms.",
-				(System.currentTimeMillis() - exifToolCallElapsedTime));
-
-		/*
-		 * If we are not using a persistent ExifTool process, then after running
-		 * the command above, the process exited in which case we need to clean
-		 * our streams up since it no longer exists. If we were using a
-		 * persistent ExifTool process, leave the streams open for future calls.
-		 */
-		if (!stayOpen)
-			streams.close();
-
-		if (DEBUG)
-			log("\tImage Meta Processed in %d ms [queried %d tags and found %d values]",
-					(System.currentTimeMillis() - startTime), tags.length,
-					resultMap.size());
+	/**
+	 * Helper method used to record that this instance is in use right now,
+	 * which keeps the shared {@link IdleReaper} from shutting its daemon
+	 * process down for another {@link #PROCESS_CLEANUP_DELAY} milliseconds.
+	 */
+	private void markUsed() {
+		lastUsed = System.nanoTime();
+	}
 
-		return resultMap;
+	/**
+	 * Used to exempt this instance's daemon process from being shut down
+	 * after {@link #PROCESS_CLEANUP_DELAY} of inactivity, so it stays warm
+	 * for the next request no matter how long it waits. Used by
+	 * {@link ExifToolPool} for the daemons it keeps around at all times.
+	 */
+	void setKeepWarm(boolean keepWarm) {
+		this.keepWarm = keepWarm;
 	}
-        
-        public void setImageMeta(File image, Map<Tag, String> tags) 
-                        throws IllegalArgumentException, SecurityException, IOException {
-		setImageMeta(image, Format.NUMERIC, tags);
+
+	boolean isKeepWarm() {
+		return keepWarm;
 	}
-        
-        public void setImageMeta(File image, Format format, Map<Tag, String> tags )
-			throws IllegalArgumentException, SecurityException, IOException {
-		if (image == null)
-			throw new IllegalArgumentException(
-					"image cannot be null and must be a valid stream of image data.");
-		if (format == null)
-			throw new IllegalArgumentException("format cannot be null");
-		if (tags == null || tags.size() == 0)
-			throw new IllegalArgumentException(
-					"tags cannot be null and must contain 1 or more Tag to query the image for.");
-		if (!image.canWrite())
-			throw new SecurityException(
-					"Unable to read the given image ["
-							+ image.getAbsolutePath()
-							+ "], ensure that the image exists at the given path and that the executing Java process has permissions to read it.");
 
-		long startTime = System.currentTimeMillis();
+	/**
+	 * Helper method used to schedule the {@link IdleReaper} on the shared
+	 * scheduler the first time a daemon process is started.
+	 */
+	private static void startIdleReaper() {
+		synchronized (DAEMONS) {
+			if (idleReaper != null)
+				return;
 
-		if (DEBUG)
-			log("Writing %d tags to image: %s", tags.size(),
-					image.getAbsolutePath());
+			// Checking ten times per delay keeps reaping within 10% of it.
+			long period = Math.max(PROCESS_CLEANUP_DELAY / 10, 10);
 
-		long exifToolCallElapsedTime = 0;
+			log("\tStarting idle reaper, checking every %d ms...", period);
+			idleReaper = SchedulerHolder.SCHEDULER.scheduleWithFixedDelay(
+					new IdleReaper(), period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Class used to track a single request made with
+	 * {@link ExifTool#getImageMetaAsync(File, Format, Tag...)} while it is
+	 * in-flight.
+	 * 
+	 * @since 1.2
+	 */
+	private static class AsyncRequest {
+		private final int id;
+		private final int tagCount;
+		private final Map<Tag, String> resultMap;
+		private final CompletableFuture<Map<Tag, String>> future;
 
 		/*
-		 * Using ExifTool in daemon mode (-stay_open True) executes different
-		 * code paths below. So establish the flag for this once and it is
-		 * reused a multitude of times later in this method to figure out where
-		 * to branch to.
+		 * Timestamps for the listener (0 without one). The request is only
+		 * written after it is queued, so the reader may look at it first.
 		 */
-		boolean stayOpen = featureSet.contains(Feature.STAY_OPEN);
+		private ExifToolMetrics metrics;
+		private long start;
+		private volatile long written;
+
+		public AsyncRequest(int id, int tagCount) {
+			this.id = id;
+			this.tagCount = tagCount;
+			this.resultMap = new HashMap<ExifTool.Tag, String>(tagCount * 3);
+			this.future = new CompletableFuture<Map<Tag, String>>();
+		}
+	}
 
-		// Clear process args
-		args.clear();
+	/**
+	 * Class used to represent the {@link Thread} that reads the responses to
+	 * pipelined requests from the daemon ExifTool process and completes the
+	 * matching futures.
+	 * <p/>
+	 * ExifTool processes commands strictly in the order they are written, so
+	 * the reader simply takes the oldest outstanding request, parses lines for
+	 * it until its <code>{ready&lt;N&gt;}</code> marker arrives and moves on
+	 * to the next. When nothing is outstanding the reader waits on the queue
+	 * instead of the stream, which leaves the stream free for the blocking
+	 * methods of {@link ExifTool}.
+	 * 
+	 * @since 1.2
+	 */
+	private static class AsyncReader extends Thread {
+		private final ExifTool owner;
+		private final IOStream streams;
+		private final ResponseReader reader;
+		private final BlockingQueue<AsyncRequest> pending;
 
-		if (stayOpen) {
-			log("\tUsing ExifTool in daemon mode (-stay_open True)...");
+		private volatile boolean running = true;
 
-			// Always reset the cleanup task.
-			resetCleanupTask();
+		public AsyncReader(ExifTool owner, IOStream streams) {
+			super(ASYNC_READER_THREAD_NAME);
+			setDaemon(true);
 
-			/*
-			 * If this is our first time calling getImageMeta with a stayOpen
-			 * connection, set up the persistent process and run it so it is
-			 * ready to receive commands from us.
-			 */
-			if (streams == null) {
-				log("\tStarting daemon ExifTool process and creating read/write streams (this only happens once)...");
+			this.owner = owner;
+			this.streams = streams;
+			this.reader = streams.reader;
+			this.pending = new LinkedBlockingQueue<AsyncRequest>();
+		}
 
-				args.add(EXIF_TOOL_PATH);
-				args.add("-stay_open");
-				args.add("True");
-				args.add("-@");
-				args.add("-");
+		@Override
+		public void run() {
+			AsyncRequest request = null;
+			IOException failure = null;
 
-				// Begin the persistent ExifTool process.
-				streams = startExifToolProcess(args);
+			try {
+				while (running) {
+					request = pending.take();
+
+					long readStart = (request.metrics == null ? 0 : System
+							.nanoTime());
+					Watchdog watchdog = owner.startWatchdog(streams);
+					boolean ready = false;
+					long firstLine = 0;
+
+					try {
+						while (reader.nextLine()) {
+							if (firstLine == 0 && request.metrics != null)
+								firstLine = System.nanoTime();
+
+							if (reader.readyId() == request.id) {
+								ready = true;
+								break;
+							}
+
+							// An image read along with its sidecar has headers.
+							if (reader.startsWith(FILE_HEADER_PREFIX_BYTES))
+								continue;
+
+							parseTagLine(reader, request.resultMap);
+						}
+					} catch (IOException e) {
+						if (watchdog == null || !watchdog.stop())
+							throw e;
+					}
+
+					/*
+					 * Only the request that ran out of time fails with the
+					 * timeout, everything queued behind it gets the generic
+					 * failure below. The owner notices this Thread is gone
+					 * and starts a fresh process on its next request.
+					 */
+					if (watchdog != null && watchdog.stop()) {
+						owner.timeoutCount.incrementAndGet();
+
+						if (request.metrics != null)
+							request.metrics.onTimeout();
+
+						request.future
+								.completeExceptionally(new RequestTimeoutException(
+										watchdog.timeout));
+						request = null;
+						failure = new IOException(
+								"ExifTool daemon process was killed after an async request timed out.");
+						break;
+					}
+
+					if (!ready)
+						throw new IOException(
+								"ExifTool process exited before responding to async request "
+										+ request.id + ".");
+
+					/*
+					 * A pipelined request can only get an answer once those
+					 * ahead of it got theirs, which isn't ExifTool's time.
+					 */
+					if (request.metrics != null)
+						reportRequest(request.metrics, 1, request.tagCount,
+								request.resultMap.size(), request.written
+										- request.start,
+								Math.max(request.written, readStart),
+								firstLine);
+
+					if (DEBUG)
+						log("\tAsync request %d complete.", request.id);
+					request.future.complete(request.resultMap);
+					request = null;
+				}
+			} catch (InterruptedException e) {
+				// no-op, we were asked to shut down.
+			} catch (IOException e) {
+				failure = e;
 			}
 
-			log("\tStreaming arguments to ExifTool process...");
+			if (failure == null)
+				failure = new IOException(
+						"ExifTool daemon process was closed while async requests were outstanding.");
 
-			if (format == Format.NUMERIC)
-				streams.writer.write("-n\n"); // numeric output
+			// Nothing else will ever read a response for these requests.
+			if (request != null)
+				request.future.completeExceptionally(failure);
 
-			streams.writer.write("-S\n"); // compact output
+			/*
+			 * Requests are only queued while holding the owner's asyncLock
+			 * and after checking isRunning(), so once this block is done no
+			 * request can be left behind in the queue.
+			 */
+			synchronized (owner.asyncLock) {
+				running = false;
 
-                        for ( Entry<Tag,String> entry :tags.entrySet() ) {
-				streams.writer.write('-');
-				streams.writer.write(entry.getKey().name);
-				streams.writer.write("='");
-				streams.writer.write(entry.getValue());
-				streams.writer.write("'\n");
+				while ((request = pending.poll()) != null)
+					request.future.completeExceptionally(failure);
 			}
+		}
 
-			streams.writer.write(image.getAbsolutePath());
-			streams.writer.write("\n");
-
-			log("\tExecuting ExifTool...");
+		public boolean isRunning() {
+			return running;
+		}
 
-			// Begin tracking the duration ExifTool takes to respond.
-			exifToolCallElapsedTime = System.currentTimeMillis();
+		public void shutdown() {
+			running = false;
+			interrupt();
+		}
+	}
 
-			// Run ExifTool on our file with all the given arguments.
-			streams.writer.write("-execute\n");
-			streams.writer.flush();
-		} else {
-			log("\tUsing ExifTool in non-daemon mode (-stay_open False)...");
+	/**
+	 * Class used to kill the external ExifTool process serving a request if
+	 * the request is still running when its deadline passes.
+	 * 
+	 * @since 1.2
+	 */
+	private static class Watchdog implements Runnable {
+		private final IOStream target;
+		private final long timeout;
 
-			/*
-			 * Since we are not using a stayOpen process, we need to setup the
-			 * execution arguments completely each time.
-			 */
-			args.add(EXIF_TOOL_PATH);
+		private ScheduledFuture<?> future;
+		private boolean stopped;
+		private boolean fired;
 
-			if (format == Format.NUMERIC)
-				args.add("-n"); // numeric output
+		public Watchdog(IOStream target, long timeout) {
+			this.target = target;
+			this.timeout = timeout;
+		}
 
-			args.add("-S"); // compact output
+		public void run() {
+			synchronized (this) {
+				if (stopped)
+					return;
 
-			for ( Entry<Tag,String> entry :tags.entrySet() )
-				args.add("-" + entry.getKey().name + "='" + entry.getValue() + "'" );
+				fired = true;
+			}
 
-			args.add(image.getAbsolutePath());
+			log("\tRequest exceeded its %d ms deadline, killing ExifTool process...",
+					timeout);
+			target.kill();
+		}
 
-			// Run the ExifTool with our args.
-			streams = startExifToolProcess(args);
+		/**
+		 * Used to stop the watchdog; safe to call more than once.
+		 * 
+		 * @return <code>true</code> if the watchdog fired (or is firing) and
+		 *         the process was killed.
+		 */
+		public boolean stop() {
+			future.cancel(false);
 
-			// Begin tracking the duration ExifTool takes to respond.
-			exifToolCallElapsedTime = System.currentTimeMillis();
+			synchronized (this) {
+				stopped = true;
+				return fired;
+			}
 		}
+	}
 
-		log("\tReading response back from ExifTool...");
+	/**
+	 * Class used to lazily create the {@link ScheduledExecutorService} shared
+	 * by every instance of {@link ExifTool}, so VMs that never use it never
+	 * start its {@link Thread}.
+	 * 
+	 * @since 1.2
+	 */
+	private static class SchedulerHolder {
+		private static final ScheduledThreadPoolExecutor SCHEDULER;
 
-		String line = null;
+		static {
+			SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, SCHEDULER_THREAD_NAME);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
-		while ((line = streams.reader.readLine()) != null) {
-			/*
-			 * When using a persistent ExifTool process, it terminates its
-			 * output to us with a "{ready}" clause on a new line, we need to
-			 * look for it and break from this loop when we see it otherwise
-			 * this process will hang indefinitely blocking on the input stream
-			 * with no data to read.
-			 */
-			if (stayOpen && line.equals("{ready}"))
-				break;
+			// Don't let canceled watchdogs pile up in the queue.
+			SCHEDULER.setRemoveOnCancelPolicy(true);
 		}
+	}
 
-		// Print out how long the call to external ExifTool process took.
-		log("\tFinished reading ExifTool response in %d ms.",
-				(System.currentTimeMillis() - exifToolCallElapsedTime));
-
-		/*
-		 * If we are not using a persistent ExifTool process, then after running
-		 * the command above, the process exited in which case we need to clean
-		 * our streams up since it no longer exists. If we were using a
-		 * persistent ExifTool process, leave the streams open for future calls.
+	/**
+	 * Class used to lazily write the image read by {@link ExifTool#warmUp()}
+	 * to a temporary file the first time it is needed, then share it with
+	 * every instance for the rest of the VM's life.
+	 * 
+	 * @since 1.2
+	 */
+	private static class WarmUpHolder {
+		/**
+		 * Smallest JPEG ExifTool reads as one: an EXIF block holding a single
+		 * Orientation tag and no image data.
 		 */
-		if (!stayOpen)
-			streams.close();
+		private static final byte[] IMAGE = { (byte) 0xFF, (byte) 0xD8,
+				(byte) 0xFF, (byte) 0xE1, 0x00, 0x22, 'E', 'x', 'i', 'f', 0x00,
+				0x00, 'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08, 0x00,
+				0x01, 0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, 0x00,
+				0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xFF,
+				(byte) 0xD9 };
 
-		if (DEBUG)
-			log("\tImage Meta Processed in %d ms [write %d tags]",
-					(System.currentTimeMillis() - startTime), tags.size());
+		private static final PreparedQuery QUERY = new PreparedQuery(
+				Format.NUMERIC, Tag.ORIENTATION);
+
+		private static File image;
+
+		private static synchronized File getImage() throws IOException {
+			if (image == null || !image.isFile()) {
+				Path path = Files.createTempFile("exiftool-warmup", ".jpg");
+				Files.write(path, IMAGE);
+
+				image = path.toFile();
+				image.deleteOnExit();
+			}
+
+			return image;
+		}
 	}
 
 	/**
-	 * Helper method used to make canceling the current task and scheduling a
-	 * new one easier.
+	 * Class used to represent the task, shared by every instance of
+	 * {@link ExifTool} and run periodically on the shared scheduler
+	 * {@link Thread}, that calls {@link ExifTool#close()} on every instance
+	 * whose daemon process has been idle for {@link #PROCESS_CLEANUP_DELAY}
+	 * milliseconds.
 	 * <p/>
-	 * It is annoying that we cannot just reset the timer on the task, but that
-	 * isn't the way the java.util.Timer class was designed unfortunately.
+	 * This replaces the {@link java.util.Timer} Thread and the task every
+	 * instance used to reschedule on every single request: requests now just
+	 * record when they happened and this task compares that against the
+	 * clock.
+	 * 
+	 * @since 1.2
 	 */
-	private void resetCleanupTask() {
-		// no-op if the timer was never created.
-		if (cleanupTimer == null)
-			return;
+	private static class IdleReaper implements Runnable {
+		public void run() {
+			long now = System.nanoTime();
+			long delay = TimeUnit.MILLISECONDS.toNanos(PROCESS_CLEANUP_DELAY);
+
+			for (ExifTool tool : DAEMONS) {
+				if (tool.keepWarm || now - tool.lastUsed < delay)
+					continue;
 
-		log("\tResetting cleanup task...");
+				/*
+				 * Closing waits for pipelined requests, which would hold up
+				 * the watchdogs sharing this Thread; they keep the daemon in
+				 * use anyway.
+				 */
+				CompletableFuture<Map<Tag, String>> last = tool.lastAsyncRequest;
+
+				if (last != null && !last.isDone())
+					continue;
+
+				log("\tAuto cleanup shutting down daemon idle for %d ms...",
+						TimeUnit.NANOSECONDS.toMillis(now - tool.lastUsed));
 
-		// Cancel the current cleanup task if necessary.
-		if (currentCleanupTask != null)
-			currentCleanupTask.cancel();
+				try {
+					tool.close();
 
-		// Schedule a new cleanup task.
-		cleanupTimer.schedule(
-				(currentCleanupTask = new CleanupTimerTask(this)),
-				PROCESS_CLEANUP_DELAY, PROCESS_CLEANUP_DELAY);
+					ExifToolMetrics metrics = tool.metrics;
 
-		log("\t\tSuccessful");
+					if (metrics != null)
+						metrics.onCleanup();
+				} catch (RuntimeException e) {
+					// Never let one instance stop the reaper for all others.
+					log("\t\tFailed to shut down idle daemon: %s", e);
+				}
+			}
+		}
 	}
 
 	/**
-	 * Class used to represent the {@link TimerTask} used by the internal auto
-	 * cleanup {@link Timer} to call {@link ExifTool#close()} after a specified
-	 * interval of inactivity.
+	 * Class used to define an exception that occurs when a request to ExifTool
+	 * takes longer than the limit set with
+	 * {@link ExifTool#setRequestTimeout(long, TimeUnit)} and the external
+	 * process serving it was killed.
 	 * 
-	 * @author Riyad Kalla (software@thebuzzmedia.com)
-	 * @since 1.1
+	 * @since 1.2
 	 */
-	private class CleanupTimerTask extends TimerTask {
-		private ExifTool owner;
+	public static class RequestTimeoutException extends IOException {
+		private static final long serialVersionUID = 4925474384633318427L;
 
-		public CleanupTimerTask(ExifTool owner) throws IllegalArgumentException {
-			if (owner == null)
-				throw new IllegalArgumentException(
-						"owner cannot be null and must refer to the ExifTool instance creating this task.");
+		private final long timeout;
 
-			this.owner = owner;
+		public RequestTimeoutException(long timeout) {
+			super("ExifTool did not respond within the " + timeout
+					+ " ms request timeout; the process was killed and will be restarted on the next request.");
+
+			this.timeout = timeout;
 		}
 
-		@Override
-		public void run() {
-			log("\tAuto cleanup task running...");
-			owner.close();
+		/**
+		 * @return the timeout (in milliseconds) that was exceeded.
+		 */
+		public long getTimeout() {
+			return timeout;
 		}
 	}
 
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+/**
+ * Interface used to receive timings and counts from {@link ExifTool} and
+ * {@link ExifToolPool} as requests are made, e.g. to feed a monitoring system
+ * and tell whether time is being spent in Java or in the external Perl
+ * process.
+ * <p/>
+ * Every method has an empty default implementation, so implementors only
+ * override what they are interested in. {@link HistogramMetrics} is a ready to
+ * use implementation that records everything in histograms and counters.
+ * <h3>Timings</h3>
+ * All timings are in nanoseconds (measured with {@link System#nanoTime()}) and
+ * split a request into:
+ * <ol>
+ * <li><strong>queue wait</strong>: time spent waiting for an
+ * {@link ExifToolPool} to lend out a daemon.</li>
+ * <li><strong>write</strong>: time spent writing the request to the external
+ * process (including starting the process when the arguments are streamed to
+ * it).</li>
+ * <li><strong>process</strong>: time from the request being sent until the
+ * first line of the response arrived, i.e. how long ExifTool took to start
+ * answering (including starting the process when
+ * {@link ExifTool.Feature#STAY_OPEN} is not used and the arguments are passed
+ * on the command line).</li>
+ * <li><strong>parse</strong>: time from the first line of the response until
+ * the last one was read and parsed.</li>
+ * </ol>
+ * <h3>Thread Safety</h3>
+ * A single listener is typically shared by many instances and called from
+ * many Threads at once (including the background Threads of
+ * {@link ExifTool}), so implementations must be Thread-safe. They are called
+ * on the request path and must return quickly and never throw.
+ * 
+ * @since 1.2
+ */
+public interface ExifToolMetrics {
+	/**
+	 * Called when a caller was lent a daemon by an {@link ExifToolPool}.
+	 * 
+	 * @param nanos
+	 *            How long the caller waited for it.
+	 */
+	default void onQueueWait(long nanos) {
+		// no-op
+	}
+
+	/**
+	 * Called when a request for tag values completed successfully.
+	 * 
+	 * @param images
+	 *            The number of images queried.
+	 * @param tagsRequested
+	 *            The number of tag values asked for, over all images.
+	 * @param tagsFound
+	 *            The number of tag values ExifTool returned, over all images.
+	 * @param writeNanos
+	 *            Time spent writing the request.
+	 * @param processNanos
+	 *            Time until the first line of the response arrived.
+	 * @param parseNanos
+	 *            Time spent reading and parsing the response after that.
+	 */
+	default void onRequest(int images, int tagsRequested, int tagsFound,
+			long writeNanos, long processNanos, long parseNanos) {
+		// no-op
+	}
+
+	/**
+	 * Called every time an external ExifTool process is started.
+	 * 
+	 * @param daemon
+	 *            <code>true</code> if the process is a daemon that stays open
+	 *            ({@link ExifTool.Feature#STAY_OPEN}) or <code>false</code> if
+	 *            it runs for a single request.
+	 */
+	default void onProcessStart(boolean daemon) {
+		// no-op
+	}
+
+	/**
+	 * Called when an instance starts a new daemon process to replace one it
+	 * had before, that was shut down (idle, closed or killed). Always
+	 * preceded by {@link #onProcessStart(boolean)} for the new process.
+	 */
+	default void onRestart() {
+		// no-op
+	}
+
+	/**
+	 * Called when a daemon process is shut down automatically after being
+	 * idle for {@link ExifTool#PROCESS_CLEANUP_DELAY} milliseconds.
+	 */
+	default void onCleanup() {
+		// no-op
+	}
+
+	/**
+	 * Called when a daemon process was replaced by a fresh one because it
+	 * reached a limit of its {@link RecyclePolicy}. Preceded by
+	 * {@link #onProcessStart(boolean)} for the new process when it was
+	 * started in the background.
+	 */
+	default void onRecycle() {
+		// no-op
+	}
+
+	/**
+	 * Called when a request ran out of time and its ExifTool process was
+	 * killed (see {@link ExifTool#setRequestTimeout(long, java.util.concurrent.TimeUnit)}).
+	 */
+	default void onTimeout() {
+		// no-op
+	}
+
+	/**
+	 * Called when an {@link ExifToolPool} answered a request by sharing the
+	 * round trip of a concurrent request for the same image instead of
+	 * making its own (see {@link ExifToolPool#setCoalescingEnabled(boolean)}).
+	 */
+	default void onCoalesced() {
+		// no-op
+	}
+}
@@ -0,0 +1,2110 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.thebuzzmedia.exiftool.ExifTool.Feature;
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to own a number of {@link ExifTool} instances running in daemon
+ * mode (see {@link Feature#STAY_OPEN}) and safely share them between many
+ * concurrent callers.
+ * <p/>
+ * A single {@link ExifTool} instance manages exactly one external ExifTool
+ * process and is not Thread-safe, which means a highly threaded application
+ * (e.g. web application) sharing one instance is capped at the throughput of
+ * a single Perl process no matter how many cores the host has. This class
+ * removes that cap by lending out one daemon per caller and getting it back
+ * when the caller is done.
+ * <h3>Usage</h3>
+ * The simplest way to use the pool is through the same
+ * <code>getImageMeta</code> and <code>setImageMeta</code> methods offered by
+ * {@link ExifTool}; each call transparently borrows a daemon, runs the
+ * request on it and returns it to the pool:
+ *
+ * <pre>
+ * ExifToolPool pool = new ExifToolPool(4);
+ * Map&lt;Tag, String&gt; valueMap = pool.getImageMeta(image, Tag.ORIENTATION);
+ * </pre>
+ *
+ * Callers that want to issue several requests against the same daemon can
+ * manage the instance themselves with {@link #borrow()} and
+ * {@link #release(ExifTool)}:
+ *
+ * <pre>
+ * ExifTool tool = pool.borrow();
+ *
+ * try {
+ * 	// use tool
+ * } finally {
+ * 	pool.release(tool);
+ * }
+ * </pre>
+ *
+ * <h3>Sizing</h3>
+ * The pool starts <code>minSize</code> daemons up front so the first requests
+ * never pay the cost of launching Perl, and grows on demand up to
+ * <code>maxSize</code> daemons. Once all daemons are lent out, callers wait
+ * for one to be released; at most <code>maxWaiting</code> callers may wait at
+ * any time, anything beyond that is rejected immediately with a
+ * {@link PoolSaturatedException} instead of piling up unbounded.
+ * <p/>
+ * The <code>minSize</code> daemons started up front are warmed up (see
+ * {@link ExifTool#warmUp()}), exempt from the automatic shutdown after
+ * {@link ExifTool#PROCESS_CLEANUP_DELAY} of inactivity and restarted when
+ * returned after a failed request, so there are always that many warm
+ * daemons waiting no matter how long the pool sits idle. Daemons started
+ * beyond that are shut down as usual once idle for long enough and
+ * transparently restarted by their next request.
+ * <p/>
+ * When the pool is created as <em>fair</em>, waiting callers are handed
+ * daemons in the order they arrived (FIFO); otherwise a newly arriving caller
+ * may be served ahead of one that is already waiting, which gives slightly
+ * better throughput at the cost of predictable latency.
+ * <h3>Priorities</h3>
+ * Every borrower has a {@link Priority}. Requests for a single image are
+ * {@link Priority#INTERACTIVE} and requests for many images at once
+ * (including {@link #scan(Path, ScanOptions)}) are {@link Priority#BULK};
+ * callers managing daemons themselves pick one with
+ * {@link #borrow(Priority)}. Bulk callers can never hold more than
+ * <code>maxSize</code> minus {@link #getInteractiveReserve()} daemons at
+ * once, so a backfill saturating the pool always leaves daemons for
+ * interactive requests, and each class waits in its own queue with its own
+ * limit ({@link #getMaxWaiting()} and {@link #getMaxBulkWaiting()}), so a
+ * full bulk queue never rejects interactive callers or the other way
+ * around.
+ * <h3>Thread Safety</h3>
+ * Instances of this class are Thread-safe. The {@link ExifTool} instances
+ * handed out by {@link #borrow()} are still <strong>not</strong> Thread-safe
+ * and must only be used by the borrowing Thread until they are released.
+ *
+ * @since 1.2
+ */
+public class ExifToolPool {
+	/**
+	 * Default number of callers that may wait for a daemon to become available
+	 * before further callers are rejected, used when no explicit limit is
+	 * given to the constructor.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.pool.maxWaiting=1024
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>1024</code>.
+	 */
+	public static final int DEFAULT_MAX_WAITING = Integer.getInteger(
+			"exiftool.pool.maxWaiting", 1024);
+
+	/**
+	 * Default number of daemons of every pool that {@link Priority#BULK}
+	 * callers can never borrow, keeping them available to
+	 * {@link Priority#INTERACTIVE} callers (see
+	 * {@link #setInteractiveReserve(int)}). Capped to leave at least one
+	 * daemon to bulk callers.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.pool.interactiveReserve=1
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>1</code>.
+	 */
+	public static final int DEFAULT_INTERACTIVE_RESERVE = Integer.getInteger(
+			"exiftool.pool.interactiveReserve", 1);
+
+	/**
+	 * Default number of {@link Priority#BULK} callers that may wait for a
+	 * daemon before further bulk callers are rejected (see
+	 * {@link #setMaxBulkWaiting(int)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.pool.maxBulkWaiting=1024
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>1024</code>.
+	 */
+	public static final int DEFAULT_MAX_BULK_WAITING = Integer.getInteger(
+			"exiftool.pool.maxBulkWaiting", 1024);
+
+	/**
+	 * Flag used to indicate if concurrent single image requests for the same
+	 * image are coalesced into one round trip by default (see
+	 * {@link #setCoalescingEnabled(boolean)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.pool.coalesce=false
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>true</code>.
+	 */
+	public static final boolean DEFAULT_COALESCE = Boolean
+			.parseBoolean(System.getProperty("exiftool.pool.coalesce", "true"));
+
+	/**
+	 * Flag used to indicate if requests for many images at once are split by
+	 * directory and spread over several daemons by default (see
+	 * {@link #setDirectoryAffinityEnabled(boolean)}).
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.pool.directoryAffinity=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * Default value is <code>false</code>.
+	 */
+	public static final boolean DEFAULT_DIRECTORY_AFFINITY = Boolean
+			.getBoolean("exiftool.pool.directoryAffinity");
+
+	/**
+	 * Name used to identify the {@link Thread}s that help the calling Thread
+	 * work through a request split by directory (see
+	 * {@link #setDirectoryAffinityEnabled(boolean)}).
+	 * <p/>
+	 * This is only provided to make debugging and profiling easier for
+	 * implementors making use of this class such that the resources this class
+	 * creates and uses (i.e. Threads) are readily identifiable in a running VM.
+	 */
+	protected static final String BATCH_HELPER_THREAD_NAME = "ExifToolPool Batch Helper Thread";
+
+	/**
+	 * Time (in seconds) an unused batch helper {@link Thread} is kept around.
+	 */
+	private static final long BATCH_HELPER_KEEP_ALIVE = 60;
+
+	private final int minSize;
+	private final int maxSize;
+	private final int maxWaiting;
+	private final Feature[] features;
+
+	private final Semaphore permits;
+	private final AtomicInteger waiting;
+	private final BulkPermits bulkPermits;
+	private final AtomicInteger bulkWaiting;
+	private final Deque<ExifTool> idle;
+	private final List<ExifTool> all;
+	private final List<ExifTool> bulkLent;
+	private final ThreadPoolExecutor batchHelpers;
+	private final ConcurrentMap<FlightKey, Flight> flights = new ConcurrentHashMap<FlightKey, Flight>();
+
+	private volatile boolean closed;
+	private volatile int interactiveReserve;
+	private volatile int maxBulkWaiting = DEFAULT_MAX_BULK_WAITING;
+	private volatile MetadataCache cache;
+	private volatile long requestTimeout = ExifTool.REQUEST_TIMEOUT;
+	private volatile RecyclePolicy recyclePolicy = RecyclePolicy
+			.fromDefaults();
+	private volatile ExifToolMetrics metrics;
+	private volatile boolean fastPath = ExifTool.FAST_PATH;
+	private volatile boolean sidecarWrites = ExifTool.SIDECAR_WRITES;
+	private volatile boolean sidecarReads = ExifTool.SIDECAR_READS;
+	private volatile boolean coalesce = DEFAULT_COALESCE;
+	private volatile boolean directoryAffinity = DEFAULT_DIRECTORY_AFFINITY;
+
+	/**
+	 * Creates a fair pool that grows on demand up to <code>maxSize</code>
+	 * daemons without starting any of them up front.
+	 *
+	 * @param maxSize
+	 *            The maximum number of daemons the pool will run at once.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>maxSize</code> is less than <code>1</code>.
+	 * @throws ExifTool.UnsupportedFeatureException
+	 *             if the installed ExifTool does not support
+	 *             {@link Feature#STAY_OPEN}.
+	 */
+	public ExifToolPool(int maxSize) throws IllegalArgumentException {
+		this(0, maxSize, DEFAULT_MAX_WAITING, true);
+	}
+
+	/**
+	 * Creates a pool of daemon {@link ExifTool} instances.
+	 * <p/>
+	 * {@link Feature#STAY_OPEN} is always enabled on the pooled instances, it
+	 * does not need to be included in <code>features</code>.
+	 *
+	 * @param minSize
+	 *            The number of daemons started immediately and kept in the
+	 *            pool.
+	 * @param maxSize
+	 *            The maximum number of daemons the pool will run at once.
+	 * @param maxWaiting
+	 *            The maximum number of callers allowed to wait for a daemon
+	 *            before further callers are rejected.
+	 * @param fair
+	 *            <code>true</code> if waiting callers must be served in the
+	 *            order they arrived.
+	 * @param features
+	 *            Any additional {@link Feature}s to enable on the pooled
+	 *            instances.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>minSize</code> or <code>maxWaiting</code> is less
+	 *             than <code>0</code>, if <code>maxSize</code> is less than
+	 *             <code>1</code> or if <code>minSize</code> is greater than
+	 *             <code>maxSize</code>.
+	 * @throws ExifTool.UnsupportedFeatureException
+	 *             if the installed ExifTool does not support one of the
+	 *             requested features.
+	 * @throws RuntimeException
+	 *             if any of the initial daemons could not be started.
+	 */
+	public ExifToolPool(int minSize, int maxSize, int maxWaiting,
+			boolean fair, Feature... features)
+			throws IllegalArgumentException, RuntimeException {
+		if (minSize < 0)
+			throw new IllegalArgumentException("minSize [" + minSize
+					+ "] must be >= 0");
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize [" + maxSize
+					+ "] must be >= 1");
+		if (minSize > maxSize)
+			throw new IllegalArgumentException("minSize [" + minSize
+					+ "] must be <= maxSize [" + maxSize + "]");
+		if (maxWaiting < 0)
+			throw new IllegalArgumentException("maxWaiting [" + maxWaiting
+					+ "] must be >= 0");
+
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxWaiting = maxWaiting;
+		this.features = withStayOpen(features);
+
+		interactiveReserve = Math.max(0,
+				Math.min(DEFAULT_INTERACTIVE_RESERVE, maxSize - 1));
+
+		permits = new Semaphore(maxSize, fair);
+		waiting = new AtomicInteger();
+		bulkPermits = new BulkPermits(maxSize - interactiveReserve, fair);
+		bulkWaiting = new AtomicInteger();
+		idle = new ArrayDeque<ExifTool>(maxSize);
+		all = new ArrayList<ExifTool>(maxSize);
+		bulkLent = new ArrayList<ExifTool>(maxSize);
+
+		/*
+		 * A helper always holds a daemon other than the caller's, so there is
+		 * never a need for more of them. Threads are only started when a
+		 * request is split and go away again once idle.
+		 */
+		int helperCount = Math.max(1, maxSize - 1);
+		batchHelpers = new ThreadPoolExecutor(helperCount, helperCount,
+				BATCH_HELPER_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task,
+								BATCH_HELPER_THREAD_NAME);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		batchHelpers.allowCoreThreadTimeOut(true);
+
+		log("Creating ExifToolPool [minSize=%d, maxSize=%d, maxWaiting=%d, fair=%s, interactiveReserve=%d]",
+				minSize, maxSize, maxWaiting, fair, interactiveReserve);
+
+		/*
+		 * Start the minimum set of daemons up front so the first callers find
+		 * warm processes waiting for them.
+		 */
+		try {
+			for (int i = 0; i < minSize; i++) {
+				ExifTool tool = create();
+				tool.setKeepWarm(true);
+				warmUp(tool);
+				idle.push(tool);
+			}
+		} catch (RuntimeException e) {
+			/*
+			 * Nobody will ever close this pool, and the idle cleanup never
+			 * shuts down keepWarm daemons, so stop the ones already started.
+			 */
+			log("\tFailed to start the minimum set of daemons, shutting down %d already started...",
+					all.size());
+
+			for (ExifTool tool : all)
+				tool.close();
+
+			all.clear();
+			idle.clear();
+			batchHelpers.shutdown();
+			throw e;
+		}
+	}
+
+	/**
+	 * Used to borrow a daemon {@link ExifTool} from the pool, waiting as long
+	 * as necessary for one to become available.
+	 * <p/>
+	 * Every instance borrowed must be handed back with
+	 * {@link #release(ExifTool)} when the caller is done with it.
+	 *
+	 * @return a daemon {@link ExifTool} for the exclusive use of the caller.
+	 *
+	 * @throws InterruptedException
+	 *             if the calling Thread is interrupted while waiting.
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IllegalStateException
+	 *             if the pool has been closed.
+	 */
+	public ExifTool borrow() throws InterruptedException,
+			PoolSaturatedException, IllegalStateException {
+		return borrow(Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Used to borrow a daemon {@link ExifTool} from the pool for a caller of
+	 * the given priority, waiting as long as necessary for one to become
+	 * available.
+	 * <p/>
+	 * Every instance borrowed must be handed back with
+	 * {@link #release(ExifTool)} when the caller is done with it.
+	 *
+	 * @param priority
+	 *            The priority class of the caller.
+	 *
+	 * @return a daemon {@link ExifTool} for the exclusive use of the caller.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>priority</code> is <code>null</code>.
+	 * @throws InterruptedException
+	 *             if the calling Thread is interrupted while waiting.
+	 * @throws PoolSaturatedException
+	 *             if the maximum number of callers of the same priority are
+	 *             already waiting for a daemon.
+	 * @throws IllegalStateException
+	 *             if the pool has been closed.
+	 */
+	public ExifTool borrow(Priority priority) throws IllegalArgumentException,
+			InterruptedException, PoolSaturatedException,
+			IllegalStateException {
+		if (priority == null)
+			throw new IllegalArgumentException("priority cannot be null");
+
+		ensureOpen();
+
+		ExifToolMetrics metrics = this.metrics;
+		long startTime = (metrics == null ? 0 : System.nanoTime());
+
+		acquire(priority, -1);
+		return take(priority, metrics, startTime);
+	}
+
+	/**
+	 * Used to borrow a daemon {@link ExifTool} from the pool, waiting at most
+	 * the given amount of time for one to become available.
+	 * <p/>
+	 * Every instance borrowed must be handed back with
+	 * {@link #release(ExifTool)} when the caller is done with it.
+	 *
+	 * @param timeout
+	 *            The maximum time to wait for a daemon.
+	 * @param unit
+	 *            The unit of <code>timeout</code>.
+	 *
+	 * @return a daemon {@link ExifTool} for the exclusive use of the caller or
+	 *         <code>null</code> if none became available in time.
+	 *
+	 * @throws InterruptedException
+	 *             if the calling Thread is interrupted while waiting.
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IllegalStateException
+	 *             if the pool has been closed.
+	 */
+	public ExifTool borrow(long timeout, TimeUnit unit)
+			throws InterruptedException, PoolSaturatedException,
+			IllegalStateException {
+		return borrow(Priority.INTERACTIVE, timeout, unit);
+	}
+
+	/**
+	 * Used to borrow a daemon {@link ExifTool} from the pool for a caller of
+	 * the given priority, waiting at most the given amount of time for one to
+	 * become available.
+	 * <p/>
+	 * Every instance borrowed must be handed back with
+	 * {@link #release(ExifTool)} when the caller is done with it.
+	 *
+	 * @param priority
+	 *            The priority class of the caller.
+	 * @param timeout
+	 *            The maximum time to wait for a daemon.
+	 * @param unit
+	 *            The unit of <code>timeout</code>.
+	 *
+	 * @return a daemon {@link ExifTool} for the exclusive use of the caller or
+	 *         <code>null</code> if none became available in time.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>priority</code> or <code>unit</code> is
+	 *             <code>null</code>.
+	 * @throws InterruptedException
+	 *             if the calling Thread is interrupted while waiting.
+	 * @throws PoolSaturatedException
+	 *             if the maximum number of callers of the same priority are
+	 *             already waiting for a daemon.
+	 * @throws IllegalStateException
+	 *             if the pool has been closed.
+	 */
+	public ExifTool borrow(Priority priority, long timeout, TimeUnit unit)
+			throws IllegalArgumentException, InterruptedException,
+			PoolSaturatedException, IllegalStateException {
+		if (priority == null)
+			throw new IllegalArgumentException("priority cannot be null");
+		if (unit == null)
+			throw new IllegalArgumentException("unit cannot be null");
+
+		ensureOpen();
+
+		ExifToolMetrics metrics = this.metrics;
+		long startTime = (metrics == null ? 0 : System.nanoTime());
+
+		if (!acquire(priority, Math.max(0, unit.toNanos(timeout))))
+			return null;
+
+		return take(priority, metrics, startTime);
+	}
+
+	/**
+	 * Used to hand a daemon previously obtained from {@link #borrow()} back to
+	 * the pool so it can be lent to the next caller.
+	 * <p/>
+	 * If the pool was closed while the daemon was lent out, the daemon is shut
+	 * down instead. One of the pool's <code>minSize</code> daemons that was
+	 * shut down while lent out (e.g. after a failed request) is restarted
+	 * first, so the next caller does not pay for it.
+	 *
+	 * @param tool
+	 *            The instance being returned.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>tool</code> is <code>null</code> or was not
+	 *             borrowed from this pool.
+	 */
+	public void release(ExifTool tool) throws IllegalArgumentException {
+		if (tool == null)
+			throw new IllegalArgumentException("tool cannot be null");
+
+		synchronized (idle) {
+			if (!all.contains(tool))
+				throw new IllegalArgumentException(
+						"tool was not borrowed from this pool");
+		}
+
+		if (tool.isKeepWarm() && !closed && !tool.isRunning()) {
+			try {
+				warmUp(tool);
+			} catch (RuntimeException e) {
+				// The next request gets to try (and report) again.
+				log("\tFailed to restart warm daemon: %s", e);
+			}
+		}
+
+		boolean bulk;
+
+		synchronized (idle) {
+			bulk = bulkLent.remove(tool);
+
+			if (closed) {
+				all.remove(tool);
+				tool.close();
+			} else
+				idle.push(tool);
+		}
+
+		permits.release();
+
+		if (bulk)
+			bulkPermits.release();
+	}
+
+	public Map<Tag, String> getImageMeta(File image, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMeta(image, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMeta(File, Format, Tag...)} on it and returns it
+	 * to the pool.
+	 * <p/>
+	 * If the request fails with an {@link IOException} the daemon is shut down
+	 * before being returned, so the next caller to receive it starts from a
+	 * fresh ExifTool process instead of a stream left in an unknown state.
+	 *
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IOException
+	 *             if the request failed or the calling Thread was
+	 *             interrupted while waiting for a daemon.
+	 *
+	 * @see ExifTool#getImageMeta(File, Format, Tag...)
+	 */
+	public Map<Tag, String> getImageMeta(File image, Format format, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMetadata(image, format, tags).toMap();
+	}
+
+	public ImageMetadata getImageMetadata(File image, Tag... tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		return getImageMetadata(image, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMetadata(File, Format, Tag...)} on it and
+	 * returns it to the pool.
+	 *
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public ImageMetadata getImageMetadata(File image, Format format,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
+		return getImageMetadata(image, new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMetadata(File, PreparedQuery)} on it and
+	 * returns it to the pool.
+	 * <p/>
+	 * Concurrent calls for the same image share a single request unless
+	 * disabled with {@link #setCoalescingEnabled(boolean)}.
+	 *
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public ImageMetadata getImageMetadata(File image, PreparedQuery query)
+			throws IllegalArgumentException, SecurityException, IOException {
+		MetadataCache cache = this.cache;
+		FileIdentity identity = null;
+
+		/*
+		 * Images with a sidecar always go to ExifTool (see the tool), as do
+		 * queries for values in both formats, which are never cached or
+		 * shared.
+		 */
+		boolean local = (image != null && query != null
+				&& query.cacheable() && image.canRead() && !(sidecarReads && ExifTool
+				.findSidecar(image) != null));
+
+		/*
+		 * Check the cache before borrowing so a hit never has to wait for a
+		 * daemon to become available.
+		 */
+		if (cache != null && local) {
+			Format format = query.getFormat();
+			Tag[] tags = query.tags();
+
+			identity = FileIdentity.of(image);
+			Map<Tag, String> cachedMap = cache.get(identity, format, tags);
+
+			if (cachedMap != null)
+				return new ImageMetadata(image, format, cachedMap);
+		}
+
+		// Same for images that can be read without ExifTool.
+		if (fastPath && local && query.fastPath()) {
+			ImageMetadata metadata = FastExifReader.read(image, query.tags());
+
+			if (metadata != null) {
+				if (identity != null)
+					cache.put(identity, query.getFormat(), query.tags(),
+							metadata.toMap());
+
+				return metadata;
+			}
+		}
+
+		if (coalesce && local) {
+			if (identity == null)
+				identity = FileIdentity.of(image);
+
+			return coalesce(image, query, identity, cache);
+		}
+
+		ExifTool tool = borrowForRequest();
+		ImageMetadata metadata;
+
+		try {
+			metadata = tool.getImageMetadata(image, query);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+
+		if (identity != null)
+			cache.put(identity, query.getFormat(), query.tags(),
+					metadata.toMap());
+
+		return metadata;
+	}
+
+	/**
+	 * Convenience method that calls
+	 * {@link ExifTool#getImageMetadata(InputStream, PreparedQuery)} within the
+	 * bounds of the pool.
+	 * <p/>
+	 * The request runs its own ExifTool process and never touches a daemon,
+	 * so none is borrowed (or started); the caller only holds one of the
+	 * pool's <code>maxSize</code> permits for the duration of the request,
+	 * which keeps the number of concurrent ExifTool processes within the
+	 * bounds of the pool.
+	 * 
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IOException
+	 *             if the request failed or the calling Thread was
+	 *             interrupted while waiting for a permit.
+	 */
+	public ImageMetadata getImageMetadata(InputStream in, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		acquireForStream();
+
+		try {
+			return newStreamTool().getImageMetadata(in, query);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * @see #getImageMetadata(InputStream, PreparedQuery)
+	 */
+	public ImageMetadata getImageMetadata(byte[] data, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		acquireForStream();
+
+		try {
+			return newStreamTool().getImageMetadata(data, query);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * @see #getImageMetadata(InputStream, PreparedQuery)
+	 */
+	public ImageMetadata getImageMetadata(ByteBuffer data, PreparedQuery query)
+			throws IllegalArgumentException, IOException {
+		acquireForStream();
+
+		try {
+			return newStreamTool().getImageMetadata(data, query);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#extractBinary(File, Tag, WritableByteChannel)} on it and
+	 * returns it to the pool.
+	 * 
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public long extractBinary(File image, Tag tag, WritableByteChannel target)
+			throws IllegalArgumentException, SecurityException, IOException {
+		ExifTool tool = borrowForRequest();
+
+		try {
+			return tool.extractBinary(image, tag, target);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#extractBinary(File, Tag, ByteBuffer)} on it and returns
+	 * it to the pool.
+	 * 
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public int extractBinary(File image, Tag tag, ByteBuffer target)
+			throws IllegalArgumentException, SecurityException,
+			BufferOverflowException, IOException {
+		ExifTool tool = borrowForRequest();
+
+		try {
+			return tool.extractBinary(image, tag, target);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#extractBinary(File, Tag)} on it and returns it to the
+	 * pool.
+	 * 
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public ByteBuffer extractBinary(File image, Tag tag)
+			throws IllegalArgumentException, SecurityException, IOException {
+		ExifTool tool = borrowForRequest();
+
+		try {
+			return tool.extractBinary(image, tag);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	public Map<File, Map<Tag, String>> getImageMeta(List<File> images,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
+		return getImageMeta(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMeta(List, Format, Tag...)} on it and returns it
+	 * to the pool.
+	 *
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IOException
+	 *             if the request failed or the calling Thread was
+	 *             interrupted while waiting for a daemon.
+	 *
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public Map<File, Map<Tag, String>> getImageMeta(List<File> images,
+			Format format, Tag... tags) throws IllegalArgumentException,
+			SecurityException, IOException {
+		Map<File, ImageMetadata> metadataMap = getImageMetadata(images,
+				format, tags);
+		Map<File, Map<Tag, String>> resultMap = new LinkedHashMap<File, Map<Tag, String>>(
+				metadataMap.size() * 2);
+
+		for (Map.Entry<File, ImageMetadata> entry : metadataMap.entrySet())
+			resultMap.put(entry.getKey(), entry.getValue().toMap());
+
+		return resultMap;
+	}
+
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			Tag... tags) throws IllegalArgumentException, SecurityException,
+			IOException {
+		return getImageMetadata(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMetadata(List, Format, Tag...)} on it and
+	 * returns it to the pool.
+	 *
+	 * @see #getImageMeta(List, Format, Tag...)
+	 */
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			Format format, Tag... tags) throws IllegalArgumentException,
+			SecurityException, IOException {
+		return getImageMetadata(images, new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#getImageMetadata(List, PreparedQuery)} on it and
+	 * returns it to the pool. The daemon is borrowed as {@link Priority#BULK}.
+	 *
+	 * @see #getImageMeta(List, Format, Tag...)
+	 */
+	public Map<File, ImageMetadata> getImageMetadata(List<File> images,
+			PreparedQuery query) throws IllegalArgumentException,
+			SecurityException, IOException {
+		if (directoryAffinity && images != null && images.size() > 1
+				&& query != null)
+			return getImageMetadataByDirectory(images, query);
+
+		ExifTool tool = borrowForRequest(Priority.BULK);
+
+		try {
+			return getImageMetadata(tool, images, query);
+		} finally {
+			release(tool);
+		}
+	}
+
+	/**
+	 * Used to lazily query every file in a directory tree using the daemons
+	 * of this pool.
+	 * <p/>
+	 * This works like {@link ExifTool#scan(Path, ScanOptions)}, borrowing a
+	 * daemon for each batch. A sequential stream only ever has one batch in
+	 * flight; calling {@link Stream#parallel()} on the returned stream lets
+	 * up to <code>maxSize</code> minus {@link #getInteractiveReserve()}
+	 * batches be queried at once on different {@link Priority#BULK} daemons,
+	 * at the cost of results no longer being in walk order. Either way, at
+	 * most one batch of paths and results per daemon in use is held in
+	 * memory.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>root</code> or <code>options</code> is
+	 *             <code>null</code>.
+	 * @throws IOException
+	 *             if <code>root</code> does not exist or cannot be read.
+	 * 
+	 * @see ExifTool#scan(Path, ScanOptions)
+	 */
+	public Stream<ImageMetadata> scan(Path root, ScanOptions options)
+			throws IllegalArgumentException, IOException {
+		if (root == null)
+			throw new IllegalArgumentException("root cannot be null");
+		if (options == null)
+			throw new IllegalArgumentException("options cannot be null");
+
+		final ScanSpliterator spliterator = new ScanSpliterator(root, options,
+				new ScanSpliterator.BatchQuery() {
+					public Map<File, ImageMetadata> query(List<File> images,
+							PreparedQuery query) throws IOException {
+						return getImageMetadata(images, query);
+					}
+				}, maxSize - interactiveReserve - 1);
+
+		return StreamSupport.stream(spliterator, false).onClose(
+				new Runnable() {
+					public void run() {
+						spliterator.close();
+					}
+				});
+	}
+
+	public void setImageMeta(File image, Map<Tag, String> tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		setImageMeta(image, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#setImageMeta(File, Format, Map)} on it and returns it to
+	 * the pool.
+	 *
+	 * @throws PoolSaturatedException
+	 *             if <code>maxWaiting</code> callers are already waiting for
+	 *             a daemon.
+	 * @throws IOException
+	 *             if the request failed or the calling Thread was
+	 *             interrupted while waiting for a daemon.
+	 *
+	 * @see #getImageMeta(File, Format, Tag...)
+	 */
+	public void setImageMeta(File image, Format format, Map<Tag, String> tags)
+			throws IllegalArgumentException, SecurityException, IOException {
+		ExifTool tool = borrowForRequest();
+
+		try {
+			tool.setImageMeta(image, format, tags);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	public Map<File, WriteResult> setImageMeta(List<File> images,
+			Map<Tag, String> tags) throws IllegalArgumentException, IOException {
+		return setImageMeta(images, Format.NUMERIC, tags);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#setImageMeta(List, Format, Map)} on it and returns it
+	 * to the pool. The daemon is borrowed as {@link Priority#BULK}.
+	 *
+	 * @see #setImageMeta(File, Format, Map)
+	 */
+	public Map<File, WriteResult> setImageMeta(List<File> images,
+			Format format, Map<Tag, String> tags)
+			throws IllegalArgumentException, IOException {
+		ExifTool tool = borrowForRequest(Priority.BULK);
+
+		try {
+			return tool.setImageMeta(images, format, tags);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	public Map<File, WriteResult> setImageMeta(
+			Map<File, Map<Tag, String>> tagMap)
+			throws IllegalArgumentException, IOException {
+		return setImageMeta(tagMap, Format.NUMERIC);
+	}
+
+	/**
+	 * Convenience method that borrows a daemon, calls
+	 * {@link ExifTool#setImageMeta(Map, Format)} on it and returns it to the
+	 * pool. The daemon is borrowed as {@link Priority#BULK}.
+	 *
+	 * @see #setImageMeta(File, Format, Map)
+	 */
+	public Map<File, WriteResult> setImageMeta(
+			Map<File, Map<Tag, String>> tagMap, Format format)
+			throws IllegalArgumentException, IOException {
+		ExifTool tool = borrowForRequest(Priority.BULK);
+
+		try {
+			return tool.setImageMeta(tagMap, format);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			release(tool);
+		}
+	}
+
+	/**
+	 * Used to shut down every idle daemon in the pool and prevent any further
+	 * borrowing. Daemons currently lent out are shut down as they are
+	 * released.
+	 */
+	public void close() {
+		List<ExifTool> toClose;
+
+		synchronized (idle) {
+			if (closed)
+				return;
+
+			closed = true;
+			toClose = new ArrayList<ExifTool>(idle);
+			all.removeAll(idle);
+			idle.clear();
+		}
+
+		// Helpers already running finish the request they are helping with.
+		batchHelpers.shutdown();
+
+		log("Closing ExifToolPool, shutting down %d idle daemon(s)...",
+				toClose.size());
+
+		for (ExifTool tool : toClose)
+			tool.close();
+	}
+
+	/**
+	 * Used to get the {@link MetadataCache} consulted by this pool before
+	 * borrowing a daemon.
+	 * 
+	 * @return the cache in use or <code>null</code> if caching is disabled
+	 *         (the default).
+	 */
+	public MetadataCache getMetadataCache() {
+		return cache;
+	}
+
+	/**
+	 * Used to set a {@link MetadataCache} shared by every request made
+	 * through this pool's <code>getImageMeta</code> methods. Cache hits are
+	 * answered without borrowing a daemon at all.
+	 * 
+	 * @param cache
+	 *            The cache to use or <code>null</code> to disable caching.
+	 * 
+	 * @see ExifTool#setMetadataCache(MetadataCache)
+	 */
+	public void setMetadataCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the maximum amount of time (in milliseconds) a single request
+	 *         to one of the pooled daemons may take, or <code>0</code> if
+	 *         there is no limit.
+	 */
+	public long getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	/**
+	 * Used to set the maximum amount of time a single request to one of the
+	 * pooled daemons may take, for every daemon already in the pool and every
+	 * daemon created from now on.
+	 * <p/>
+	 * A daemon that times out is killed and the request fails with a
+	 * {@link ExifTool.RequestTimeoutException}; the daemon is still returned
+	 * to the pool and starts a fresh process the next time it is used, so a
+	 * single bad file never takes a daemon out of rotation for good.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>timeout</code> is &lt; <code>0</code> or if
+	 *             <code>unit</code> is <code>null</code>.
+	 * 
+	 * @see ExifTool#setRequestTimeout(long, TimeUnit)
+	 */
+	public void setRequestTimeout(long timeout, TimeUnit unit)
+			throws IllegalArgumentException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout [" + timeout
+					+ "] must be >= 0");
+		if (unit == null)
+			throw new IllegalArgumentException("unit cannot be null");
+
+		synchronized (idle) {
+			requestTimeout = unit.toMillis(timeout);
+
+			for (ExifTool tool : all)
+				tool.setRequestTimeout(requestTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return the policy deciding when the pooled daemon processes are
+	 *         recycled or <code>null</code> if they never are.
+	 */
+	public RecyclePolicy getRecyclePolicy() {
+		return recyclePolicy;
+	}
+
+	/**
+	 * Used to set the policy deciding when the process of a pooled daemon is
+	 * retired and replaced by a fresh one, for every daemon already in the
+	 * pool and every daemon created from now on.
+	 * <p/>
+	 * The replacement is started and warmed up in the background while the
+	 * daemon keeps answering requests, so recycling never takes a daemon out
+	 * of rotation.
+	 * 
+	 * @param policy
+	 *            The policy to use or <code>null</code> to never recycle the
+	 *            daemons.
+	 * 
+	 * @see ExifTool#setRecyclePolicy(RecyclePolicy)
+	 */
+	public void setRecyclePolicy(RecyclePolicy policy) {
+		synchronized (idle) {
+			recyclePolicy = policy;
+
+			for (ExifTool tool : all)
+				tool.setRecyclePolicy(policy);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if common EXIF tags are read directly in Java
+	 *         when possible.
+	 */
+	public boolean isFastPathEnabled() {
+		return fastPath;
+	}
+
+	/**
+	 * Used to enable answering queries for common EXIF tags directly in Java
+	 * for every daemon already in the pool and every daemon created from now
+	 * on. Single image requests answered this way never borrow a daemon.
+	 * 
+	 * @see ExifTool#setFastPathEnabled(boolean)
+	 */
+	public void setFastPathEnabled(boolean enabled) {
+		synchronized (idle) {
+			fastPath = enabled;
+
+			for (ExifTool tool : all)
+				tool.setFastPathEnabled(enabled);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if tags are written to XMP sidecar files
+	 *         instead of to the images themselves.
+	 */
+	public boolean isSidecarWritesEnabled() {
+		return sidecarWrites;
+	}
+
+	/**
+	 * Used to make every daemon already in the pool and every daemon created
+	 * from now on write tags to XMP sidecar files instead of to the images.
+	 * 
+	 * @see ExifTool#setSidecarWritesEnabled(boolean)
+	 */
+	public void setSidecarWritesEnabled(boolean enabled) {
+		synchronized (idle) {
+			sidecarWrites = enabled;
+
+			for (ExifTool tool : all)
+				tool.setSidecarWritesEnabled(enabled);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if values from XMP sidecar files are merged
+	 *         into the values read from the images.
+	 */
+	public boolean isSidecarReadsEnabled() {
+		return sidecarReads;
+	}
+
+	/**
+	 * Used to make every daemon already in the pool and every daemon created
+	 * from now on merge the values from XMP sidecar files into the values
+	 * read from the images.
+	 * 
+	 * @see ExifTool#setSidecarReadsEnabled(boolean)
+	 */
+	public void setSidecarReadsEnabled(boolean enabled) {
+		synchronized (idle) {
+			sidecarReads = enabled;
+
+			for (ExifTool tool : all)
+				tool.setSidecarReadsEnabled(enabled);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if concurrent requests for the same image
+	 *         share one round trip to a daemon.
+	 */
+	public boolean isCoalescingEnabled() {
+		return coalesce;
+	}
+
+	/**
+	 * Used to enable coalescing concurrent single image requests (see
+	 * {@link #getImageMetadata(File, PreparedQuery)} and the methods calling
+	 * it) for the same image.
+	 * <p/>
+	 * While enabled, a request for an image that another caller is already
+	 * querying in the same {@link Format} does not borrow a daemon of its
+	 * own but waits for that request and gets its answer. Callers that
+	 * arrive before the first one got a daemon add their tags to the shared
+	 * request, so callers asking for different tags of the same image are
+	 * still answered by a single round trip querying the union of them.
+	 * Each caller gets its own {@link ImageMetadata} holding only the tags it
+	 * asked for, and if the shared request fails every caller sharing it
+	 * gets the same exception.
+	 * <p/>
+	 * Requests are only shared for images that have not changed in between
+	 * (see {@link FileIdentity}). Images with an XMP sidecar (see
+	 * {@link #setSidecarReadsEnabled(boolean)}) and requests for many images
+	 * at once are never coalesced.
+	 * <p/>
+	 * Default value is {@link #DEFAULT_COALESCE}.
+	 */
+	public void setCoalescingEnabled(boolean enabled) {
+		coalesce = enabled;
+	}
+
+	/**
+	 * @return <code>true</code> if requests for many images at once are
+	 *         split by directory and spread over several daemons.
+	 */
+	public boolean isDirectoryAffinityEnabled() {
+		return directoryAffinity;
+	}
+
+	/**
+	 * Used to enable scheduling requests for many images at once (see
+	 * {@link #getImageMetadata(List, PreparedQuery)} and the methods calling
+	 * it) by directory.
+	 * <p/>
+	 * While enabled, the images are grouped by their parent directory and
+	 * each group is sorted by inode number, then every group is sent to a
+	 * single daemon in batches of at most
+	 * {@link ScanOptions#DEFAULT_BATCH_SIZE} images, one after the other
+	 * (small directories are merged up to that many images). The
+	 * directories are spread over as many {@link Priority#BULK} daemons as are
+	 * free when the request starts: the calling Thread works through them
+	 * on its own daemon and is helped by one of the pool's own
+	 * {@link #BATCH_HELPER_THREAD_NAME} Threads per additional free daemon.
+	 * This way every daemon reads one directory at a time in the order its
+	 * files are laid out on disk instead of seeking all over it, which
+	 * matters most for archives on spinning disks or NFS.
+	 * <p/>
+	 * The result is still in the order of the given images.
+	 * <p/>
+	 * Default value is {@link #DEFAULT_DIRECTORY_AFFINITY}.
+	 */
+	public void setDirectoryAffinityEnabled(boolean enabled) {
+		directoryAffinity = enabled;
+	}
+
+	/**
+	 * @return the listener receiving timings and counts for this pool or
+	 *         <code>null</code> if there is none.
+	 */
+	public ExifToolMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Used to set a listener that receives the time callers waited for a
+	 * daemon, plus the timings and counts of every daemon already in the
+	 * pool and every daemon created from now on.
+	 * 
+	 * @param metrics
+	 *            The listener to use or <code>null</code> to stop reporting.
+	 * 
+	 * @see ExifTool#setMetrics(ExifToolMetrics)
+	 */
+	public void setMetrics(ExifToolMetrics metrics) {
+		synchronized (idle) {
+			this.metrics = metrics;
+
+			for (ExifTool tool : all)
+				tool.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * @return the total number of requests made through the daemons of this
+	 *         pool that failed with a {@link ExifTool.RequestTimeoutException}.
+	 */
+	public long getTimeoutCount() {
+		long count = 0;
+
+		synchronized (idle) {
+			for (ExifTool tool : all)
+				count += tool.getTimeoutCount();
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return the minimum number of daemons this pool keeps.
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maximum number of daemons this pool will run at once.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the maximum number of callers allowed to wait for a daemon.
+	 */
+	public int getMaxWaiting() {
+		return maxWaiting;
+	}
+
+	/**
+	 * @return the number of daemons currently owned by this pool, both idle
+	 *         and lent out.
+	 */
+	public int getSize() {
+		synchronized (idle) {
+			return all.size();
+		}
+	}
+
+	/**
+	 * @return the number of daemons currently sitting idle in the pool.
+	 */
+	public int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	/**
+	 * @return the maximum number of {@link Priority#BULK} callers allowed to
+	 *         wait for a daemon.
+	 */
+	public int getMaxBulkWaiting() {
+		return maxBulkWaiting;
+	}
+
+	/**
+	 * Used to set the maximum number of {@link Priority#BULK} callers allowed
+	 * to wait for a daemon before further bulk callers are rejected with a
+	 * {@link PoolSaturatedException}. Interactive callers are bounded by
+	 * {@link #getMaxWaiting()} independently.
+	 * <p/>
+	 * Default value is {@link #DEFAULT_MAX_BULK_WAITING}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxBulkWaiting</code> is less than <code>0</code>.
+	 */
+	public void setMaxBulkWaiting(int maxBulkWaiting)
+			throws IllegalArgumentException {
+		if (maxBulkWaiting < 0)
+			throw new IllegalArgumentException("maxBulkWaiting ["
+					+ maxBulkWaiting + "] must be >= 0");
+
+		this.maxBulkWaiting = maxBulkWaiting;
+	}
+
+	/**
+	 * @return the number of daemons {@link Priority#BULK} callers can never
+	 *         borrow.
+	 */
+	public int getInteractiveReserve() {
+		return interactiveReserve;
+	}
+
+	/**
+	 * Used to set the number of daemons that {@link Priority#BULK} callers
+	 * can never borrow, i.e. bulk callers hold at most
+	 * <code>maxSize - reserve</code> daemons at once and the rest are only
+	 * lent to {@link Priority#INTERACTIVE} callers. Interactive callers may
+	 * still borrow every daemon of the pool.
+	 * <p/>
+	 * Lowering the reserve lets waiting bulk callers proceed immediately;
+	 * raising it takes effect as bulk callers release their daemons.
+	 * <p/>
+	 * Default value is {@link #DEFAULT_INTERACTIVE_RESERVE}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>reserve</code> is less than <code>0</code> or not
+	 *             less than <code>maxSize</code>.
+	 */
+	public void setInteractiveReserve(int reserve)
+			throws IllegalArgumentException {
+		if (reserve < 0 || reserve >= maxSize)
+			throw new IllegalArgumentException("reserve [" + reserve
+					+ "] must be >= 0 and < maxSize [" + maxSize + "]");
+
+		synchronized (bulkPermits) {
+			int delta = interactiveReserve - reserve;
+			interactiveReserve = reserve;
+
+			if (delta > 0)
+				bulkPermits.release(delta);
+			else if (delta < 0)
+				bulkPermits.reducePermits(-delta);
+		}
+	}
+
+	/**
+	 * @return the number of callers currently waiting for a daemon, of any
+	 *         priority.
+	 */
+	public int getWaitingCount() {
+		return waiting.get() + bulkWaiting.get();
+	}
+
+	/**
+	 * @return the number of callers of the given priority currently waiting
+	 *         for a daemon.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>priority</code> is <code>null</code>.
+	 */
+	public int getWaitingCount(Priority priority)
+			throws IllegalArgumentException {
+		if (priority == null)
+			throw new IllegalArgumentException("priority cannot be null");
+
+		return (priority == Priority.BULK ? bulkWaiting : waiting).get();
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #close()} has been called on this
+	 *         pool.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Used to grab a permit only if one is free right now. The timed form of
+	 * <code>tryAcquire</code> is used on purpose, the untimed one barges ahead
+	 * of waiting callers even when the pool was created as fair.
+	 */
+	private static boolean tryAcquireNow(Semaphore semaphore)
+			throws InterruptedException {
+		return semaphore.tryAcquire(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Used to acquire the permit(s) a caller of the given priority needs to
+	 * take a daemon, waiting at most <code>timeout</code> nanoseconds (or as
+	 * long as necessary if negative).
+	 * <p/>
+	 * Bulk callers first take one of the bulk permits and then wait for a
+	 * daemon like everybody else, counted against the bulk wait queue the
+	 * whole time.
+	 * 
+	 * @return <code>true</code> if the permit(s) were acquired or
+	 *         <code>false</code> if the time ran out.
+	 */
+	private boolean acquire(Priority priority, long timeout)
+			throws InterruptedException, PoolSaturatedException {
+		if (priority == Priority.INTERACTIVE)
+			return acquire(permits, priority, timeout);
+
+		long deadline = System.nanoTime() + timeout;
+
+		if (!acquire(bulkPermits, priority, timeout))
+			return false;
+
+		boolean acquired = false;
+
+		try {
+			acquired = acquire(permits, priority, timeout < 0 ? -1 : Math
+					.max(0, deadline - System.nanoTime()));
+		} finally {
+			if (!acquired)
+				bulkPermits.release();
+		}
+
+		return acquired;
+	}
+
+	private boolean acquire(Semaphore semaphore, Priority priority,
+			long timeout) throws InterruptedException, PoolSaturatedException {
+		if (tryAcquireNow(semaphore))
+			return true;
+
+		AtomicInteger waiting = enterWaitQueue(priority);
+
+		try {
+			if (timeout < 0) {
+				semaphore.acquire();
+				return true;
+			}
+
+			return semaphore.tryAcquire(timeout, TimeUnit.NANOSECONDS);
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	private ExifTool borrowForRequest() throws IOException {
+		return borrowForRequest(Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Helper method used to run a batch query on a borrowed daemon, closing
+	 * the daemon if the request fails.
+	 */
+	private Map<File, ImageMetadata> getImageMetadata(ExifTool tool,
+			List<File> images, PreparedQuery query)
+			throws IllegalArgumentException, SecurityException, IOException {
+		/*
+		 * The batch call already splits hits from misses per image, so let
+		 * the borrowed daemon consult the pool's cache for the duration of
+		 * this call.
+		 */
+		tool.setMetadataCache(cache);
+
+		try {
+			return tool.getImageMetadata(images, query);
+		} catch (IOException e) {
+			tool.close();
+			throw e;
+		} finally {
+			tool.setMetadataCache(null);
+		}
+	}
+
+	/**
+	 * Helper method used to run a batch query split by directory (see
+	 * {@link #setDirectoryAffinityEnabled(boolean)}).
+	 * <p/>
+	 * The calling Thread borrows a daemon the usual way; helpers only take a
+	 * daemon that is free right away so they never queue up behind other
+	 * callers. Every worker takes whole runs of batches off a shared queue
+	 * until it is empty, so the batches a directory was cut into are all
+	 * read in order by the same daemon.
+	 */
+	private Map<File, ImageMetadata> getImageMetadataByDirectory(
+			List<File> images, final PreparedQuery query)
+			throws IllegalArgumentException, SecurityException, IOException {
+		for (File image : images)
+			if (image == null)
+				throw new IllegalArgumentException(
+						"images cannot contain a null image.");
+
+		List<List<List<File>>> runs = DirectoryBatches.split(images,
+				ScanOptions.DEFAULT_BATCH_SIZE);
+		final Queue<List<List<File>>> pending = new ConcurrentLinkedQueue<List<List<File>>>(
+				runs);
+		final Map<File, ImageMetadata> resultMap = new ConcurrentHashMap<File, ImageMetadata>(
+				images.size() * 2);
+
+		ExifTool tool = borrowForRequest(Priority.BULK);
+		List<CompletableFuture<Void>> helpers = new ArrayList<CompletableFuture<Void>>();
+
+		try {
+			while (helpers.size() < runs.size() - 1) {
+				final ExifTool helperTool = tryBorrowHelper();
+
+				if (helperTool == null)
+					break;
+
+				try {
+					helpers.add(CompletableFuture.runAsync(new Runnable() {
+						public void run() {
+							try {
+								drain(helperTool, pending, query, resultMap);
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							} finally {
+								release(helperTool);
+							}
+						}
+					}, batchHelpers));
+				} catch (RejectedExecutionException e) {
+					// The pool is being closed, finish on our own daemon.
+					release(helperTool);
+					break;
+				}
+			}
+
+			drain(tool, pending, query, resultMap);
+		} finally {
+			release(tool);
+
+			// Stop the helpers after their current run if we failed.
+			pending.clear();
+		}
+
+		for (CompletableFuture<Void> helper : helpers) {
+			try {
+				helper.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof UncheckedIOException)
+					throw ((UncheckedIOException) cause).getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+
+				throw e;
+			}
+		}
+
+		Map<File, ImageMetadata> orderedMap = new LinkedHashMap<File, ImageMetadata>(
+				resultMap.size() * 2);
+
+		for (File image : images) {
+			ImageMetadata metadata = resultMap.get(image);
+
+			if (metadata != null)
+				orderedMap.put(image, metadata);
+		}
+
+		return orderedMap;
+	}
+
+	/**
+	 * Helper method used to borrow a {@link Priority#BULK} daemon for a
+	 * helper only if one is free right now.
+	 * 
+	 * @return the daemon or <code>null</code> if none is free.
+	 */
+	private ExifTool tryBorrowHelper() {
+		try {
+			return borrow(Priority.BULK, 0, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (PoolSaturatedException e) {
+			// no-op, the calling Thread does the work on its own.
+		}
+
+		return null;
+	}
+
+	/**
+	 * Helper method used to query runs of batches from the given queue on the
+	 * given daemon until the queue is empty.
+	 */
+	private void drain(ExifTool tool, Queue<List<List<File>>> pending,
+			PreparedQuery query, Map<File, ImageMetadata> resultMap)
+			throws IOException {
+		List<List<File>> run;
+
+		while ((run = pending.poll()) != null)
+			for (List<File> batch : run)
+				resultMap.putAll(getImageMetadata(tool, batch, query));
+	}
+
+	/**
+	 * Helper method used to take one of the pool's permits for a request
+	 * that runs its own ExifTool process instead of a daemon. The permit must
+	 * be handed back with <code>permits.release()</code>.
+	 */
+	private void acquireForStream() throws IOException {
+		ensureOpen();
+
+		try {
+			acquire(Priority.INTERACTIVE, -1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(
+					"Interrupted while waiting for a permit from the pool.", e);
+		}
+	}
+
+	/**
+	 * Helper method used to create the non-daemon instance a request for
+	 * image data that isn't in a file runs on, set up like the pool's own
+	 * daemons.
+	 */
+	private ExifTool newStreamTool() {
+		ExifTool tool = new ExifTool();
+		tool.setRequestTimeout(requestTimeout, TimeUnit.MILLISECONDS);
+		tool.setMetrics(metrics);
+		return tool;
+	}
+
+	private ExifTool borrowForRequest(Priority priority) throws IOException {
+		try {
+			return borrow(priority);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(
+					"Interrupted while waiting for an ExifTool daemon from the pool.",
+					e);
+		}
+	}
+
+	/**
+	 * Used to answer a single image request either by joining a request for
+	 * the same image (identity and format) that is already in flight or by
+	 * leading a new one that later callers can join.
+	 * <p/>
+	 * The leader borrows a daemon and only then seals the flight, so every
+	 * caller that arrived while it was waiting for one is answered by the
+	 * same round trip, which queries the union of all their tags. Callers
+	 * arriving after that join only if the sealed tags cover theirs,
+	 * otherwise they lead a new flight.
+	 */
+	private ImageMetadata coalesce(File image, PreparedQuery query,
+			FileIdentity identity, MetadataCache cache) throws IOException {
+		Format format = query.getFormat();
+		Tag[] tags = query.tags();
+		FlightKey key = new FlightKey(identity, format);
+		Flight flight = new Flight(tags);
+
+		for (;;) {
+			Flight current = flights.putIfAbsent(key, flight);
+
+			if (current == null)
+				break;
+			if (current.join(tags))
+				return follow(current, image, tags);
+			if (flights.replace(key, current, flight))
+				break;
+		}
+
+		ImageMetadata metadata;
+
+		try {
+			ExifTool tool = borrowForRequest();
+			Tag[] union = flight.seal();
+
+			try {
+				metadata = tool.getImageMetadata(image,
+						union.length == tags.length ? query
+								: new PreparedQuery(format, union));
+			} catch (IOException e) {
+				tool.close();
+				throw e;
+			} finally {
+				release(tool);
+			}
+
+			if (cache != null)
+				cache.put(identity, format, union, metadata.toMap());
+		} catch (Throwable t) {
+			flights.remove(key, flight);
+			flight.result.completeExceptionally(t);
+			throw t;
+		}
+
+		flights.remove(key, flight);
+		flight.result.complete(metadata);
+
+		return metadata.select(image, tags);
+	}
+
+	/**
+	 * Used to wait for the result of a flight led by another caller and copy
+	 * out the tags the calling request asked for. A failed flight fails its
+	 * followers with the exact exception the leader got.
+	 */
+	private ImageMetadata follow(Flight flight, File image, Tag[] tags)
+			throws IOException {
+		ExifToolMetrics metrics = this.metrics;
+
+		if (metrics != null) {
+			try {
+				metrics.onCoalesced();
+			} catch (RuntimeException e) {
+				log("\tExifToolMetrics listener failed: %s", e);
+			}
+		}
+
+		try {
+			return flight.result.get().select(image, tags);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(
+					"Interrupted while waiting for a concurrent request for the same image.",
+					e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new IOException(cause);
+		}
+	}
+
+	private void ensureOpen() throws IllegalStateException {
+		if (closed)
+			throw new IllegalStateException("ExifToolPool has been closed");
+	}
+
+	/**
+	 * Used to register the caller as waiting for a daemon, enforcing the
+	 * bound on the wait queue of its priority.
+	 * 
+	 * @return the counter of the wait queue the caller was added to.
+	 */
+	private AtomicInteger enterWaitQueue(Priority priority)
+			throws PoolSaturatedException {
+		boolean bulk = (priority == Priority.BULK);
+		AtomicInteger waiting = (bulk ? bulkWaiting : this.waiting);
+		int limit = (bulk ? maxBulkWaiting : maxWaiting);
+
+		if (waiting.incrementAndGet() > limit) {
+			waiting.decrementAndGet();
+			throw new PoolSaturatedException(priority, limit);
+		}
+
+		return waiting;
+	}
+
+	/**
+	 * Used to take an idle daemon or create a new one once the caller holds a
+	 * permit. Because there are exactly <code>maxSize</code> permits, the
+	 * pool can never grow beyond <code>maxSize</code> daemons.
+	 * <p/>
+	 * The time since <code>startTime</code> is reported to the given listener
+	 * (if any) as the time the caller waited for the daemon.
+	 */
+	private ExifTool take(Priority priority, ExifToolMetrics metrics,
+			long startTime) throws IllegalStateException, RuntimeException {
+		boolean bulk = (priority == Priority.BULK);
+		ExifTool tool;
+
+		synchronized (idle) {
+			if (closed) {
+				releasePermits(bulk);
+				ensureOpen();
+			}
+
+			tool = idle.poll();
+		}
+
+		if (tool == null) {
+			try {
+				tool = create();
+			} catch (RuntimeException e) {
+				releasePermits(bulk);
+				throw e;
+			}
+		}
+
+		if (bulk) {
+			synchronized (idle) {
+				bulkLent.add(tool);
+			}
+		}
+
+		if (metrics != null) {
+			try {
+				metrics.onQueueWait(System.nanoTime() - startTime);
+			} catch (RuntimeException e) {
+				log("\tExifToolMetrics listener failed: %s", e);
+			}
+		}
+
+		return tool;
+	}
+
+	private void releasePermits(boolean bulk) {
+		permits.release();
+
+		if (bulk)
+			bulkPermits.release();
+	}
+
+	/**
+	 * Helper method used to start the daemon of the given instance and
+	 * {@link ExifTool#warmUp()} it.
+	 * <p/>
+	 * A failed warm-up request is only logged; the daemon is restarted by the
+	 * first real request, which then reports the problem to its caller.
+	 * 
+	 * @throws RuntimeException
+	 *             if the external ExifTool process could not be started.
+	 */
+	private static void warmUp(ExifTool tool) throws RuntimeException {
+		try {
+			tool.warmUp();
+		} catch (IOException e) {
+			log("\tFailed to warm up daemon: %s", e);
+		}
+	}
+
+	private ExifTool create() throws RuntimeException {
+		ExifTool tool = new ExifTool(features);
+		int size;
+
+		synchronized (idle) {
+			tool.setRequestTimeout(requestTimeout, TimeUnit.MILLISECONDS);
+			tool.setRecyclePolicy(recyclePolicy);
+			tool.setMetrics(metrics);
+			tool.setFastPathEnabled(fastPath);
+			tool.setSidecarWritesEnabled(sidecarWrites);
+			tool.setSidecarReadsEnabled(sidecarReads);
+			all.add(tool);
+			size = all.size();
+		}
+
+		log("\tCreated pooled ExifTool daemon instance (%d in pool).", size);
+		return tool;
+	}
+
+	private static Feature[] withStayOpen(Feature... features) {
+		if (features != null)
+			for (int i = 0; i < features.length; i++)
+				if (features[i] == Feature.STAY_OPEN)
+					return features.clone();
+
+		int length = (features == null ? 0 : features.length);
+		Feature[] result = new Feature[length + 1];
+
+		if (length > 0)
+			System.arraycopy(features, 0, result, 0, length);
+
+		result[length] = Feature.STAY_OPEN;
+		return result;
+	}
+
+	/**
+	 * Key of a request in flight: requests are only shared between callers
+	 * asking for the same state of the same image in the same format.
+	 */
+	private static final class FlightKey {
+		private final FileIdentity identity;
+		private final Format format;
+
+		FlightKey(FileIdentity identity, Format format) {
+			this.identity = identity;
+			this.format = format;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FlightKey))
+				return false;
+
+			FlightKey other = (FlightKey) obj;
+			return format == other.format && identity.equals(other.identity);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * identity.hashCode() + format.hashCode();
+		}
+	}
+
+	/**
+	 * A single image request in flight, shared by its leader and every
+	 * caller that joined it. The tags only grow until the leader seals them
+	 * right before sending the request.
+	 */
+	private static final class Flight {
+		private final EnumSet<Tag> tags = EnumSet.noneOf(Tag.class);
+		private final CompletableFuture<ImageMetadata> result = new CompletableFuture<ImageMetadata>();
+		private boolean sealed;
+
+		Flight(Tag[] tags) {
+			Collections.addAll(this.tags, tags);
+		}
+
+		synchronized boolean join(Tag[] tags) {
+			if (!sealed) {
+				Collections.addAll(this.tags, tags);
+				return true;
+			}
+
+			for (Tag tag : tags) {
+				if (!this.tags.contains(tag))
+					return false;
+			}
+
+			return true;
+		}
+
+		synchronized Tag[] seal() {
+			sealed = true;
+			return tags.toArray(new Tag[tags.size()]);
+		}
+	}
+
+	/**
+	 * Semaphore bounding the number of daemons lent to {@link Priority#BULK}
+	 * callers, whose number of permits can be lowered at runtime (see
+	 * {@link ExifToolPool#setInteractiveReserve(int)}).
+	 */
+	private static final class BulkPermits extends Semaphore {
+		private static final long serialVersionUID = -2931406478361023715L;
+
+		BulkPermits(int permits, boolean fair) {
+			super(permits, fair);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+
+	/**
+	 * Enum used to define the priority class of a caller borrowing a daemon,
+	 * see the class documentation of {@link ExifToolPool}.
+	 *
+	 * @since 1.2
+	 */
+	public enum Priority {
+		/**
+		 * Latency sensitive requests, e.g. for an image a user just uploaded;
+		 * may borrow every daemon of the pool.
+		 */
+		INTERACTIVE,
+		/**
+		 * Throughput oriented requests, e.g. re-indexing a whole library; can
+		 * never borrow the daemons reserved for interactive requests.
+		 */
+		BULK;
+	}
+
+	/**
+	 * Class used to define an exception that occurs when a caller asks the
+	 * pool for a daemon while the maximum number of callers of the same
+	 * {@link Priority} are already waiting for one.
+	 * <p/>
+	 * Failing fast in this scenario keeps an overloaded application from
+	 * queueing up an unbounded number of Threads behind the pool.
+	 *
+	 * @since 1.2
+	 */
+	public static class PoolSaturatedException extends RuntimeException {
+		private static final long serialVersionUID = 4512398760123846971L;
+
+		private Priority priority;
+		private int maxWaiting;
+
+		public PoolSaturatedException(int maxWaiting) {
+			this(Priority.INTERACTIVE, maxWaiting);
+		}
+
+		public PoolSaturatedException(Priority priority, int maxWaiting) {
+			super(
+					"All ExifTool daemons in the pool available to "
+							+ priority
+							+ " callers are in use and "
+							+ maxWaiting
+							+ " such caller(s) are already waiting for one; rejecting request. Increase the size of the pool or the maximum number of waiting callers if this happens under normal load.");
+
+			this.priority = priority;
+			this.maxWaiting = maxWaiting;
+		}
+
+		/**
+		 * @return the priority of the wait queue that was full.
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		public int getMaxWaiting() {
+			return maxWaiting;
+		}
+	}
+}
@@ -0,0 +1,684 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.DEBUG;
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to answer queries for a handful of the most commonly requested
+ * tags straight from the EXIF data of JPEG and TIFF images, without a round
+ * trip to the external ExifTool process.
+ * <p/>
+ * Only the JPEG marker headers and the EXIF (APP1) segment are read, the
+ * latter through a memory-mapped view of just that segment; for TIFF files
+ * the file is mapped and only the pages holding the IFDs are touched.
+ * <p/>
+ * The values returned are exactly what ExifTool prints for the same tags with
+ * {@link Format#NUMERIC} (<code>-n</code>), including the way it rounds and
+ * prints rational numbers and signs GPS coordinates. Whenever that cannot be
+ * guaranteed the reader gives up and returns <code>null</code>, so the caller
+ * falls back to ExifTool:
+ * <ul>
+ * <li>the file is not a JPEG or a <code>.tif</code>/<code>.tiff</code> TIFF
+ * (camera RAW formats are TIFF-based, but ExifTool reads them differently).</li>
+ * <li>the file carries XMP or Photoshop/IPTC data, whose values may take
+ * precedence over the EXIF ones in ExifTool's output.</li>
+ * <li>a requested tag is not in the EXIF data; ExifTool may still find it
+ * elsewhere (e.g. in the maker notes).</li>
+ * <li>a value is stored in an unexpected way (type, count, encoding) or the
+ * data is damaged.</li>
+ * </ul>
+ * 
+ * @since 1.2
+ */
+final class FastExifReader {
+	/**
+	 * The tags this class can answer.
+	 */
+	static final Set<Tag> SUPPORTED_TAGS = EnumSet.of(Tag.ORIENTATION,
+			Tag.ISO, Tag.IMAGE_WIDTH, Tag.IMAGE_HEIGHT, Tag.DATE_TIME_ORIGINAL,
+			Tag.MAKE, Tag.MODEL, Tag.GPS_LATITUDE, Tag.GPS_LATITUDE_REF,
+			Tag.GPS_LONGITUDE, Tag.GPS_LONGITUDE_REF, Tag.GPS_ALTITUDE,
+			Tag.GPS_ALTITUDE_REF);
+
+	/*
+	 * IFD entry tags.
+	 */
+	private static final int TAG_IMAGE_WIDTH = 0x0100;
+	private static final int TAG_IMAGE_HEIGHT = 0x0101;
+	private static final int TAG_MAKE = 0x010F;
+	private static final int TAG_MODEL = 0x0110;
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_XMP = 0x02BC;
+	private static final int TAG_IPTC = 0x83BB;
+	private static final int TAG_PHOTOSHOP = 0x8649;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_GPS_IFD = 0x8825;
+	private static final int TAG_ISO = 0x8827;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+	private static final int TAG_GPS_LATITUDE = 0x0002;
+	private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+	private static final int TAG_GPS_LONGITUDE = 0x0004;
+	private static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+	private static final int TAG_GPS_ALTITUDE = 0x0006;
+
+	/*
+	 * IFD entry types.
+	 */
+	private static final int TYPE_BYTE = 1;
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+	private static final int TYPE_RATIONAL = 5;
+
+	/**
+	 * Size in bytes of a single value of each IFD entry type (indexed by
+	 * type, 0 for unknown types).
+	 */
+	private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4,
+			8, 4, 8 };
+
+	/**
+	 * Maximum number of entries read from a single IFD and of JPEG segments
+	 * skipped, so damaged files can't keep us busy.
+	 */
+	private static final int MAX_ENTRIES = 1024;
+	private static final int MAX_SEGMENTS = 256;
+
+	private static final byte[] EXIF_ID = { 'E', 'x', 'i', 'f', 0, 0 };
+	private static final byte[] XMP_ID = ResponseReader
+			.toBytes("http://ns.adobe.com/");
+
+	/**
+	 * ExifTool reads rational values as <code>%.10g</code> and prints other
+	 * numbers as Perl does, i.e. <code>%.15g</code>.
+	 */
+	private static final MathContext RATIONAL_PRECISION = new MathContext(10,
+			RoundingMode.HALF_EVEN);
+	private static final MathContext NUMBER_PRECISION = new MathContext(15,
+			RoundingMode.HALF_EVEN);
+
+	/**
+	 * Thrown internally whenever the image can't be answered for certain.
+	 * Stack traces are never needed, so none are filled in.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Unsupported extends Exception {
+		private static final Unsupported INSTANCE = new Unsupported();
+
+		private Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private FastExifReader() {
+		// no-op
+	}
+
+	/**
+	 * Used to determine if every tag of the given query can be answered by
+	 * this class.
+	 */
+	static boolean supports(Format format, Tag[] tags) {
+		if (format != Format.NUMERIC)
+			return false;
+
+		for (int i = 0; i < tags.length; i++)
+			if (!SUPPORTED_TAGS.contains(tags[i]))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Used to read the given tags from the EXIF data of the given image.
+	 * <p/>
+	 * The caller must have checked the tags with
+	 * {@link #supports(Format, Tag[])} first.
+	 * 
+	 * @return the values found in {@link Format#NUMERIC} or
+	 *         <code>null</code> if the image must be queried with ExifTool
+	 *         instead.
+	 */
+	static ImageMetadata read(File image, Tag[] tags) {
+		try {
+			Map<Tag, String> values = decode(image);
+			ImageMetadata metadata = new ImageMetadata(image, Format.NUMERIC);
+
+			for (int i = 0; i < tags.length; i++) {
+				String value = values.get(tags[i]);
+
+				if (value == null)
+					throw Unsupported.INSTANCE;
+
+				metadata.put(tags[i], value);
+			}
+
+			return metadata;
+		} catch (Unsupported e) {
+			// Not for us, ExifTool knows.
+		} catch (IOException | RuntimeException e) {
+			// Damaged or unexpected data; ExifTool will report what's wrong.
+			if (DEBUG)
+				log("\tFast EXIF reader failed on %s: %s",
+						image.getAbsolutePath(), e);
+		}
+
+		return null;
+	}
+
+	private static Map<Tag, String> decode(File image) throws IOException,
+			Unsupported {
+		Map<Tag, String> values = new EnumMap<Tag, String>(Tag.class);
+
+		try (FileChannel channel = FileChannel.open(image.toPath(),
+				StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4);
+			readFully(channel, head, 0);
+
+			int magic = head.getShort(0) & 0xFFFF;
+
+			if (magic == 0xFFD8)
+				decodeJpeg(channel, values);
+			else if ((magic == 0x4949 || magic == 0x4D4D) && isTiffName(image)) {
+				ByteBuffer tiff = channel.map(MapMode.READ_ONLY, 0,
+						channel.size());
+				decodeTiff(tiff, values);
+			} else
+				throw Unsupported.INSTANCE;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			// Offsets pointing outside of the data.
+			throw Unsupported.INSTANCE;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Helper method used to walk the JPEG marker segments up to the start of
+	 * frame, decoding the EXIF segment on the way.
+	 */
+	private static void decodeJpeg(FileChannel channel, Map<Tag, String> values)
+			throws IOException, Unsupported {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		long pos = 2;
+		boolean exifFound = false;
+		boolean exifDimensions = false;
+
+		for (int i = 0; i < MAX_SEGMENTS; i++) {
+			header.clear();
+			readFully(channel, header, pos);
+
+			if ((header.get(0) & 0xFF) != 0xFF)
+				throw Unsupported.INSTANCE;
+
+			int marker = header.get(1) & 0xFF;
+			int length = header.getShort(2) & 0xFFFF;
+			long data = pos + 4;
+
+			if (marker == 0xDA || marker == 0xD9 || length < 2)
+				break;
+
+			if (isStartOfFrame(marker)) {
+				ByteBuffer frame = ByteBuffer.allocate(5);
+				readFully(channel, frame, data);
+
+				/*
+				 * Precision, then height and width (always big-endian). If
+				 * the EXIF data has its own, it is unclear which ExifTool
+				 * prints, so the dimensions are left to it.
+				 */
+				if (exifDimensions) {
+					values.remove(Tag.IMAGE_WIDTH);
+					values.remove(Tag.IMAGE_HEIGHT);
+				} else {
+					values.put(Tag.IMAGE_HEIGHT,
+							Integer.toString(frame.getShort(1) & 0xFFFF));
+					values.put(Tag.IMAGE_WIDTH,
+							Integer.toString(frame.getShort(3) & 0xFFFF));
+				}
+
+				/*
+				 * Everything ExifTool could prefer over the EXIF values comes
+				 * before the frame, so we are done.
+				 */
+				return;
+			}
+
+			if (marker == 0xE1 && length - 2 >= EXIF_ID.length) {
+				ByteBuffer segment = channel.map(MapMode.READ_ONLY, data,
+						length - 2);
+
+				if (startsWith(segment, EXIF_ID)) {
+					// Only the first EXIF segment counts.
+					if (!exifFound) {
+						segment.position(EXIF_ID.length);
+						exifDimensions = decodeTiff(segment.slice(), values);
+						exifFound = true;
+					}
+				} else if (startsWith(segment, XMP_ID))
+					throw Unsupported.INSTANCE;
+			} else if (marker == 0xED)
+				// Photoshop resources, including IPTC.
+				throw Unsupported.INSTANCE;
+
+			pos = data + length - 2;
+		}
+
+		// Never found the start of frame.
+		throw Unsupported.INSTANCE;
+	}
+
+	/**
+	 * Helper method used to decode the IFDs of the TIFF structure held by the
+	 * given buffer (positioned at its byte order mark).
+	 * 
+	 * @return <code>true</code> if IFD0 holds the image dimensions.
+	 */
+	private static boolean decodeTiff(ByteBuffer tiff, Map<Tag, String> values)
+			throws Unsupported {
+		int order = tiff.getShort(0) & 0xFFFF;
+
+		if (order == 0x4949)
+			tiff.order(ByteOrder.LITTLE_ENDIAN);
+		else if (order == 0x4D4D)
+			tiff.order(ByteOrder.BIG_ENDIAN);
+		else
+			throw Unsupported.INSTANCE;
+
+		if ((tiff.getShort(2) & 0xFFFF) != 42)
+			throw Unsupported.INSTANCE;
+
+		int ifd0 = offset(tiff, tiff.getInt(4));
+		boolean dimensions = false;
+		int exifIfd = -1;
+		int gpsIfd = -1;
+		int count = entryCount(tiff, ifd0);
+
+		for (int i = 0; i < count; i++) {
+			int entry = ifd0 + 2 + i * 12;
+
+			switch (tiff.getShort(entry) & 0xFFFF) {
+			case TAG_IMAGE_WIDTH:
+				dimensions = true;
+				values.put(Tag.IMAGE_WIDTH, integer(tiff, entry));
+				break;
+			case TAG_IMAGE_HEIGHT:
+				dimensions = true;
+				values.put(Tag.IMAGE_HEIGHT, integer(tiff, entry));
+				break;
+			case TAG_MAKE:
+				putString(values, Tag.MAKE, trimTrailingSpace(string(tiff,
+						entry)));
+				break;
+			case TAG_MODEL:
+				putString(values, Tag.MODEL, trimTrailingSpace(string(tiff,
+						entry)));
+				break;
+			case TAG_ORIENTATION:
+				values.put(Tag.ORIENTATION, integer(tiff, entry));
+				break;
+			case TAG_EXIF_IFD:
+				exifIfd = offset(tiff, (int) unsigned(tiff, entry));
+				break;
+			case TAG_GPS_IFD:
+				gpsIfd = offset(tiff, (int) unsigned(tiff, entry));
+				break;
+			case TAG_XMP:
+			case TAG_IPTC:
+			case TAG_PHOTOSHOP:
+				// Embedded the TIFF way, same as the JPEG segments above.
+				throw Unsupported.INSTANCE;
+			}
+		}
+
+		if (exifIfd != -1)
+			decodeExifIfd(tiff, exifIfd, values);
+
+		if (gpsIfd != -1)
+			decodeGpsIfd(tiff, gpsIfd, values);
+
+		return dimensions;
+	}
+
+	private static void decodeExifIfd(ByteBuffer tiff, int ifd,
+			Map<Tag, String> values) throws Unsupported {
+		int count = entryCount(tiff, ifd);
+
+		for (int i = 0; i < count; i++) {
+			int entry = ifd + 2 + i * 12;
+
+			switch (tiff.getShort(entry) & 0xFFFF) {
+			case TAG_ISO:
+				values.put(Tag.ISO, integer(tiff, entry));
+				break;
+			case TAG_DATE_TIME_ORIGINAL:
+				String date = string(tiff, entry);
+
+				// ExifTool cleans up odd dates; leave those to it.
+				if (date.length() != date.trim().length())
+					throw Unsupported.INSTANCE;
+
+				putString(values, Tag.DATE_TIME_ORIGINAL, date);
+				break;
+			}
+		}
+
+		/*
+		 * Canon's maker notes produce a Composite ISO that replaces this
+		 * one; all other makes leave it alone.
+		 */
+		String make = values.get(Tag.MAKE);
+
+		if (make != null && make.startsWith("Canon"))
+			values.remove(Tag.ISO);
+	}
+
+	private static void decodeGpsIfd(ByteBuffer tiff, int ifd,
+			Map<Tag, String> values) throws Unsupported {
+		int count = entryCount(tiff, ifd);
+		String latRef = null;
+		String lonRef = null;
+		Integer altRef = null;
+		double[] lat = null;
+		double[] lon = null;
+		double alt = Double.NaN;
+
+		for (int i = 0; i < count; i++) {
+			int entry = ifd + 2 + i * 12;
+
+			switch (tiff.getShort(entry) & 0xFFFF) {
+			case TAG_GPS_LATITUDE_REF:
+				latRef = string(tiff, entry);
+				break;
+			case TAG_GPS_LATITUDE:
+				lat = rationals(tiff, entry, 3);
+				break;
+			case TAG_GPS_LONGITUDE_REF:
+				lonRef = string(tiff, entry);
+				break;
+			case TAG_GPS_LONGITUDE:
+				lon = rationals(tiff, entry, 3);
+				break;
+			case TAG_GPS_ALTITUDE_REF:
+				altRef = Integer.valueOf(integer(tiff, entry));
+				break;
+			case TAG_GPS_ALTITUDE:
+				alt = rationals(tiff, entry, 1)[0];
+				break;
+			}
+		}
+
+		putString(values, Tag.GPS_LATITUDE_REF, latRef);
+		putString(values, Tag.GPS_LONGITUDE_REF, lonRef);
+
+		if (altRef != null)
+			values.put(Tag.GPS_ALTITUDE_REF, altRef.toString());
+
+		/*
+		 * The Composite tags ExifTool prints in place of the GPS ones are
+		 * negative in the southern/western hemisphere and below sea level.
+		 * Like ExifTool (/^S/i), the reference is matched ignoring case.
+		 */
+		if (lat != null)
+			values.put(Tag.GPS_LATITUDE, degrees(lat, startsWith(latRef, 'S')));
+
+		if (lon != null)
+			values.put(Tag.GPS_LONGITUDE, degrees(lon, startsWith(lonRef, 'W')));
+
+		if (!Double.isNaN(alt)) {
+			boolean below = (altRef != null && altRef.intValue() == 1);
+			values.put(Tag.GPS_ALTITUDE, format(below ? -alt : alt,
+					below ? NUMBER_PRECISION : RATIONAL_PRECISION));
+		}
+	}
+
+	/**
+	 * Helper method used to determine if the given GPS reference starts with
+	 * the given (upper case) letter in either case.
+	 */
+	private static boolean startsWith(String ref, char letter) {
+		return (ref != null && !ref.isEmpty() && Character.toUpperCase(ref
+				.charAt(0)) == letter);
+	}
+
+	/**
+	 * Helper method used to convert degrees, minutes and seconds the way
+	 * ExifTool's <code>ToDegrees</code> does.
+	 */
+	private static String degrees(double[] dms, boolean negative)
+			throws Unsupported {
+		double deg = dms[0] + (dms[1] + dms[2] / 60) / 60;
+
+		if (negative && deg != 0)
+			deg = -deg;
+
+		return format(deg, NUMBER_PRECISION);
+	}
+
+	/**
+	 * Helper method used to print a number like Perl's <code>%g</code> with
+	 * the given precision. Numbers <code>%g</code> would print with an
+	 * exponent are left to ExifTool.
+	 */
+	private static String format(double value, MathContext precision)
+			throws Unsupported {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			throw Unsupported.INSTANCE;
+		if (value == 0)
+			return "0";
+
+		BigDecimal rounded = new BigDecimal(value).round(precision);
+		int exponent = rounded.precision() - rounded.scale() - 1;
+
+		if (exponent < -4 || exponent >= precision.getPrecision())
+			throw Unsupported.INSTANCE;
+
+		return rounded.stripTrailingZeros().toPlainString();
+	}
+
+	private static int entryCount(ByteBuffer tiff, int ifd)
+			throws Unsupported {
+		int count = tiff.getShort(ifd) & 0xFFFF;
+
+		if (count > MAX_ENTRIES || ifd + 2 + count * 12 > tiff.limit())
+			throw Unsupported.INSTANCE;
+
+		return count;
+	}
+
+	private static int offset(ByteBuffer tiff, int offset) throws Unsupported {
+		if (offset < 8 || offset >= tiff.limit())
+			throw Unsupported.INSTANCE;
+
+		return offset;
+	}
+
+	/**
+	 * Helper method used to find where the value(s) of an entry are stored:
+	 * inline when they fit in 4 bytes, at the given offset otherwise.
+	 */
+	private static int valuePosition(ByteBuffer tiff, int entry, int size)
+			throws Unsupported {
+		if (size <= 4)
+			return entry + 8;
+
+		int pos = tiff.getInt(entry + 8);
+
+		if (pos < 0 || pos + size > tiff.limit())
+			throw Unsupported.INSTANCE;
+
+		return pos;
+	}
+
+	/**
+	 * Helper method used to read a single unsigned integer value.
+	 */
+	private static long unsigned(ByteBuffer tiff, int entry)
+			throws Unsupported {
+		if (tiff.getInt(entry + 4) != 1)
+			throw Unsupported.INSTANCE;
+
+		switch (tiff.getShort(entry + 2) & 0xFFFF) {
+		case TYPE_BYTE:
+			return tiff.get(entry + 8) & 0xFF;
+		case TYPE_SHORT:
+			return tiff.getShort(entry + 8) & 0xFFFF;
+		case TYPE_LONG:
+			return tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+		default:
+			throw Unsupported.INSTANCE;
+		}
+	}
+
+	private static String integer(ByteBuffer tiff, int entry)
+			throws Unsupported {
+		return Long.toString(unsigned(tiff, entry));
+	}
+
+	/**
+	 * Helper method used to read an ASCII value up to its first null, the
+	 * way ExifTool does. Anything that isn't printable ASCII is left to
+	 * ExifTool, which handles character sets.
+	 */
+	private static String string(ByteBuffer tiff, int entry)
+			throws Unsupported {
+		if ((tiff.getShort(entry + 2) & 0xFFFF) != TYPE_ASCII)
+			throw Unsupported.INSTANCE;
+
+		int count = tiff.getInt(entry + 4);
+
+		if (count < 0 || count > 0xFFFF)
+			throw Unsupported.INSTANCE;
+
+		int pos = valuePosition(tiff, entry, count);
+		StringBuilder sb = new StringBuilder(count);
+
+		for (int i = 0; i < count; i++) {
+			int b = tiff.get(pos + i) & 0xFF;
+
+			if (b == 0)
+				break;
+			if (b < 0x20 || b > 0x7E)
+				throw Unsupported.INSTANCE;
+
+			sb.append((char) b);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Helper method used to read <code>count</code> unsigned rationals,
+	 * rounded to 10 significant digits as ExifTool does when reading them.
+	 */
+	private static double[] rationals(ByteBuffer tiff, int entry, int count)
+			throws Unsupported {
+		if ((tiff.getShort(entry + 2) & 0xFFFF) != TYPE_RATIONAL
+				|| tiff.getInt(entry + 4) != count)
+			throw Unsupported.INSTANCE;
+
+		int pos = valuePosition(tiff, entry, count
+				* TYPE_SIZES[TYPE_RATIONAL]);
+		double[] result = new double[count];
+
+		for (int i = 0; i < count; i++) {
+			long numerator = tiff.getInt(pos + i * 8) & 0xFFFFFFFFL;
+			long denominator = tiff.getInt(pos + i * 8 + 4) & 0xFFFFFFFFL;
+
+			// ExifTool prints "inf" and "undef" for these.
+			if (denominator == 0)
+				throw Unsupported.INSTANCE;
+
+			double value = (double) numerator / denominator;
+			result[i] = (value == 0 ? 0 : new BigDecimal(value).round(
+					RATIONAL_PRECISION).doubleValue());
+		}
+
+		return result;
+	}
+
+	private static String trimTrailingSpace(String value) {
+		int end = value.length();
+
+		while (end > 0 && value.charAt(end - 1) == ' ')
+			end--;
+
+		return value.substring(0, end);
+	}
+
+	/**
+	 * Helper method used to store a string value; empty values are skipped
+	 * just like {@link ExifTool} skips them in its output.
+	 */
+	private static void putString(Map<Tag, String> values, Tag tag,
+			String value) {
+		if (value != null && !value.isEmpty())
+			values.put(tag, value);
+	}
+
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4
+				&& marker != 0xC8 && marker != 0xCC;
+	}
+
+	private static boolean isTiffName(File image) {
+		String name = image.getName().toLowerCase();
+		return name.endsWith(".tif") || name.endsWith(".tiff");
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+		if (buffer.remaining() < prefix.length)
+			return false;
+
+		for (int i = 0; i < prefix.length; i++)
+			if (buffer.get(buffer.position() + i) != prefix[i])
+				return false;
+
+		return true;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException, Unsupported {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+
+			if (read < 0)
+				throw Unsupported.INSTANCE;
+		}
+	}
+}
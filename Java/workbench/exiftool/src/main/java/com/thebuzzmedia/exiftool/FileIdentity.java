@@ -0,0 +1,194 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Class used to capture the identity of a file on disk at a given moment:
+ * its canonical path, size, last-modified time and (where the host OS
+ * exposes one) inode number.
+ * <p/>
+ * Two identities for the same path are only equal if none of those
+ * attributes changed in between, which makes this class a safe key for
+ * caching anything derived from the file's contents, like the tag values
+ * returned by ExifTool. A file that is rewritten, replaced or moved in place
+ * ends up with a different identity and so never matches stale cached data.
+ * <p/>
+ * Instances of this class are immutable and Thread-safe.
+ *
+ * @since 1.2
+ */
+public final class FileIdentity {
+	/**
+	 * Value reported by {@link #getInode()} when the host file system does
+	 * not expose inode numbers (e.g. Windows).
+	 */
+	public static final long UNKNOWN_INODE = -1;
+
+	/**
+	 * Flag used to remember if the default file system supports the
+	 * "<code>unix</code>" attribute view so we don't keep paying for the
+	 * {@link UnsupportedOperationException} on hosts that don't.
+	 */
+	private static volatile boolean unixViewSupported = true;
+
+	/**
+	 * Used to read the current identity of the given file.
+	 * <p/>
+	 * All attributes are read with a single call to the file system.
+	 *
+	 * @param file
+	 *            The file to read the identity of.
+	 *
+	 * @return the current identity of the file.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 * @throws IOException
+	 *             if the file does not exist or its attributes cannot be
+	 *             read.
+	 */
+	public static FileIdentity of(File file) throws IllegalArgumentException,
+			IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		String canonicalPath = file.getCanonicalPath();
+		Path path = file.toPath();
+
+		if (unixViewSupported) {
+			try {
+				Map<String, Object> attrs = Files.readAttributes(path,
+						"unix:size,lastModifiedTime,ino");
+
+				return new FileIdentity(canonicalPath,
+						((Long) attrs.get("size")).longValue(),
+						((FileTime) attrs.get("lastModifiedTime")).toMillis(),
+						((Long) attrs.get("ino")).longValue());
+			} catch (UnsupportedOperationException e) {
+				unixViewSupported = false;
+			}
+		}
+
+		BasicFileAttributes attrs = Files.readAttributes(path,
+				BasicFileAttributes.class);
+
+		return new FileIdentity(canonicalPath, attrs.size(), attrs
+				.lastModifiedTime().toMillis(), UNKNOWN_INODE);
+	}
+
+	/**
+	 * Used to read just the inode number of the given file, e.g. to order
+	 * files the way they are laid out on disk.
+	 *
+	 * @return the inode number of the file or {@link #UNKNOWN_INODE} if the
+	 *         host file system does not expose one or it cannot be read.
+	 */
+	static long inodeOf(Path path) {
+		if (!unixViewSupported)
+			return UNKNOWN_INODE;
+
+		try {
+			return ((Long) Files.getAttribute(path, "unix:ino")).longValue();
+		} catch (UnsupportedOperationException e) {
+			unixViewSupported = false;
+		} catch (IOException e) {
+			// Missing or unreadable; ExifTool will report it.
+		}
+
+		return UNKNOWN_INODE;
+	}
+
+	private final String path;
+	private final long size;
+	private final long lastModified;
+	private final long inode;
+
+	public FileIdentity(String path, long size, long lastModified, long inode)
+			throws IllegalArgumentException {
+		if (path == null)
+			throw new IllegalArgumentException("path cannot be null");
+
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.inode = inode;
+	}
+
+	/**
+	 * @return the canonical path of the file.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the last-modified time of the file in milliseconds since the
+	 *         epoch.
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the inode number of the file or {@link #UNKNOWN_INODE} if the
+	 *         host file system does not expose one.
+	 */
+	public long getInode() {
+		return inode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof FileIdentity))
+			return false;
+
+		FileIdentity other = (FileIdentity) obj;
+		return size == other.size && lastModified == other.lastModified
+				&& inode == other.inode && path.equals(other.path);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = path.hashCode();
+		result = 31 * result + (int) (size ^ (size >>> 32));
+		result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+		result = 31 * result + (int) (inode ^ (inode >>> 32));
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "FileIdentity [path=" + path + ", size=" + size
+				+ ", lastModified=" + lastModified + ", inode=" + inode + "]";
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link ExifToolMetrics} implementation that records every timing in
+ * a {@link LatencyHistogram} and every event in a counter, for a monitoring
+ * system to poll (or to simply print with {@link #toString()}).
+ * <p/>
+ * One instance is meant to be shared by all the {@link ExifTool} instances
+ * (or the {@link ExifToolPool}) being monitored, for example:
+ * 
+ * <pre>
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * pool.setMetrics(metrics);
+ * ...
+ * long p99 = metrics.getProcessTimes().getValueAtPercentile(99);
+ * </pre>
+ * 
+ * Instances of this class are Thread-safe.
+ * 
+ * @since 1.2
+ */
+public class HistogramMetrics implements ExifToolMetrics {
+	private final LatencyHistogram queueWaitTimes = new LatencyHistogram();
+	private final LatencyHistogram writeTimes = new LatencyHistogram();
+	private final LatencyHistogram processTimes = new LatencyHistogram();
+	private final LatencyHistogram parseTimes = new LatencyHistogram();
+
+	private final LongAdder images = new LongAdder();
+	private final LongAdder tagsRequested = new LongAdder();
+	private final LongAdder tagsFound = new LongAdder();
+	private final LongAdder spawns = new LongAdder();
+	private final LongAdder restarts = new LongAdder();
+	private final LongAdder cleanups = new LongAdder();
+	private final LongAdder recycles = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	@Override
+	public void onQueueWait(long nanos) {
+		queueWaitTimes.record(nanos);
+	}
+
+	@Override
+	public void onRequest(int images, int tagsRequested, int tagsFound,
+			long writeNanos, long processNanos, long parseNanos) {
+		this.images.add(images);
+		this.tagsRequested.add(tagsRequested);
+		this.tagsFound.add(tagsFound);
+
+		writeTimes.record(writeNanos);
+		processTimes.record(processNanos);
+		parseTimes.record(parseNanos);
+	}
+
+	@Override
+	public void onProcessStart(boolean daemon) {
+		spawns.increment();
+	}
+
+	@Override
+	public void onRestart() {
+		restarts.increment();
+	}
+
+	@Override
+	public void onCleanup() {
+		cleanups.increment();
+	}
+
+	@Override
+	public void onRecycle() {
+		recycles.increment();
+	}
+
+	@Override
+	public void onTimeout() {
+		timeouts.increment();
+	}
+
+	@Override
+	public void onCoalesced() {
+		coalesced.increment();
+	}
+
+	/**
+	 * @return the time (in nanoseconds) callers waited for a pooled daemon.
+	 */
+	public LatencyHistogram getQueueWaitTimes() {
+		return queueWaitTimes;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) spent writing requests; the number
+	 *         of values recorded is the number of requests completed.
+	 */
+	public LatencyHistogram getWriteTimes() {
+		return writeTimes;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) ExifTool took to start answering.
+	 */
+	public LatencyHistogram getProcessTimes() {
+		return processTimes;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) spent reading and parsing responses.
+	 */
+	public LatencyHistogram getParseTimes() {
+		return parseTimes;
+	}
+
+	public long getRequestCount() {
+		return writeTimes.getCount();
+	}
+
+	public long getImageCount() {
+		return images.sum();
+	}
+
+	public long getTagsRequested() {
+		return tagsRequested.sum();
+	}
+
+	public long getTagsFound() {
+		return tagsFound.sum();
+	}
+
+	public long getProcessStarts() {
+		return spawns.sum();
+	}
+
+	public long getRestarts() {
+		return restarts.sum();
+	}
+
+	public long getCleanups() {
+		return cleanups.sum();
+	}
+
+	public long getRecycles() {
+		return recycles.sum();
+	}
+
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Used to forget everything recorded so far, e.g. after each time the
+	 * values were reported.
+	 */
+	public void reset() {
+		queueWaitTimes.reset();
+		writeTimes.reset();
+		processTimes.reset();
+		parseTimes.reset();
+
+		images.reset();
+		tagsRequested.reset();
+		tagsFound.reset();
+		spawns.reset();
+		restarts.reset();
+		cleanups.reset();
+		recycles.reset();
+		timeouts.reset();
+		coalesced.reset();
+	}
+
+	/**
+	 * @return a one-line summary with the mean, 50th and 99th percentile of
+	 *         every timing in microseconds.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(256);
+
+		sb.append("HistogramMetrics [requests=").append(getRequestCount())
+				.append(", images=").append(getImageCount())
+				.append(", tagsFound=").append(getTagsFound()).append('/')
+				.append(getTagsRequested()).append(", processStarts=")
+				.append(getProcessStarts()).append(", restarts=")
+				.append(getRestarts()).append(", cleanups=")
+				.append(getCleanups()).append(", recycles=")
+				.append(getRecycles()).append(", timeouts=")
+				.append(getTimeouts()).append(", coalesced=")
+				.append(getCoalesced());
+
+		append(sb, "queueWait", queueWaitTimes);
+		append(sb, "write", writeTimes);
+		append(sb, "process", processTimes);
+		append(sb, "parse", parseTimes);
+
+		return sb.append(']').toString();
+	}
+
+	private static void append(StringBuilder sb, String name,
+			LatencyHistogram histogram) {
+		sb.append(", ").append(name).append("Micros=[mean=")
+				.append(toMicros((long) histogram.getMean())).append(", p50=")
+				.append(toMicros(histogram.getValueAtPercentile(50)))
+				.append(", p99=")
+				.append(toMicros(histogram.getValueAtPercentile(99)))
+				.append(']');
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Class used to send image data that is not in a file to an external ExifTool
+ * process reading it from standard input (<code>-</code>).
+ * <p/>
+ * ExifTool only needs the part of an image that holds its metadata. For JPEG
+ * images that is every segment in front of the compressed image data (the
+ * start of scan, or SOS, marker), which is all ExifTool reads when run with
+ * <code>-fast</code> anyway; so only that prefix is copied and the rest of
+ * the stream is never read, often saving megabytes of copying per image.
+ * Every other format is copied as a whole, up to the point ExifTool stops
+ * reading.
+ * <p/>
+ * This class is not Thread-safe; each request uses its own instance.
+ * 
+ * @since 1.2
+ */
+final class ImageHeader {
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * JPEG markers (the byte following <code>0xFF</code>).
+	 */
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int TEM = 0x01;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	/**
+	 * Used to read the remaining bytes of the given buffer as a stream,
+	 * without changing its position.
+	 */
+	static InputStream asStream(ByteBuffer data) {
+		final ByteBuffer source = data.duplicate();
+
+		return new InputStream() {
+			@Override
+			public int read() {
+				return (source.hasRemaining() ? source.get() & 0xFF : -1);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0)
+					return 0;
+				if (!source.hasRemaining())
+					return -1;
+
+				len = Math.min(len, source.remaining());
+				source.get(b, off, len);
+				return len;
+			}
+
+			@Override
+			public int available() {
+				return source.remaining();
+			}
+		};
+	}
+
+	private final InputStream in;
+	private final RequestWriter out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private long sent;
+	private boolean stopped;
+
+	/**
+	 * Creates a copier reading the image from <code>in</code> and writing it
+	 * to the standard input of an ExifTool process through <code>out</code>.
+	 */
+	ImageHeader(InputStream in, RequestWriter out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Used to copy the part of the image ExifTool needs and close the
+	 * process's standard input.
+	 * <p/>
+	 * ExifTool closing its end of the pipe early (because it has read all it
+	 * wants) is not an error; copying just stops there.
+	 * 
+	 * @return the number of bytes ExifTool accepted.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs reading from the image stream.
+	 */
+	long copy() throws IOException {
+		try {
+			int length = read(2);
+
+			if (length == 2 && (buffer[0] & 0xFF) == 0xFF
+					&& (buffer[1] & 0xFF) == SOI) {
+				send(2);
+				copySegments();
+			} else {
+				send(length);
+
+				if (length == 2)
+					copyAll();
+			}
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// no-op, ExifTool already stopped reading.
+			}
+		}
+
+		return sent;
+	}
+
+	/**
+	 * Used to copy JPEG segments up to and including the SOS header, or the
+	 * end of the image, whichever comes first.
+	 * <p/>
+	 * Anything that doesn't look like a well-formed marker stops the walk and
+	 * the rest of the stream is copied as-is, leaving it to ExifTool to make
+	 * sense of.
+	 */
+	private void copySegments() throws IOException {
+		while (!stopped) {
+			int length = read(2);
+
+			if (length < 2 || (buffer[0] & 0xFF) != 0xFF) {
+				send(length);
+
+				if (length == 2)
+					copyAll();
+
+				return;
+			}
+
+			int marker = buffer[1] & 0xFF;
+
+			// Skip (but keep) any fill bytes in front of the marker.
+			while (marker == 0xFF) {
+				send(1);
+
+				if (read(1) < 1) {
+					send(1);
+					return;
+				}
+
+				buffer[1] = buffer[0];
+				buffer[0] = (byte) 0xFF;
+				marker = buffer[1] & 0xFF;
+			}
+
+			send(2);
+
+			if (marker == EOI)
+				return;
+			if (marker == TEM || (marker >= RST0 && marker <= RST7))
+				continue;
+
+			length = read(2);
+			send(length);
+
+			if (length < 2)
+				return;
+
+			int segmentLength = ((buffer[0] & 0xFF) << 8) | (buffer[1] & 0xFF);
+
+			if (segmentLength < 2) {
+				copyAll();
+				return;
+			}
+
+			if (!copyBytes(segmentLength - 2) || marker == SOS)
+				return;
+		}
+	}
+
+	/**
+	 * Used to copy everything left in the stream.
+	 */
+	private void copyAll() throws IOException {
+		int length;
+
+		while (!stopped && (length = in.read(buffer)) != -1)
+			send(length);
+	}
+
+	/**
+	 * Used to copy exactly <code>count</code> bytes.
+	 * 
+	 * @return <code>false</code> if the stream ended first.
+	 */
+	private boolean copyBytes(int count) throws IOException {
+		while (count > 0 && !stopped) {
+			int length = in.read(buffer, 0, Math.min(count, buffer.length));
+
+			if (length == -1)
+				return false;
+
+			send(length);
+			count -= length;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Used to read up to <code>count</code> bytes into the start of the
+	 * buffer, stopping short only at the end of the stream.
+	 * 
+	 * @return the number of bytes read.
+	 */
+	private int read(int count) throws IOException {
+		int length = 0;
+
+		while (length < count) {
+			int read = in.read(buffer, length, count - length);
+
+			if (read == -1)
+				break;
+
+			length += read;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Used to send bytes from the start of the buffer to ExifTool,
+	 * remembering if it stopped reading so the rest of the copy can be
+	 * skipped.
+	 */
+	private void send(int length) {
+		if (stopped || length <= 0)
+			return;
+
+		try {
+			out.writeDirect(buffer, 0, length);
+			sent += length;
+		} catch (IOException e) {
+			stopped = true;
+		}
+	}
+}
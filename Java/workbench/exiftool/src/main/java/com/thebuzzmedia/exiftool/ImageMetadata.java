@@ -0,0 +1,552 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to hold the tag values ExifTool returned for a single image in
+ * a compact, typed form.
+ * <p/>
+ * Values are stored in arrays indexed by {@link Tag#ordinal()} rather than in
+ * a {@link Map}, so there are no hash entries or boxed keys per value. Numeric
+ * accessors like {@link #getInt(Tag)} and {@link #getDouble(Tag)} parse the
+ * value the first time it is asked for and remember the primitive result, so
+ * repeated access never re-parses and never boxes. This makes a big
+ * difference in heap use when the metadata for large batches of images is
+ * kept around in memory.
+ * <p/>
+ * Just like the maps returned by
+ * {@link ExifTool#getImageMeta(File, Format, Tag...)}, tags without a value in
+ * the image are absent (see {@link #has(Tag)}). Numeric accessors only make
+ * sense for values returned in {@link Format#NUMERIC} format; values returned
+ * in {@link Format#HUMAN_READABLE} format are often not plain numbers (e.g.
+ * "1/60").
+ * <p/>
+ * For tags a {@link PreparedQuery} asked for in both formats, the value in
+ * the other format is available from {@link #getString(Tag, Format)}; every
+ * other accessor works with the values in {@link #getFormat()}.
+ * <p/>
+ * Instances of this class are effectively immutable once returned to the
+ * caller and can be shared between Threads; at worst a numeric value is
+ * parsed more than once if two Threads ask for it at the same time.
+ * 
+ * @since 1.2
+ */
+public class ImageMetadata {
+	private static final Tag[] TAGS = Tag.values();
+
+	// Flags tracking which primitive forms of a value have been parsed.
+	private static final int PARSED_LONG = 0x01;
+	private static final int PARSED_DOUBLE = 0x02;
+	private static final int INVALID_LONG = 0x04;
+	private static final int INVALID_DOUBLE = 0x08;
+
+	private final File file;
+	private final Format format;
+	private final String[] values;
+
+	private int size;
+	private List<String> errors = Collections.emptyList();
+
+	// Allocated on the first value in the other format only.
+	private String[] alternates;
+
+	// Allocated on first numeric access only.
+	private volatile Parsed parsed;
+
+	/**
+	 * Creates an empty result for the given image.
+	 * 
+	 * @param file
+	 *            The image the values were read from, may be <code>null</code>
+	 *            if the values didn't come from a file.
+	 * @param format
+	 *            The format the values were returned in.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> is <code>null</code>.
+	 */
+	public ImageMetadata(File file, Format format)
+			throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+
+		this.file = file;
+		this.format = format;
+		this.values = new String[TAGS.length];
+	}
+
+	/**
+	 * Creates a result for the given image holding the values of the given
+	 * {@link Map}.
+	 * 
+	 * @param file
+	 *            The image the values were read from, may be <code>null</code>
+	 *            if the values didn't come from a file.
+	 * @param format
+	 *            The format the values were returned in.
+	 * @param valueMap
+	 *            The values to hold.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> or <code>valueMap</code> is
+	 *             <code>null</code>.
+	 */
+	public ImageMetadata(File file, Format format, Map<Tag, String> valueMap)
+			throws IllegalArgumentException {
+		this(file, format);
+
+		if (valueMap == null)
+			throw new IllegalArgumentException("valueMap cannot be null");
+
+		for (Map.Entry<Tag, String> entry : valueMap.entrySet())
+			put(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * @return the image the values were read from or <code>null</code> if
+	 *         they didn't come from a file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the format the values were returned in.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the number of tags that have a value.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if none of the queried tags had a value.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Used to determine if the given tag has a value in the image.
+	 * 
+	 * @param tag
+	 *            The tag to check.
+	 * 
+	 * @return <code>true</code> if the tag has a value.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> is <code>null</code>.
+	 */
+	public boolean has(Tag tag) throws IllegalArgumentException {
+		if (tag == null)
+			throw new IllegalArgumentException("tag cannot be null");
+
+		return values[tag.ordinal()] != null;
+	}
+
+	/**
+	 * Used to get the value of the given tag exactly as ExifTool returned it.
+	 * 
+	 * @param tag
+	 *            The tag whose value will be returned.
+	 * 
+	 * @return the value of the tag or <code>null</code> if it has no value.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> is <code>null</code>.
+	 */
+	public String getString(Tag tag) throws IllegalArgumentException {
+		if (tag == null)
+			throw new IllegalArgumentException("tag cannot be null");
+
+		return values[tag.ordinal()];
+	}
+
+	/**
+	 * Used to get the value of the given tag in the given format, which is
+	 * only available in the format other than {@link #getFormat()} for tags
+	 * the {@link PreparedQuery} asked for in both formats.
+	 * 
+	 * @param tag
+	 *            The tag whose value will be returned.
+	 * @param format
+	 *            The format of the value to return.
+	 * 
+	 * @return the value of the tag in the given format or <code>null</code>
+	 *         if it has no value in that format.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> or <code>format</code> is
+	 *             <code>null</code>.
+	 * 
+	 * @see PreparedQuery#PreparedQuery(Format, Tag[], Tag[])
+	 */
+	public String getString(Tag tag, Format format)
+			throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+		if (format == this.format)
+			return getString(tag);
+		if (tag == null)
+			throw new IllegalArgumentException("tag cannot be null");
+
+		return (alternates == null ? null : alternates[tag.ordinal()]);
+	}
+
+	/**
+	 * Used to get the value of the given tag as an <code>int</code>.
+	 * 
+	 * @param tag
+	 *            The tag whose value will be returned.
+	 * 
+	 * @return the value of the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> is <code>null</code>.
+	 * @throws NoSuchElementException
+	 *             if the tag has no value.
+	 * @throws NumberFormatException
+	 *             if the value is not an integer that fits in an
+	 *             <code>int</code>.
+	 */
+	public int getInt(Tag tag) throws IllegalArgumentException,
+			NoSuchElementException, NumberFormatException {
+		long value = getLong(tag);
+
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new NumberFormatException("Value of tag " + tag
+					+ " is out of range for an int: " + value);
+
+		return (int) value;
+	}
+
+	/**
+	 * Used to get the value of the given tag as an <code>int</code> or the
+	 * given default if the tag has no value.
+	 * 
+	 * @throws NumberFormatException
+	 *             if the tag has a value that is not an integer that fits in
+	 *             an <code>int</code>.
+	 * 
+	 * @see #getInt(Tag)
+	 */
+	public int getInt(Tag tag, int defaultValue)
+			throws IllegalArgumentException, NumberFormatException {
+		return (has(tag) ? getInt(tag) : defaultValue);
+	}
+
+	/**
+	 * Used to get the value of the given tag as a <code>long</code>.
+	 * 
+	 * @param tag
+	 *            The tag whose value will be returned.
+	 * 
+	 * @return the value of the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> is <code>null</code>.
+	 * @throws NoSuchElementException
+	 *             if the tag has no value.
+	 * @throws NumberFormatException
+	 *             if the value is not an integer.
+	 */
+	public long getLong(Tag tag) throws IllegalArgumentException,
+			NoSuchElementException, NumberFormatException {
+		int index = indexOf(tag);
+		Parsed parsed = parsed();
+		int state = parsed.state.get(index);
+
+		if ((state & PARSED_LONG) == 0) {
+			if ((state & INVALID_LONG) != 0)
+				throw notNumeric(tag, "an integer");
+
+			try {
+				parsed.longs[index] = Long.parseLong(values[index]);
+				parsed.flag(index, PARSED_LONG);
+			} catch (NumberFormatException e) {
+				parsed.flag(index, INVALID_LONG);
+				throw notNumeric(tag, "an integer");
+			}
+		}
+
+		return parsed.longs[index];
+	}
+
+	/**
+	 * Used to get the value of the given tag as a <code>long</code> or the
+	 * given default if the tag has no value.
+	 * 
+	 * @throws NumberFormatException
+	 *             if the tag has a value that is not an integer.
+	 * 
+	 * @see #getLong(Tag)
+	 */
+	public long getLong(Tag tag, long defaultValue)
+			throws IllegalArgumentException, NumberFormatException {
+		return (has(tag) ? getLong(tag) : defaultValue);
+	}
+
+	/**
+	 * Used to get the value of the given tag as a <code>double</code>.
+	 * 
+	 * @param tag
+	 *            The tag whose value will be returned.
+	 * 
+	 * @return the value of the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>tag</code> is <code>null</code>.
+	 * @throws NoSuchElementException
+	 *             if the tag has no value.
+	 * @throws NumberFormatException
+	 *             if the value is not a number.
+	 */
+	public double getDouble(Tag tag) throws IllegalArgumentException,
+			NoSuchElementException, NumberFormatException {
+		int index = indexOf(tag);
+		Parsed parsed = parsed();
+		int state = parsed.state.get(index);
+
+		if ((state & PARSED_DOUBLE) == 0) {
+			if ((state & INVALID_DOUBLE) != 0)
+				throw notNumeric(tag, "a number");
+
+			try {
+				parsed.doubles[index] = Double.parseDouble(values[index]);
+				parsed.flag(index, PARSED_DOUBLE);
+			} catch (NumberFormatException e) {
+				parsed.flag(index, INVALID_DOUBLE);
+				throw notNumeric(tag, "a number");
+			}
+		}
+
+		return parsed.doubles[index];
+	}
+
+	/**
+	 * Used to get the value of the given tag as a <code>double</code> or the
+	 * given default if the tag has no value.
+	 * 
+	 * @throws NumberFormatException
+	 *             if the tag has a value that is not a number.
+	 * 
+	 * @see #getDouble(Tag)
+	 */
+	public double getDouble(Tag tag, double defaultValue)
+			throws IllegalArgumentException, NumberFormatException {
+		return (has(tag) ? getDouble(tag) : defaultValue);
+	}
+
+	/**
+	 * Used to get the error and warning messages ExifTool wrote to standard
+	 * error while reading this image (e.g.
+	 * "<code>Warning: [minor] Bad MakerNotes offset - photo.jpg</code>"),
+	 * exactly as ExifTool printed them.
+	 * <p/>
+	 * Values read from the cache have no messages.
+	 * 
+	 * @return an unmodifiable list of the messages, empty if there were none.
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return <code>true</code> if ExifTool wrote any error or warning
+	 *         messages while reading this image.
+	 */
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	/**
+	 * Used to copy the values into a {@link Map} in the same form returned by
+	 * {@link ExifTool#getImageMeta(File, Format, Tag...)}.
+	 * 
+	 * @return a new, modifiable {@link Map} of every tag with a value.
+	 */
+	public Map<Tag, String> toMap() {
+		return toMap(values);
+	}
+
+	private Map<Tag, String> toMap(String[] values) {
+		Map<Tag, String> valueMap = new HashMap<Tag, String>(size * 2);
+
+		for (int i = 0; i < values.length; i++)
+			if (values[i] != null)
+				valueMap.put(TAGS[i], values[i]);
+
+		return valueMap;
+	}
+
+	@Override
+	public String toString() {
+		return "ImageMetadata [file=" + file + ", format=" + format
+				+ ", values=" + toMap()
+				+ (alternates == null ? "" : ", alternates="
+						+ toMap(alternates))
+				+ (errors.isEmpty() ? "" : ", errors=" + errors) + "]";
+	}
+
+	/**
+	 * Used by the parsing code to record the messages ExifTool wrote to
+	 * standard error for this image.
+	 */
+	void setErrors(List<String> errors) {
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * Used to copy every value of the given result into this one, replacing
+	 * values already held for the same tags.
+	 */
+	void putAll(ImageMetadata other) {
+		for (int i = 0; i < other.values.length; i++) {
+			if (other.values[i] != null)
+				put(TAGS[i], other.values[i]);
+			if (other.alternates != null && other.alternates[i] != null)
+				putAlternate(TAGS[i], other.alternates[i]);
+		}
+	}
+
+	/**
+	 * Used to create a copy of this result for the given image holding only
+	 * the values of the given tags (plus every error message), e.g. to hand
+	 * each caller sharing one request just the tags it asked for.
+	 */
+	ImageMetadata select(File file, Tag[] tags) {
+		ImageMetadata copy = new ImageMetadata(file, format);
+
+		for (Tag tag : tags) {
+			String value = values[tag.ordinal()];
+
+			if (value != null)
+				copy.put(tag, value);
+			if (alternates != null && alternates[tag.ordinal()] != null)
+				copy.putAlternate(tag, alternates[tag.ordinal()]);
+		}
+
+		copy.errors = errors;
+		return copy;
+	}
+
+	/**
+	 * Used by the parsing code to record a value as it is read.
+	 */
+	void put(Tag tag, String value) {
+		int index = tag.ordinal();
+
+		if (values[index] == null)
+			size++;
+
+		values[index] = value;
+
+		Parsed parsed = this.parsed;
+
+		if (parsed != null)
+			parsed.state.set(index, 0);
+	}
+
+	/**
+	 * Used by the parsing code to record a value in the format other than
+	 * {@link #getFormat()}.
+	 */
+	void putAlternate(Tag tag, String value) {
+		if (alternates == null)
+			alternates = new String[TAGS.length];
+
+		alternates[tag.ordinal()] = value;
+	}
+
+	private int indexOf(Tag tag) throws IllegalArgumentException,
+			NoSuchElementException {
+		if (tag == null)
+			throw new IllegalArgumentException("tag cannot be null");
+
+		int index = tag.ordinal();
+
+		if (values[index] == null)
+			throw new NoSuchElementException("Tag " + tag
+					+ " has no value in image " + file);
+
+		return index;
+	}
+
+	/**
+	 * Helper method used to get the parsed numeric values, allocating them on
+	 * first use. Two Threads racing here may each allocate a copy, in which
+	 * case the values parsed into the copy that loses are simply parsed again.
+	 */
+	private Parsed parsed() {
+		Parsed parsed = this.parsed;
+
+		if (parsed == null) {
+			parsed = new Parsed(values.length);
+			this.parsed = parsed;
+		}
+
+		return parsed;
+	}
+
+	private NumberFormatException notNumeric(Tag tag, String kind) {
+		return new NumberFormatException("Value of tag " + tag + " ["
+				+ values[tag.ordinal()] + "] is not " + kind
+				+ ". Numeric values are only returned in Format.NUMERIC.");
+	}
+
+	/**
+	 * Class used to hold the primitive forms of the values parsed so far.
+	 * <p/>
+	 * A value is always stored before the flag saying it was parsed, and the
+	 * flags are read and written with volatile semantics, so a Thread that
+	 * sees the flag also sees the value.
+	 */
+	private static final class Parsed {
+		private final AtomicIntegerArray state;
+		private final long[] longs;
+		private final double[] doubles;
+
+		private Parsed(int length) {
+			state = new AtomicIntegerArray(length);
+			longs = new long[length];
+			doubles = new double[length];
+		}
+
+		private void flag(int index, int flag) {
+			int current;
+
+			do {
+				current = state.get(index);
+			} while (!state.compareAndSet(index, current, current | flag));
+		}
+	}
+}
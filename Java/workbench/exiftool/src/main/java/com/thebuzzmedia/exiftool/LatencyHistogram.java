@@ -0,0 +1,180 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class used to record a distribution of non-negative values (typically
+ * latencies in nanoseconds) in a fixed amount of memory, in the spirit of an
+ * HDR histogram.
+ * <p/>
+ * Values are counted in buckets whose width grows with the magnitude of the
+ * value, so every value is kept with a relative error of at most 1/64 (about
+ * 1.6%) whether it is 500ns or 5 minutes. Recording a value is a handful of
+ * bit operations and one atomic increment, with no allocation and no locks.
+ * <p/>
+ * Instances of this class are Thread-safe. Reads made while other Threads
+ * record values see a consistent-enough view for monitoring, but are not an
+ * atomic snapshot.
+ * 
+ * @since 1.2
+ */
+public final class LatencyHistogram {
+	/*
+	 * Values below 2^SUB_BITS+1 get a bucket each; above that every power of
+	 * two range is split into 2^SUB_BITS equal buckets.
+	 */
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int LINEAR_COUNT = SUB_COUNT << 1;
+	private static final int BUCKET_COUNT = LINEAR_COUNT
+			+ (63 - SUB_BITS - 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Used to record a single value.
+	 * 
+	 * @param value
+	 *            The value to record; negative values are recorded as
+	 *            <code>0</code>.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+
+		while (value > (current = max.get()))
+			if (max.compareAndSet(current, value))
+				break;
+	}
+
+	/**
+	 * @return the number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the largest value recorded (exact) or <code>0</code> if none
+	 *         were.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded (exact) or <code>0</code> if
+	 *         none were.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0 ? 0 : (double) sum.get() / n);
+	}
+
+	/**
+	 * Used to get the value below or at which the given percentage of all
+	 * recorded values fall, e.g. <code>99</code> for the 99th percentile.
+	 * 
+	 * @param percentile
+	 *            The percentile, between <code>0</code> and <code>100</code>.
+	 * 
+	 * @return the highest value that is equivalent (within the precision of
+	 *         this histogram) to the value at the given percentile, never
+	 *         more than {@link #getMax()}, or <code>0</code> if no values
+	 *         were recorded.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>percentile</code> is not between <code>0</code>
+	 *             and <code>100</code>.
+	 */
+	public long getValueAtPercentile(double percentile)
+			throws IllegalArgumentException {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile [" + percentile
+					+ "] must be between 0 and 100");
+
+		long total = count.get();
+
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), max.get());
+		}
+
+		// Values recorded while we were counting.
+		return max.get();
+	}
+
+	/**
+	 * Used to forget all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean="
+				+ (long) getMean() + ", p50=" + getValueAtPercentile(50)
+				+ ", p99=" + getValueAtPercentile(99) + ", p999="
+				+ getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+	}
+
+	private static int indexOf(long value) {
+		if (value < LINEAR_COUNT)
+			return (int) value;
+
+		// Shift so the top SUB_BITS+1 bits remain: [SUB_COUNT, 2*SUB_COUNT).
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+
+		return LINEAR_COUNT + (shift - 1) * SUB_COUNT
+				+ (int) (value >>> shift) - SUB_COUNT;
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < LINEAR_COUNT)
+			return index;
+
+		int shift = (index - LINEAR_COUNT) / SUB_COUNT + 1;
+		long mantissa = (index - LINEAR_COUNT) % SUB_COUNT + SUB_COUNT;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
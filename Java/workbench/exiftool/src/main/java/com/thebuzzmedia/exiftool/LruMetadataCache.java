@@ -0,0 +1,321 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * In-memory {@link MetadataCache} that evicts the least-recently-used entries
+ * once it holds more than a maximum number of entries or more than a maximum
+ * total weight.
+ * <p/>
+ * The weight of an entry is an estimate of the number of bytes of heap it
+ * occupies (the path, the values and the bookkeeping around them), which
+ * lets the cache be bounded by memory use rather than just entry count when
+ * some images carry far more metadata than others.
+ * <p/>
+ * Each image gets one entry per {@link Format}, which accumulates the values
+ * of every tag queried from it so far. An entry is invalidated automatically
+ * the first time it is looked up with a {@link FileIdentity} that no longer
+ * matches the one it was stored with.
+ * <p/>
+ * Instances of this class are Thread-safe.
+ * 
+ * @since 1.2
+ */
+public class LruMetadataCache implements MetadataCache {
+	/**
+	 * Estimated fixed cost (in bytes) of a cache entry, not counting the
+	 * characters of its path or values.
+	 */
+	protected static final int ENTRY_OVERHEAD = 256;
+
+	/**
+	 * Estimated fixed cost (in bytes) of a single cached value, not counting
+	 * its characters.
+	 */
+	protected static final int VALUE_OVERHEAD = 48;
+
+	private final int maxEntries;
+	private final long maxWeight;
+
+	private final LinkedHashMap<Key, Entry> entryMap;
+
+	private long weight;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long invalidationCount;
+
+	/**
+	 * Creates a cache bounded only by the number of entries it holds.
+	 * 
+	 * @param maxEntries
+	 *            The maximum number of entries to hold.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxEntries</code> is less than <code>1</code>.
+	 */
+	public LruMetadataCache(int maxEntries) throws IllegalArgumentException {
+		this(maxEntries, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a cache bounded by both the number of entries it holds and
+	 * their total estimated weight.
+	 * 
+	 * @param maxEntries
+	 *            The maximum number of entries to hold.
+	 * @param maxWeight
+	 *            The maximum total weight (estimated bytes) of all entries.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxEntries</code> or <code>maxWeight</code> is
+	 *             less than <code>1</code>.
+	 */
+	public LruMetadataCache(int maxEntries, long maxWeight)
+			throws IllegalArgumentException {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries [" + maxEntries
+					+ "] must be >= 1");
+		if (maxWeight < 1)
+			throw new IllegalArgumentException("maxWeight [" + maxWeight
+					+ "] must be >= 1");
+
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+
+		// Access-ordered so iteration starts at the least-recently-used entry.
+		entryMap = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	}
+
+	public synchronized Map<Tag, String> get(FileIdentity identity,
+			Format format, Tag... tags) {
+		Key key = new Key(identity.getPath(), format);
+		Entry entry = entryMap.get(key);
+
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+
+		// The file changed since it was cached, the values are stale.
+		if (!entry.identity.equals(identity)) {
+			entryMap.remove(key);
+			weight -= entry.weight;
+			invalidationCount++;
+			missCount++;
+
+			ExifTool.log("\tInvalidated cache entry for changed file: %s",
+					identity.getPath());
+			return null;
+		}
+
+		for (int i = 0; i < tags.length; i++) {
+			if (!entry.queried.contains(tags[i])) {
+				missCount++;
+				return null;
+			}
+		}
+
+		hitCount++;
+
+		Map<Tag, String> resultMap = new HashMap<Tag, String>(
+				tags.length * 3);
+
+		for (int i = 0; i < tags.length; i++) {
+			String value = entry.values.get(tags[i]);
+
+			if (value != null)
+				resultMap.put(tags[i], value);
+		}
+
+		return resultMap;
+	}
+
+	public synchronized void put(FileIdentity identity, Format format,
+			Tag[] tags, Map<Tag, String> values) {
+		Key key = new Key(identity.getPath(), format);
+		Entry entry = entryMap.get(key);
+
+		if (entry != null && !entry.identity.equals(identity)) {
+			entryMap.remove(key);
+			weight -= entry.weight;
+			invalidationCount++;
+			entry = null;
+		}
+
+		if (entry == null) {
+			entry = new Entry(identity);
+			entryMap.put(key, entry);
+		} else
+			weight -= entry.weight;
+
+		for (int i = 0; i < tags.length; i++)
+			entry.queried.add(tags[i]);
+
+		entry.values.putAll(values);
+		entry.weight = weigh(entry);
+		weight += entry.weight;
+
+		evict();
+	}
+
+	public synchronized void remove(String path) {
+		Format[] formats = Format.values();
+
+		for (int i = 0; i < formats.length; i++) {
+			Entry entry = entryMap.remove(new Key(path, formats[i]));
+
+			if (entry != null) {
+				weight -= entry.weight;
+				invalidationCount++;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entryMap.clear();
+		weight = 0;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of entries dropped to stay within the configured
+	 *         bounds.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of entries dropped because the file they were read
+	 *         from changed or was explicitly removed.
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	/**
+	 * @return the number of entries currently held.
+	 */
+	public synchronized int getSize() {
+		return entryMap.size();
+	}
+
+	/**
+	 * @return the total estimated weight (bytes) of the entries currently
+	 *         held.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LruMetadataCache [size=" + entryMap.size() + ", weight="
+				+ weight + ", hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + ", invalidations="
+				+ invalidationCount + "]";
+	}
+
+	/**
+	 * Used to drop least-recently-used entries until the cache is back within
+	 * both of its bounds.
+	 */
+	private void evict() {
+		Iterator<Entry> entries = entryMap.values().iterator();
+
+		while ((entryMap.size() > maxEntries || weight > maxWeight)
+				&& entries.hasNext()) {
+			Entry eldest = entries.next();
+			entries.remove();
+
+			weight -= eldest.weight;
+			evictionCount++;
+		}
+	}
+
+	private static long weigh(Entry entry) {
+		long result = ENTRY_OVERHEAD + 2L * entry.identity.getPath().length();
+
+		for (String value : entry.values.values())
+			result += VALUE_OVERHEAD + 2L * value.length();
+
+		return result;
+	}
+
+	private static class Key {
+		private final String path;
+		private final Format format;
+
+		public Key(String path, Format format) {
+			this.path = path;
+			this.format = format;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return format == other.format && path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * path.hashCode() + format.hashCode();
+		}
+	}
+
+	private static class Entry {
+		private final FileIdentity identity;
+		private final EnumSet<Tag> queried;
+		private final EnumMap<Tag, String> values;
+
+		private long weight;
+
+		public Entry(FileIdentity identity) {
+			this.identity = identity;
+			this.queried = EnumSet.noneOf(Tag.class);
+			this.values = new EnumMap<Tag, String>(Tag.class);
+		}
+	}
+}
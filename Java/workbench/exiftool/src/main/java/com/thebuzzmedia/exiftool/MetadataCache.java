@@ -0,0 +1,106 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.util.Map;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Interface used to define a cache of tag values previously returned by
+ * ExifTool that {@link ExifTool} and {@link ExifToolPool} consult before
+ * making a round trip to the external process.
+ * <p/>
+ * Entries are keyed by the {@link FileIdentity} of the image they were read
+ * from and the {@link Format} they were returned in. Implementations must
+ * treat an entry whose stored identity no longer matches the identity being
+ * looked up (i.e. the file was modified, replaced or resized since) as a miss
+ * and drop it, so callers never see stale values.
+ * <p/>
+ * Because a cache is typically shared by every Thread using a pool of
+ * daemons, implementations must be Thread-safe.
+ * 
+ * @since 1.2
+ * 
+ * @see LruMetadataCache
+ */
+public interface MetadataCache {
+	/**
+	 * Used to look up previously cached values for the given tags.
+	 * <p/>
+	 * This is only a hit if every one of the requested tags was queried from
+	 * the same identity and format before, tags that were queried but had no
+	 * value in the image count as answered.
+	 * 
+	 * @param identity
+	 *            The current identity of the image.
+	 * @param format
+	 *            The format the values must be in.
+	 * @param tags
+	 *            The tags being requested.
+	 * 
+	 * @return a new {@link Map} holding the cached values for the requested
+	 *         tags (omitting tags without a value, same as ExifTool) or
+	 *         <code>null</code> if this is a miss.
+	 */
+	public Map<Tag, String> get(FileIdentity identity, Format format,
+			Tag... tags);
+
+	/**
+	 * Used to record the result of querying the given tags from an image.
+	 * <p/>
+	 * Results for the same identity and format are merged with what is already
+	 * cached, so a later request for any subset of all the tags queried so far
+	 * is a hit.
+	 * 
+	 * @param identity
+	 *            The identity of the image at the time it was queried.
+	 * @param format
+	 *            The format the values were returned in.
+	 * @param tags
+	 *            The tags that were queried.
+	 * @param values
+	 *            The values ExifTool returned for those tags.
+	 */
+	public void put(FileIdentity identity, Format format, Tag[] tags,
+			Map<Tag, String> values);
+
+	/**
+	 * Used to drop everything cached for the image at the given canonical
+	 * path, in every format.
+	 * 
+	 * @param path
+	 *            The canonical path of the image (see
+	 *            {@link FileIdentity#getPath()}).
+	 */
+	public void remove(String path);
+
+	/**
+	 * Used to drop every entry in the cache.
+	 */
+	public void clear();
+
+	/**
+	 * @return the number of lookups that were answered from the cache.
+	 */
+	public long getHitCount();
+
+	/**
+	 * @return the number of lookups that could not be answered from the cache.
+	 */
+	public long getMissCount();
+}
@@ -0,0 +1,830 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * {@link MetadataCache} backed by a file on disk so cached tag values survive
+ * restarts of the VM.
+ * <p/>
+ * A service that restarts would otherwise have to run ExifTool over its whole
+ * media library again; with this cache, any image whose
+ * {@link FileIdentity} is unchanged since it was last queried is answered
+ * straight from disk without ever starting an ExifTool process.
+ * <h3>Storage</h3>
+ * The store is an append-only log of records. Every {@link #put} appends a
+ * record holding the identity of the image, the tags queried and the values
+ * found, and every {@link #remove(String)} appends a tombstone; nothing is
+ * ever rewritten in place, so a crash can at worst lose the record that was
+ * being appended (a checksum on every record lets a torn write be detected
+ * and discarded the next time the store is opened).
+ * <p/>
+ * Only a small index (path and format to file offset) is held on the heap.
+ * Values are decoded on demand from memory-mapped segments of the store,
+ * which leaves caching of the hot parts of the file to the OS page cache.
+ * <h3>Compaction</h3>
+ * Superseded records and tombstones are garbage that accumulates over time.
+ * Once garbage makes up more than half of a store larger than
+ * {@link #COMPACTION_MIN_BYTES}, the store is compacted automatically by
+ * copying only the live records to a new file and atomically swapping it in.
+ * Compaction can also be triggered explicitly with {@link #compact()}.
+ * <p/>
+ * Call {@link #close()} when done with the cache to flush everything to disk
+ * and release the file.
+ * <h3>Windows</h3>
+ * Java offers no way to unmap a segment; a mapping is only released once it
+ * is garbage collected, and until then Windows refuses to delete, truncate or
+ * replace the file. On Windows {@link #clear()} may therefore fall back to
+ * appending a tombstone for every entry, a torn record may be left in place
+ * (to be overwritten by the next append) and {@link #compact()} may fail,
+ * leaving the uncompacted store in use. The cache keeps working in all of
+ * these cases.
+ * <p/>
+ * Instances of this class are Thread-safe, but a given store must only be
+ * opened by one instance (and one VM) at a time.
+ * 
+ * @since 1.2
+ */
+public class PersistentMetadataCache implements MetadataCache {
+	/**
+	 * Magic number written at the start of every store, used to make sure we
+	 * never treat some unrelated file as a cache and append to it.
+	 */
+	protected static final int MAGIC = 0x45544331; // "ETC1"
+
+	/**
+	 * Minimum size (in bytes) a store needs to reach before it is considered
+	 * for automatic compaction, so small stores aren't rewritten constantly.
+	 */
+	public static final long COMPACTION_MIN_BYTES = 1024 * 1024;
+
+	/**
+	 * Largest record (in bytes) this cache will store. Results for images
+	 * whose metadata doesn't fit are simply not cached.
+	 */
+	protected static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	/**
+	 * Size (in bytes) of each memory-mapped segment of the store. Segments
+	 * are mapped with {@link #MAX_RECORD_SIZE} bytes of overlap so any record
+	 * can always be read from the single segment it starts in.
+	 */
+	protected static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int HEADER_SIZE = 4;
+	private static final int RECORD_HEADER_SIZE = 8; // length + crc
+
+	private static final byte TYPE_ENTRY = 1;
+	private static final byte TYPE_REMOVE = 2;
+
+	private final File file;
+
+	private FileChannel channel;
+	private List<MappedByteBuffer> segments;
+
+	private Map<Key, Long> indexMap;
+	private long fileSize;
+	private long liveBytes;
+
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * Creates a cache backed by the given file, creating the file if it does
+	 * not exist yet or loading the index of the entries it holds if it does.
+	 * 
+	 * @param file
+	 *            The file used to store the cache.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 * @throws IOException
+	 *             if the file cannot be opened or exists but is not a cache
+	 *             store.
+	 */
+	public PersistentMetadataCache(File file) throws IllegalArgumentException,
+			IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		this.file = file;
+		open();
+	}
+
+	public synchronized Map<Tag, String> get(FileIdentity identity,
+			Format format, Tag... tags) {
+		Key key = new Key(identity.getPath(), format);
+		Record record = read(key);
+
+		if (record == null) {
+			missCount++;
+			return null;
+		}
+
+		// The file changed since it was cached, the values are stale.
+		if (!record.identity.equals(identity)) {
+			removeQuietly(identity.getPath());
+			missCount++;
+			return null;
+		}
+
+		for (int i = 0; i < tags.length; i++) {
+			if (!record.queried.contains(tags[i])) {
+				missCount++;
+				return null;
+			}
+		}
+
+		hitCount++;
+
+		Map<Tag, String> resultMap = new HashMap<Tag, String>(
+				tags.length * 3);
+
+		for (int i = 0; i < tags.length; i++) {
+			String value = record.values.get(tags[i]);
+
+			if (value != null)
+				resultMap.put(tags[i], value);
+		}
+
+		return resultMap;
+	}
+
+	public synchronized void put(FileIdentity identity, Format format,
+			Tag[] tags, Map<Tag, String> values) {
+		Key key = new Key(identity.getPath(), format);
+		Record record = read(key);
+
+		// Merge with what we already know about an unchanged file.
+		if (record == null || !record.identity.equals(identity))
+			record = new Record(identity, format);
+
+		for (int i = 0; i < tags.length; i++)
+			record.queried.add(tags[i]);
+
+		record.values.putAll(values);
+
+		try {
+			byte[] body = encode(record);
+
+			if (body.length + RECORD_HEADER_SIZE > MAX_RECORD_SIZE) {
+				log("\tNot caching %d byte record for: %s",
+						body.length, identity.getPath());
+				return;
+			}
+
+			Long previous = indexMap.get(key);
+
+			if (previous != null)
+				liveBytes -= recordSize(previous.longValue());
+
+			long offset = append(body);
+			indexMap.put(key, Long.valueOf(offset));
+			liveBytes += body.length + RECORD_HEADER_SIZE;
+
+			compactIfNeeded();
+		} catch (UTFDataFormatException e) {
+			// no-op, a value too large to encode is simply not cached.
+		} catch (IOException e) {
+			log("\tUnable to append to metadata cache %s: %s",
+					file.getAbsolutePath(), e);
+		}
+	}
+
+	public synchronized void remove(String path) {
+		removeQuietly(path);
+	}
+
+	public synchronized void clear() {
+		try {
+			closeChannel();
+
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				log("\tUnable to delete metadata cache %s, removing every entry instead: %s",
+						file.getAbsolutePath(), e);
+			}
+
+			open();
+
+			// Only left with entries if the store couldn't be deleted.
+			if (!indexMap.isEmpty()) {
+				List<String> paths = new ArrayList<String>();
+
+				for (Key key : indexMap.keySet())
+					paths.add(key.path);
+
+				for (String path : paths)
+					removeQuietly(path);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to clear metadata cache "
+					+ file.getAbsolutePath(), e);
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of live entries in the store.
+	 */
+	public synchronized int getSize() {
+		return indexMap.size();
+	}
+
+	/**
+	 * @return the current size of the store on disk, in bytes.
+	 */
+	public synchronized long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * @return the number of bytes in the store taken up by live records.
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Used to force everything appended so far out to the storage device.
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be flushed.
+	 */
+	public synchronized void flush() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Used to rewrite the store so it only holds live records, reclaiming the
+	 * space taken up by superseded records and tombstones.
+	 * <p/>
+	 * The live records are copied to a temporary file next to the store which
+	 * then atomically replaces it, so the store is never left half-written.
+	 * Where the file system can't move atomically the copy replaces the store
+	 * with a plain move instead. If the store can't be replaced at all, the
+	 * cache carries on with the uncompacted store.
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be rewritten.
+	 */
+	public synchronized void compact() throws IOException {
+		File tmpFile = new File(file.getPath() + ".compact");
+
+		log("Compacting metadata cache %s [fileSize=%d, liveBytes=%d]...",
+				file.getAbsolutePath(), fileSize, liveBytes);
+
+		Map<Key, Long> newIndexMap = new HashMap<Key, Long>(
+				indexMap.size() * 2);
+		FileChannel out = FileChannel.open(tmpFile.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).flip();
+			writeFully(out, header);
+
+			long position = HEADER_SIZE;
+
+			for (Entry<Key, Long> entry : indexMap.entrySet()) {
+				ByteBuffer record = slice(entry.getValue().longValue());
+				int length = record.remaining();
+
+				writeFully(out, record);
+				newIndexMap.put(entry.getKey(), Long.valueOf(position));
+				position += length;
+			}
+
+			out.force(true);
+		} finally {
+			out.close();
+		}
+
+		closeChannel();
+
+		boolean moved = false;
+
+		try {
+			moveStore(tmpFile.toPath(), file.toPath());
+			moved = true;
+		} finally {
+			/*
+			 * If the store could not be replaced it is still intact and so is
+			 * the index pointing into it; carry on with it instead of leaving
+			 * the cache without a file.
+			 */
+			if (!moved) {
+				log("\tUnable to replace metadata cache %s, keeping the uncompacted store.",
+						file.getAbsolutePath());
+				Files.deleteIfExists(tmpFile.toPath());
+			}
+
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			segments = new ArrayList<MappedByteBuffer>();
+		}
+
+		indexMap = newIndexMap;
+		fileSize = channel.size();
+		liveBytes = fileSize - HEADER_SIZE;
+
+		log("\tCompaction complete [fileSize=%d].", fileSize);
+	}
+
+	/**
+	 * Used to swap the compacted copy of the store in for the store itself,
+	 * atomically where the file system supports it.
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be replaced.
+	 */
+	void moveStore(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Used to flush the store to disk and release the file. The cache must
+	 * not be used after it has been closed.
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be flushed or closed.
+	 */
+	public synchronized void close() throws IOException {
+		if (channel == null)
+			return;
+
+		try {
+			channel.force(false);
+		} finally {
+			closeChannel();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PersistentMetadataCache [file=" + file.getAbsolutePath()
+				+ ", size=" + indexMap.size() + ", fileSize=" + fileSize
+				+ ", liveBytes=" + liveBytes + ", hits=" + hitCount
+				+ ", misses=" + missCount + "]";
+	}
+
+	/**
+	 * Used to open the store and rebuild the in-memory index by scanning
+	 * every record in it. A torn record at the end of the store (from a crash
+	 * mid-append) is truncated away.
+	 */
+	private void open() throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segments = new ArrayList<MappedByteBuffer>();
+		indexMap = new HashMap<Key, Long>();
+		fileSize = channel.size();
+		liveBytes = 0;
+
+		if (fileSize == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).flip();
+			writeFully(channel, header, 0);
+			fileSize = HEADER_SIZE;
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		if (channel.read(header, 0) != HEADER_SIZE
+				|| header.getInt(0) != MAGIC) {
+			closeChannel();
+			throw new IOException("File [" + file.getAbsolutePath()
+					+ "] is not an ExifTool metadata cache store.");
+		}
+
+		long offset = HEADER_SIZE;
+
+		while (offset < fileSize) {
+			ByteBuffer record;
+
+			try {
+				record = slice(offset);
+			} catch (EOFException e) {
+				record = null;
+			}
+
+			if (record == null || !isValid(record) || !scan(record, offset)) {
+				log("\tDiscarding torn record at offset %d of metadata cache %s",
+						offset, file.getAbsolutePath());
+
+				/*
+				 * Appends start at fileSize and overwrite whatever is left
+				 * behind if the file can't be truncated, and anything past
+				 * the last good record is discarded again on the next open.
+				 */
+				try {
+					channel.truncate(offset);
+				} catch (IOException e) {
+					log("\tUnable to truncate metadata cache %s: %s",
+							file.getAbsolutePath(), e);
+				}
+
+				fileSize = offset;
+				segments.clear();
+				break;
+			}
+
+			offset += record.remaining();
+		}
+
+		log("Opened metadata cache %s [entries=%d, fileSize=%d, liveBytes=%d]",
+				file.getAbsolutePath(), indexMap.size(), fileSize, liveBytes);
+	}
+
+	/**
+	 * Helper method used to apply a record read while opening the store to
+	 * the in-memory index.
+	 * <p/>
+	 * A record that passes the CRC check but can't be decoded is treated as
+	 * torn as well, so whatever is wrong with the end of the store never
+	 * keeps it from opening.
+	 * 
+	 * @return <code>false</code> if the record cannot be decoded.
+	 */
+	private boolean scan(ByteBuffer record, long offset) {
+		int length = record.remaining();
+		ByteBuffer body = record.duplicate();
+		body.position(RECORD_HEADER_SIZE);
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteBufferInputStream(
+					body));
+			byte type = in.readByte();
+
+			if (type == TYPE_ENTRY) {
+				Key key = new Key(in.readUTF(), Format.valueOf(in.readUTF()));
+				Long previous = indexMap.put(key, Long.valueOf(offset));
+
+				if (previous != null)
+					liveBytes -= recordSize(previous.longValue());
+
+				liveBytes += length;
+			} else if (type == TYPE_REMOVE)
+				dropFromIndex(in.readUTF());
+		} catch (IOException | IllegalArgumentException e) {
+			return false;
+		}
+
+		return true;
+	}
+
+	private void closeChannel() throws IOException {
+		segments = null;
+
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void compactIfNeeded() throws IOException {
+		if (fileSize >= COMPACTION_MIN_BYTES && liveBytes < fileSize / 2)
+			compact();
+	}
+
+	private void removeQuietly(String path) {
+		if (!dropFromIndex(path))
+			return;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					path.length() + 8);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(TYPE_REMOVE);
+			out.writeUTF(path);
+			out.flush();
+
+			append(bytes.toByteArray());
+			compactIfNeeded();
+		} catch (IOException e) {
+			log("\tUnable to append to metadata cache %s: %s",
+					file.getAbsolutePath(), e);
+		}
+	}
+
+	private boolean dropFromIndex(String path) {
+		boolean removed = false;
+		Format[] formats = Format.values();
+
+		for (int i = 0; i < formats.length; i++) {
+			Long offset = indexMap.remove(new Key(path, formats[i]));
+
+			if (offset != null) {
+				liveBytes -= recordSize(offset.longValue());
+				removed = true;
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Used to append a record with the given body to the end of the store.
+	 * 
+	 * @return the offset the record was written at.
+	 */
+	private long append(byte[] body) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE
+				+ body.length);
+		record.putInt(body.length).putInt((int) crc.getValue()).put(body)
+				.flip();
+
+		long offset = fileSize;
+		writeFully(channel, record, offset);
+		fileSize += record.capacity();
+
+		return offset;
+	}
+
+	private Record read(Key key) {
+		Long offset = indexMap.get(key);
+
+		if (offset == null)
+			return null;
+
+		try {
+			ByteBuffer record = slice(offset.longValue());
+			record.position(RECORD_HEADER_SIZE);
+
+			return decode(new DataInputStream(new ByteBufferInputStream(record)));
+		} catch (IOException e) {
+			log("\tUnable to read from metadata cache %s: %s",
+					file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	private long recordSize(long offset) {
+		try {
+			return slice(offset).remaining();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Used to get a view of the complete record (header and body) starting at
+	 * the given offset from the mapped segment it starts in, mapping or
+	 * re-mapping that segment if necessary.
+	 */
+	private ByteBuffer slice(long offset) throws IOException {
+		int index = (int) (offset / SEGMENT_SIZE);
+		long start = (long) index * SEGMENT_SIZE;
+
+		while (segments.size() <= index)
+			segments.add(null);
+
+		MappedByteBuffer segment = segments.get(index);
+		int position = (int) (offset - start);
+
+		// Segments are re-mapped as the store grows past their mapped end.
+		if (segment == null
+				|| position + RECORD_HEADER_SIZE > segment.capacity()
+				|| position + RECORD_HEADER_SIZE
+						+ segment.getInt(position) > segment.capacity()) {
+			long length = Math.min((long) SEGMENT_SIZE + MAX_RECORD_SIZE,
+					fileSize - start);
+
+			segment = channel.map(MapMode.READ_ONLY, start, length);
+			segments.set(index, segment);
+		}
+
+		if (position + RECORD_HEADER_SIZE > segment.capacity())
+			throw new EOFException("Record header at offset " + offset
+					+ " extends past the end of the store.");
+
+		int length = segment.getInt(position);
+
+		if (length < 0 || length > MAX_RECORD_SIZE
+				|| position + RECORD_HEADER_SIZE + length > segment.capacity())
+			throw new EOFException("Record at offset " + offset
+					+ " extends past the end of the store.");
+
+		ByteBuffer record = segment.duplicate();
+		record.position(position).limit(position + RECORD_HEADER_SIZE + length);
+
+		return record.slice();
+	}
+
+	private static boolean isValid(ByteBuffer record) {
+		ByteBuffer body = record.duplicate();
+		body.position(RECORD_HEADER_SIZE);
+
+		/*
+		 * Every record starts with its type. A zero-filled tail (the file was
+		 * extended but the record never written) reads as empty records with
+		 * a matching CRC of 0.
+		 */
+		if (!body.hasRemaining())
+			return false;
+
+		byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+
+		return record.getInt(4) == (int) crc.getValue();
+	}
+
+	private static byte[] encode(Record record) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(TYPE_ENTRY);
+		out.writeUTF(record.identity.getPath());
+		out.writeUTF(record.format.name());
+		out.writeLong(record.identity.getSize());
+		out.writeLong(record.identity.getLastModified());
+		out.writeLong(record.identity.getInode());
+
+		/*
+		 * Tags are stored by name rather than ordinal so a store survives
+		 * Tags being added to or reordered in the enum.
+		 */
+		out.writeShort(record.queried.size());
+
+		for (Tag tag : record.queried)
+			out.writeUTF(tag.getName());
+
+		out.writeShort(record.values.size());
+
+		for (Entry<Tag, String> entry : record.values.entrySet()) {
+			out.writeUTF(entry.getKey().getName());
+			out.writeUTF(entry.getValue());
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static Record decode(DataInputStream in) throws IOException {
+		if (in.readByte() != TYPE_ENTRY)
+			throw new IOException("Index points at a record that is not an entry.");
+
+		String path = in.readUTF();
+		Format format = Format.valueOf(in.readUTF());
+		Record record = new Record(new FileIdentity(path, in.readLong(),
+				in.readLong(), in.readLong()), format);
+
+		for (int i = 0, count = in.readUnsignedShort(); i < count; i++) {
+			Tag tag = Tag.forName(in.readUTF());
+
+			if (tag != null)
+				record.queried.add(tag);
+		}
+
+		for (int i = 0, count = in.readUnsignedShort(); i < count; i++) {
+			Tag tag = Tag.forName(in.readUTF());
+			String value = in.readUTF();
+
+			if (tag != null)
+				record.values.put(tag, value);
+		}
+
+		return record;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static class Key {
+		private final String path;
+		private final Format format;
+
+		public Key(String path, Format format) {
+			this.path = path;
+			this.format = format;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return format == other.format && path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * path.hashCode() + format.hashCode();
+		}
+	}
+
+	private static class Record {
+		private final FileIdentity identity;
+		private final Format format;
+		private final EnumSet<Tag> queried;
+		private final EnumMap<Tag, String> values;
+
+		public Record(FileIdentity identity, Format format) {
+			this.identity = identity;
+			this.format = format;
+			this.queried = EnumSet.noneOf(Tag.class);
+			this.values = new EnumMap<Tag, String>(Tag.class);
+		}
+	}
+
+	/**
+	 * Minimal adapter used to decode records with a {@link DataInputStream}
+	 * straight from a mapped segment without copying them first.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to represent a query for a fixed set of tags in a given
+ * {@link Format} that has been compiled once and can be reused for any number
+ * of images.
+ * <p/>
+ * Every call to {@link ExifTool#getImageMeta(File, Format, Tag...)} has to
+ * stream the same output options (<code>-n</code>, <code>-S</code>) and
+ * "<code>-TagName</code>" arguments to ExifTool before the path of the image.
+ * A prepared query encodes all of those arguments into a single block of
+ * bytes up front, so each request only has to copy that block, write the path
+ * and <code>-execute</code>. When the same set of tags is queried over and
+ * over (e.g. across a whole photo library) that is far less work than
+ * building the arguments again for every image:
+ * 
+ * <pre>
+ * PreparedQuery query = new PreparedQuery(Format.NUMERIC, Tag.ISO,
+ * 		Tag.FOCAL_LENGTH, Tag.DATE_TIME_ORIGINAL);
+ * 
+ * for (File image : images) {
+ * 	ImageMetadata metadata = tool.getImageMetadata(image, query);
+ * 	...
+ * }
+ * </pre>
+ * 
+ * <h3>Both Formats in One Request</h3>
+ * Some tags are needed in both formats at once, e.g. a UI that uses the
+ * numeric ORIENTATION for logic but shows the human readable EXPOSURE_TIME.
+ * Instead of two round trips, a query can ask for some of its tags in both
+ * formats with ExifTool's per-tag "<code>-TagName#</code>" suffix (which
+ * turns off print conversion for just that tag):
+ * 
+ * <pre>
+ * PreparedQuery query = new PreparedQuery(Format.HUMAN_READABLE, new Tag[] {
+ * 		Tag.ORIENTATION, Tag.EXPOSURE_TIME }, new Tag[] { Tag.ORIENTATION });
+ * 
+ * ImageMetadata metadata = tool.getImageMetadata(image, query);
+ * String shutter = metadata.getString(Tag.EXPOSURE_TIME); // &quot;1/60&quot;
+ * String rotation = metadata.getString(Tag.ORIENTATION,
+ * 		Format.NUMERIC); // &quot;6&quot;
+ * </pre>
+ * 
+ * Results of such queries are never cached, read without ExifTool or shared
+ * with concurrent requests, since all of those only hold values in a single
+ * format.
+ * <p/>
+ * Instances of this class are immutable and Thread-safe, so a single instance
+ * can be shared by every {@link ExifTool} instance and Thread in the VM.
+ * 
+ * @since 1.2
+ */
+public final class PreparedQuery {
+	private final Format format;
+	private final Tag[] tags;
+	private final Tag[] bothFormats;
+	private final String[] arguments;
+	private final byte[] header;
+	private final boolean fastPath;
+
+	/**
+	 * Creates a query for the given tags.
+	 * 
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> is <code>null</code> or if
+	 *             <code>tags</code> is <code>null</code>, empty or contains
+	 *             <code>null</code>.
+	 */
+	public PreparedQuery(Format format, Tag... tags)
+			throws IllegalArgumentException {
+		this(format, tags, null);
+	}
+
+	/**
+	 * Creates a query for the given tags, some of which are returned in both
+	 * formats: in <code>format</code> like every other tag and in the other
+	 * format (see {@link ImageMetadata#getString(Tag, Format)}).
+	 * 
+	 * @param format
+	 *            The output format the tag values are returned in.
+	 * @param tags
+	 *            The tags to query.
+	 * @param bothFormats
+	 *            The tags to also return in the other format, may be
+	 *            <code>null</code> or empty. Tags not in <code>tags</code>
+	 *            are queried as well.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> is <code>null</code>, if
+	 *             <code>tags</code> is <code>null</code>, empty or contains
+	 *             <code>null</code> or if <code>bothFormats</code> contains
+	 *             <code>null</code>.
+	 */
+	public PreparedQuery(Format format, Tag[] tags, Tag[] bothFormats)
+			throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+		if (tags == null || tags.length == 0)
+			throw new IllegalArgumentException(
+					"tags cannot be null and must contain 1 or more Tag to query the image for.");
+
+		for (int i = 0; i < tags.length; i++)
+			if (tags[i] == null)
+				throw new IllegalArgumentException(
+						"tags cannot contain a null Tag.");
+
+		EnumSet<Tag> bothSet = EnumSet.noneOf(Tag.class);
+
+		if (bothFormats != null) {
+			for (int i = 0; i < bothFormats.length; i++) {
+				if (bothFormats[i] == null)
+					throw new IllegalArgumentException(
+							"bothFormats cannot contain a null Tag.");
+
+				bothSet.add(bothFormats[i]);
+			}
+		}
+
+		// Tags only asked for in both formats are queried too.
+		if (!bothSet.isEmpty()) {
+			EnumSet<Tag> missing = EnumSet.copyOf(bothSet);
+			missing.removeAll(Arrays.asList(tags));
+
+			if (!missing.isEmpty()) {
+				Tag[] allTags = Arrays.copyOf(tags, tags.length
+						+ missing.size());
+				int i = tags.length;
+
+				for (Tag tag : missing)
+					allTags[i++] = tag;
+
+				tags = allTags;
+			}
+		}
+
+		List<String> argList = new ArrayList<String>(tags.length
+				+ bothSet.size() + 2);
+
+		/*
+		 * -n turns print conversion off for every tag, so a numeric query
+		 * returning some tags in both formats turns it off per tag instead.
+		 * Either way the value in the query's format comes first; the
+		 * response lists values in the order the tags were asked for.
+		 */
+		boolean numeric = (format == Format.NUMERIC);
+		String suffix = (numeric && !bothSet.isEmpty() ? "#" : "");
+
+		if (numeric && suffix.isEmpty())
+			argList.add("-n"); // numeric output
+
+		argList.add("-S"); // compact output
+
+		for (int i = 0; i < tags.length; i++) {
+			argList.add("-" + tags[i].getName() + suffix);
+
+			if (bothSet.contains(tags[i]))
+				argList.add("-" + tags[i].getName() + (numeric ? "" : "#"));
+		}
+
+		StringBuilder args = new StringBuilder(argList.size() * 16);
+
+		for (String arg : argList)
+			args.append(arg).append('\n');
+
+		this.format = format;
+		this.tags = tags.clone();
+		this.bothFormats = bothSet.toArray(new Tag[bothSet.size()]);
+		this.arguments = argList.toArray(new String[argList.size()]);
+		this.header = RequestWriter.toBytes(args.toString());
+		this.fastPath = (this.bothFormats.length == 0 && FastExifReader
+				.supports(format, tags));
+	}
+
+	/**
+	 * @return the output format the tag values are returned in.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return a copy of the tags this query is for.
+	 */
+	public Tag[] getTags() {
+		return tags.clone();
+	}
+
+	/**
+	 * @return a copy of the tags this query also returns in the other
+	 *         format, empty if there are none.
+	 */
+	public Tag[] getBothFormatTags() {
+		return bothFormats.clone();
+	}
+
+	/**
+	 * @return the number of tags this query is for.
+	 */
+	public int getTagCount() {
+		return tags.length;
+	}
+
+	/**
+	 * Used internally to get the tags without copying them; callers must
+	 * not modify the returned array.
+	 */
+	Tag[] tags() {
+		return tags;
+	}
+
+	/**
+	 * Used internally to get the pre-encoded arguments that precede the
+	 * image path(s) of every request for this query; callers must not modify
+	 * the returned array.
+	 */
+	byte[] header() {
+		return header;
+	}
+
+	/**
+	 * Used internally to append the same arguments {@link #header()} encodes
+	 * to the command line of a one-off ExifTool process.
+	 */
+	void addArguments(List<String> args) {
+		for (int i = 0; i < arguments.length; i++)
+			args.add(arguments[i]);
+	}
+
+	/**
+	 * Used internally to determine if every tag of this query can be read
+	 * without ExifTool (see {@link ExifTool#setFastPathEnabled(boolean)}).
+	 */
+	boolean fastPath() {
+		return fastPath;
+	}
+
+	/**
+	 * Used internally to determine if results of this query can be cached
+	 * or shared, which is only the case when every value is in a single
+	 * format.
+	 */
+	boolean cacheable() {
+		return bothFormats.length == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "PreparedQuery [format=" + format + ", tags="
+				+ Arrays.toString(tags)
+				+ (bothFormats.length == 0 ? "" : ", bothFormats="
+						+ Arrays.toString(bothFormats)) + "]";
+	}
+}
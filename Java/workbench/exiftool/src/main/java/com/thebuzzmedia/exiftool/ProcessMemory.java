@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class used to read the resident memory of an external process from
+ * <code>/proc/&lt;pid&gt;/status</code>, as used by {@link RecyclePolicy}.
+ * <p/>
+ * The pid is taken from <code>Process.pid()</code> where the running VM has
+ * it (Java 9 and later) and from the private <code>pid</code> field of the
+ * Unix process implementation otherwise, since this library still runs on
+ * Java 8.
+ * 
+ * @since 1.2
+ */
+final class ProcessMemory {
+	/**
+	 * Value returned by {@link #residentSetSize(Process)} when the resident
+	 * memory of a process cannot be determined (e.g. on Windows or macOS).
+	 */
+	static final long UNKNOWN = -1;
+
+	private static final File PROC = new File("/proc");
+	private static final String VM_RSS_PREFIX = "VmRSS:";
+
+	/**
+	 * Flag used to remember that the pid or <code>/proc</code> is not
+	 * available on this host so we don't keep trying on every check.
+	 */
+	private static volatile boolean supported = PROC.isDirectory();
+
+	private ProcessMemory() {
+		// no-op
+	}
+
+	/**
+	 * Used to read the resident memory of the given process.
+	 * 
+	 * @return the resident memory in bytes or {@link #UNKNOWN} if it cannot
+	 *         be determined.
+	 */
+	static long residentSetSize(Process process) {
+		if (!supported)
+			return UNKNOWN;
+
+		long pid = pid(process);
+
+		if (pid < 0) {
+			supported = false;
+			return UNKNOWN;
+		}
+
+		File status = new File(PROC, pid + File.separator + "status");
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(status), StandardCharsets.US_ASCII))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(VM_RSS_PREFIX))
+					continue;
+
+				// e.g. "VmRSS:	   23596 kB"
+				String value = line.substring(VM_RSS_PREFIX.length()).trim();
+				int space = value.indexOf(' ');
+
+				if (space > 0)
+					value = value.substring(0, space);
+
+				return Long.parseLong(value) * 1024;
+			}
+		} catch (IOException | NumberFormatException e) {
+			// The process exited in the meantime or the format is unknown.
+			ExifTool.log("\tUnable to read resident memory from %s: %s",
+					status, e);
+		}
+
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return the pid of the given process or <code>-1</code> if it cannot be
+	 *         determined.
+	 */
+	private static long pid(Process process) {
+		try {
+			Method method = Process.class.getMethod("pid");
+			return ((Long) method.invoke(process)).longValue();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8, fall through to the implementation field.
+		}
+
+		try {
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+}
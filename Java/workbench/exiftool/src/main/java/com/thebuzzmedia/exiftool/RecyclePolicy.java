@@ -0,0 +1,237 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to describe when the daemon process of an {@link ExifTool}
+ * instance using {@link ExifTool.Feature#STAY_OPEN} is retired and replaced
+ * by a fresh one (see {@link ExifTool#setRecyclePolicy(RecyclePolicy)}).
+ * <p/>
+ * The Perl process behind a daemon slowly grows over millions of files, so a
+ * long-lived one is worth replacing every now and then even if it never sits
+ * idle long enough for {@link ExifTool#PROCESS_CLEANUP_DELAY} to shut it down.
+ * A daemon is due once it answered {@link #getMaxRequests()} requests, its
+ * resident memory grew above {@link #getMaxRss()} bytes or it has been
+ * running for {@link #getMaxAge()} milliseconds, whichever comes first.
+ * <p/>
+ * Once a daemon is due, its replacement is started and warmed up on a
+ * background {@link Thread} while the old one keeps answering requests; the
+ * old one is only shut down when the replacement is ready, so recycling never
+ * costs a request the time it takes Perl to start.
+ * <p/>
+ * Every setter returns this instance so limits can be chained:
+ * 
+ * <pre>
+ * RecyclePolicy policy = new RecyclePolicy().setMaxRequests(100000)
+ * 		.setMaxRss(512 * 1024 * 1024).setMaxAge(6, TimeUnit.HOURS);
+ * </pre>
+ * 
+ * A policy can be shared by many instances (e.g. every daemon of an
+ * {@link ExifToolPool}); changes are picked up by each of them on its next
+ * request.
+ * 
+ * @since 1.2
+ */
+public class RecyclePolicy {
+	/**
+	 * Number of requests a daemon answers before it is recycled unless
+	 * changed with {@link #setMaxRequests(long)}.
+	 * <p/>
+	 * Default value is <code>0</code> (no limit). This can be set with the
+	 * "<code>exiftool.recycle.maxRequests</code>" system property.
+	 */
+	public static final long DEFAULT_MAX_REQUESTS = Long.getLong(
+			"exiftool.recycle.maxRequests", 0);
+
+	/**
+	 * Resident memory (in bytes) of a daemon process above which it is
+	 * recycled unless changed with {@link #setMaxRss(long)}.
+	 * <p/>
+	 * Default value is <code>0</code> (no limit). This can be set with the
+	 * "<code>exiftool.recycle.maxRss</code>" system property.
+	 */
+	public static final long DEFAULT_MAX_RSS = Long.getLong(
+			"exiftool.recycle.maxRss", 0);
+
+	/**
+	 * Time (in milliseconds) a daemon runs before it is recycled unless
+	 * changed with {@link #setMaxAge(long, TimeUnit)}.
+	 * <p/>
+	 * Default value is <code>0</code> (no limit). This can be set with the
+	 * "<code>exiftool.recycle.maxAge</code>" system property.
+	 */
+	public static final long DEFAULT_MAX_AGE = Long.getLong(
+			"exiftool.recycle.maxAge", 0);
+
+	/**
+	 * Minimum time (in nanoseconds) between two reads of the resident memory
+	 * of the same daemon, which costs reading a file from <code>/proc</code>
+	 * and is far too slow to do on every request.
+	 */
+	static final long RSS_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private volatile long maxRequests = DEFAULT_MAX_REQUESTS;
+	private volatile long maxRss = DEFAULT_MAX_RSS;
+	private volatile long maxAge = DEFAULT_MAX_AGE;
+
+	/**
+	 * @return a new policy with the default limits or <code>null</code> if
+	 *         none of them is set, i.e. daemons are never recycled.
+	 */
+	static RecyclePolicy fromDefaults() {
+		RecyclePolicy policy = new RecyclePolicy();
+		return (policy.isEnabled() ? policy : null);
+	}
+
+	/**
+	 * @return the number of requests a daemon answers before it is recycled
+	 *         or <code>0</code> if there is no limit.
+	 */
+	public long getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * Used to set the number of requests (round trips to the daemon, no
+	 * matter how many images each of them covers) a daemon answers before it
+	 * is recycled.
+	 * 
+	 * @param maxRequests
+	 *            The number of requests or <code>0</code> for no limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxRequests</code> is &lt; <code>0</code>.
+	 */
+	public RecyclePolicy setMaxRequests(long maxRequests)
+			throws IllegalArgumentException {
+		if (maxRequests < 0)
+			throw new IllegalArgumentException("maxRequests [" + maxRequests
+					+ "] must be >= 0");
+
+		this.maxRequests = maxRequests;
+		return this;
+	}
+
+	/**
+	 * @return the resident memory (in bytes) above which a daemon is recycled
+	 *         or <code>0</code> if there is no limit.
+	 */
+	public long getMaxRss() {
+		return maxRss;
+	}
+
+	/**
+	 * Used to set the resident memory (in bytes) above which a daemon is
+	 * recycled.
+	 * <p/>
+	 * The resident memory is read from the <code>VmRSS</code> line of
+	 * <code>/proc/&lt;pid&gt;/status</code> at most once per second per
+	 * daemon, so this limit only has an effect on Linux (and other systems
+	 * providing that file); elsewhere it is ignored.
+	 * 
+	 * @param maxRss
+	 *            The number of bytes or <code>0</code> for no limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxRss</code> is &lt; <code>0</code>.
+	 */
+	public RecyclePolicy setMaxRss(long maxRss)
+			throws IllegalArgumentException {
+		if (maxRss < 0)
+			throw new IllegalArgumentException("maxRss [" + maxRss
+					+ "] must be >= 0");
+
+		this.maxRss = maxRss;
+		return this;
+	}
+
+	/**
+	 * @return the time (in milliseconds) a daemon runs before it is recycled
+	 *         or <code>0</code> if there is no limit.
+	 */
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Used to set the time a daemon runs before it is recycled. The age is
+	 * only checked when a request is made, so a daemon nobody uses is left
+	 * alone (and eventually shut down after
+	 * {@link ExifTool#PROCESS_CLEANUP_DELAY}).
+	 * 
+	 * @param maxAge
+	 *            The time or <code>0</code> for no limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxAge</code> is &lt; <code>0</code> or if
+	 *             <code>unit</code> is <code>null</code>.
+	 */
+	public RecyclePolicy setMaxAge(long maxAge, TimeUnit unit)
+			throws IllegalArgumentException {
+		if (maxAge < 0)
+			throw new IllegalArgumentException("maxAge [" + maxAge
+					+ "] must be >= 0");
+		if (unit == null)
+			throw new IllegalArgumentException("unit cannot be null");
+
+		this.maxAge = unit.toMillis(maxAge);
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if at least one limit is set.
+	 */
+	public boolean isEnabled() {
+		return (maxRequests > 0 || maxRss > 0 || maxAge > 0);
+	}
+
+	/**
+	 * Used to determine if a daemon has reached the request or age limit.
+	 * 
+	 * @param requests
+	 *            The number of requests the daemon answered so far.
+	 * @param ageNanos
+	 *            How long the daemon has been running.
+	 */
+	boolean isDue(long requests, long ageNanos) {
+		long maxRequests = this.maxRequests;
+		long maxAge = this.maxAge;
+
+		return (maxRequests > 0 && requests >= maxRequests)
+				|| (maxAge > 0 && ageNanos >= TimeUnit.MILLISECONDS
+						.toNanos(maxAge));
+	}
+
+	/**
+	 * Used to determine if a daemon has grown above the memory limit.
+	 * 
+	 * @param rss
+	 *            The resident memory of the daemon in bytes or
+	 *            <code>-1</code> if it is unknown.
+	 */
+	boolean isDueForRss(long rss) {
+		long maxRss = this.maxRss;
+		return (maxRss > 0 && rss > maxRss);
+	}
+
+	@Override
+	public String toString() {
+		return "RecyclePolicy [maxRequests=" + maxRequests + ", maxRss="
+				+ maxRss + ", maxAge=" + maxAge + "]";
+	}
+}
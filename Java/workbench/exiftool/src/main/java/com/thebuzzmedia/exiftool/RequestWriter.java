@@ -0,0 +1,205 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Class used to write arguments to an external ExifTool process as raw
+ * bytes.
+ * <p/>
+ * This is the counterpart to {@link ResponseReader}: instead of pushing every
+ * argument through a {@link java.io.OutputStreamWriter} and its charset
+ * encoder, arguments are collected in a single reusable buffer and
+ * pre-encoded blocks of arguments (see {@link PreparedQuery}) are copied in
+ * as-is. Plain ASCII strings, which covers every option and tag name and most
+ * file paths, are copied byte-for-byte without going through an encoder at
+ * all.
+ * <p/>
+ * Strings that are not plain ASCII are encoded with the platform's default
+ * charset, which is what the {@link java.io.OutputStreamWriter} used before
+ * this class did and what ExifTool expects file names on the command line to
+ * be in.
+ * <p/>
+ * Instances of this class are <strong>not</strong> Thread-safe.
+ * 
+ * @since 1.2
+ */
+final class RequestWriter {
+	/**
+	 * Charset used to encode strings that are not plain ASCII.
+	 */
+	static final Charset CHARSET = Charset.defaultCharset();
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	private static final byte[] EXECUTE = toBytes("-execute");
+	private static final byte[] ERROR_MARKER = toBytes("-echo4\n{ready");
+
+	private final OutputStream out;
+
+	private byte[] buffer;
+	private int count;
+
+	public RequestWriter(OutputStream out) {
+		this.out = out;
+		this.buffer = new byte[INITIAL_BUFFER_SIZE];
+	}
+
+	/**
+	 * Used to append the given pre-encoded bytes.
+	 */
+	public void write(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	/**
+	 * Used to append the given string, encoding it only if it is not plain
+	 * ASCII.
+	 */
+	public void write(String value) {
+		int length = value.length();
+		ensureCapacity(length);
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+
+			if (c >= 0x80) {
+				// Give up on the fast path and encode the whole thing.
+				write(value.getBytes(CHARSET));
+				return;
+			}
+
+			buffer[count + i] = (byte) c;
+		}
+
+		count += length;
+	}
+
+	/**
+	 * Used to append a single ASCII character.
+	 */
+	public void write(char c) {
+		ensureCapacity(1);
+		buffer[count++] = (byte) c;
+	}
+
+	/**
+	 * Used to append the given string followed by a newline, which is how
+	 * ExifTool expects every argument read with <code>-@</code>.
+	 */
+	public void writeLine(String value) {
+		write(value);
+		write('\n');
+	}
+
+	/**
+	 * Used to append the <code>-execute</code> command, numbered with the
+	 * given id if it is greater than <code>0</code> so ExifTool replies with
+	 * a matching <code>{ready&lt;id&gt;}</code> marker.
+	 */
+	public void writeExecute(int id) {
+		write(EXECUTE);
+
+		if (id > 0)
+			write(Integer.toString(id));
+
+		write('\n');
+	}
+
+	/**
+	 * Used to append the arguments that make ExifTool print a
+	 * <code>{ready&lt;id&gt;}</code> marker to standard error once it is done
+	 * with the current command, so {@link ErrorStreamDrain} can tell which
+	 * command the lines before it belong to.
+	 */
+	public void writeErrorMarker(int id) {
+		write(ERROR_MARKER);
+		write(Integer.toString(id));
+		write("}\n");
+	}
+
+	/**
+	 * Used to send everything written so far to the process followed by the
+	 * given bytes, which are written straight through instead of being copied
+	 * into the buffer first; used to stream image data to the process.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs writing to the stream.
+	 */
+	public void writeDirect(byte[] bytes, int offset, int length)
+			throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+
+		out.write(bytes, offset, length);
+	}
+
+	/**
+	 * Used to send everything written so far to the process.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs writing to the stream.
+	 */
+	public void flush() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Used to send everything written so far to the process and close the
+	 * stream, which tells a process reading its arguments from
+	 * <code>-@ -</code> that there are no more.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs writing to or closing the stream.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+
+	private void ensureCapacity(int length) {
+		if (count + length > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, count
+					+ length)];
+			System.arraycopy(buffer, 0, newBuffer, 0, count);
+			buffer = newBuffer;
+		}
+	}
+
+	/**
+	 * Used to encode the given string the same way {@link #write(String)}
+	 * does, for arguments that are encoded once up front.
+	 */
+	static byte[] toBytes(String value) {
+		return value.getBytes(CHARSET);
+	}
+}
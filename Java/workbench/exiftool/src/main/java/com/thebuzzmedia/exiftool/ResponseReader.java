@@ -0,0 +1,403 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to read responses from an external ExifTool process directly
+ * from the bytes of its output stream.
+ * <p/>
+ * Going through a {@link java.io.BufferedReader} costs a char decoding pass,
+ * a {@link String} per line, a {@link java.util.regex.Pattern} split into a
+ * new array of two more {@link String}s and a {@link java.util.HashMap}
+ * lookup for every tag of every image. This class instead scans lines in
+ * place in a single reusable buffer, finds the "<code>: </code>" delimiter
+ * itself and resolves the tag name with a precomputed hash table over the
+ * name bytes of every {@link Tag}; the only object allocated per tag is the
+ * final value {@link String}.
+ * <p/>
+ * Usage is line oriented: {@link #nextLine()} advances to the next line of
+ * output, after which the line can be inspected with {@link #tag()},
+ * {@link #value()}, {@link #readyId()} and so on until the next call.
+ * <p/>
+ * ExifTool writes its output as UTF-8 by default, so that is the charset
+ * used to decode values.
+ * <p/>
+ * Instances of this class are <strong>not</strong> Thread-safe.
+ * 
+ * @since 1.2
+ */
+final class ResponseReader {
+	/**
+	 * Charset ExifTool encodes its output with by default.
+	 */
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	private static final byte[] READY_PREFIX = toBytes("{ready");
+
+	// 32-bit FNV-1a, cheap to compute incrementally while scanning a line.
+	private static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	/*
+	 * Open-addressed hash table of every Tag keyed by a hash of its name
+	 * bytes. It is sized to at least 4x the number of tags to keep probe
+	 * sequences to (almost always) a single slot, and every hit is confirmed
+	 * against the name bytes so a collision can never return the wrong tag.
+	 */
+	private static final Tag[] TAG_TABLE;
+	private static final byte[][] NAME_TABLE;
+	private static final int TABLE_MASK;
+
+	static {
+		Tag[] tags = Tag.values();
+		int size = Integer.highestOneBit(tags.length * 4 - 1) << 1;
+
+		TAG_TABLE = new Tag[size];
+		NAME_TABLE = new byte[size][];
+		TABLE_MASK = size - 1;
+
+		for (int i = 0; i < tags.length; i++) {
+			byte[] name = toBytes(tags[i].getName());
+			int slot = hash(name, 0, name.length) & TABLE_MASK;
+
+			while (TAG_TABLE[slot] != null)
+				slot = (slot + 1) & TABLE_MASK;
+
+			TAG_TABLE[slot] = tags[i];
+			NAME_TABLE[slot] = name;
+		}
+	}
+
+	private final InputStream in;
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	private int lineStart;
+	private int lineEnd;
+	private int valueStart;
+
+	public ResponseReader(InputStream in) {
+		this.in = in;
+		this.buffer = new byte[INITIAL_BUFFER_SIZE];
+	}
+
+	/**
+	 * Used to advance to the next line of output, blocking until a complete
+	 * line (or the end of the stream) is available.
+	 * 
+	 * @return <code>true</code> if a line was read or <code>false</code> if
+	 *         the end of the stream was reached.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs reading from the stream.
+	 */
+	public boolean nextLine() throws IOException {
+		int scan = position;
+
+		while (true) {
+			for (; scan < limit; scan++) {
+				if (buffer[scan] == '\n') {
+					setLine(position, scan);
+					position = scan + 1;
+					return true;
+				}
+			}
+
+			int read = fill();
+
+			if (read < 0) {
+				// A trailing line without a newline is still a line.
+				if (position < limit) {
+					setLine(position, limit);
+					position = limit;
+					return true;
+				}
+
+				return false;
+			}
+
+			// fill() may have shifted the unread bytes to the start.
+			scan = limit - read;
+		}
+	}
+
+	/**
+	 * Convenience method used to read the next line as a {@link String}.
+	 * 
+	 * @return the next line or <code>null</code> if the end of the stream was
+	 *         reached.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs reading from the stream.
+	 */
+	public String readLine() throws IOException {
+		return (nextLine() ? line() : null);
+	}
+
+	/**
+	 * @return the current line decoded as a {@link String}.
+	 */
+	public String line() {
+		return new String(buffer, lineStart, lineEnd - lineStart, UTF_8);
+	}
+
+	/**
+	 * Used to determine if the current line starts with the given bytes.
+	 */
+	public boolean startsWith(byte[] prefix) {
+		if (lineEnd - lineStart < prefix.length)
+			return false;
+
+		for (int i = 0; i < prefix.length; i++)
+			if (buffer[lineStart + i] != prefix[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return the remainder of the current line after the first
+	 *         <code>offset</code> bytes, decoded as a {@link String}.
+	 */
+	public String substring(int offset) {
+		int start = Math.min(lineStart + offset, lineEnd);
+		return new String(buffer, start, lineEnd - start, UTF_8);
+	}
+
+	/**
+	 * Used to determine if the current line is the <code>{ready}</code> or
+	 * <code>{ready&lt;N&gt;}</code> marker a daemon ExifTool process prints
+	 * once it finished executing a command.
+	 * 
+	 * @return <code>-1</code> if the current line is not a ready marker,
+	 *         <code>0</code> for a plain <code>{ready}</code> marker or
+	 *         <code>N</code> for a numbered one.
+	 */
+	public int readyId() {
+		int length = lineEnd - lineStart;
+
+		if (length < READY_PREFIX.length + 1 || buffer[lineEnd - 1] != '}'
+				|| !startsWith(READY_PREFIX))
+			return -1;
+
+		int id = 0;
+
+		for (int i = lineStart + READY_PREFIX.length; i < lineEnd - 1; i++) {
+			int digit = buffer[i] - '0';
+
+			if (digit < 0 || digit > 9)
+				return -1;
+
+			id = id * 10 + digit;
+		}
+
+		return id;
+	}
+
+	/**
+	 * Used to parse the current line as a line of compact (<code>-S</code>)
+	 * ExifTool output, e.g. "<code>Orientation: 1</code>", and resolve the
+	 * name in front of the first "<code>: </code>" to a {@link Tag}.
+	 * <p/>
+	 * If a tag is returned, its value can then be read with {@link #value()}.
+	 * 
+	 * @return the {@link Tag} named by the current line or <code>null</code>
+	 *         if the line is not a tag/value pair or names a tag that is not
+	 *         defined by {@link Tag}.
+	 */
+	public Tag tag() {
+		int hash = FNV_OFFSET_BASIS;
+		int nameEnd = -1;
+
+		for (int i = lineStart, end = lineEnd - 1; i < end; i++) {
+			byte b = buffer[i];
+
+			if (b == ':' && buffer[i + 1] == ' ') {
+				nameEnd = i;
+				break;
+			}
+
+			hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+		}
+
+		if (nameEnd <= lineStart)
+			return null;
+
+		int length = nameEnd - lineStart;
+
+		for (int slot = hash & TABLE_MASK; TAG_TABLE[slot] != null; slot = (slot + 1)
+				& TABLE_MASK) {
+			byte[] name = NAME_TABLE[slot];
+
+			if (name.length == length && matches(name)) {
+				valueStart = nameEnd + 2;
+				return TAG_TABLE[slot];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the value of the tag last returned by {@link #tag()}, decoded
+	 *         as a {@link String}.
+	 */
+	public String value() {
+		return new String(buffer, valueStart, lineEnd - valueStart, UTF_8);
+	}
+
+	/**
+	 * @return <code>true</code> if the value of the tag last returned by
+	 *         {@link #tag()} is empty.
+	 */
+	public boolean isValueEmpty() {
+		return valueStart >= lineEnd;
+	}
+
+	/**
+	 * Used to copy raw bytes (e.g. the output of <code>-b</code>) that follow
+	 * the current line straight to the given channel, without decoding them.
+	 * Reading lines can continue after the last byte copied.
+	 * 
+	 * @param count
+	 *            The number of bytes to copy, or <code>-1</code> to copy
+	 *            everything up to the end of the stream.
+	 * @param target
+	 *            The channel to copy the bytes to, or <code>null</code> to
+	 *            skip them.
+	 * 
+	 * @return the number of bytes copied.
+	 * 
+	 * @throws EOFException
+	 *             if the stream ends before <code>count</code> bytes were
+	 *             copied.
+	 * @throws IOException
+	 *             if an error occurs reading from the stream or writing to
+	 *             the channel.
+	 */
+	public long transferTo(long count, WritableByteChannel target)
+			throws EOFException, IOException {
+		long copied = 0;
+
+		while (count < 0 || copied < count) {
+			if (position == limit) {
+				// Everything buffered was consumed, so reuse the whole buffer.
+				position = limit = 0;
+
+				int read = in.read(buffer, 0, (count < 0 ? buffer.length
+						: (int) Math.min(buffer.length, count - copied)));
+
+				if (read < 0) {
+					if (count < 0)
+						break;
+
+					throw new EOFException("Expected " + count
+							+ " bytes of binary data but the stream ended after "
+							+ copied);
+				}
+
+				limit = read;
+			}
+
+			int length = (int) (count < 0 ? limit - position : Math.min(limit
+					- position, count - copied));
+
+			if (target != null) {
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, position, length);
+
+				while (chunk.hasRemaining())
+					target.write(chunk);
+			}
+
+			position += length;
+			copied += length;
+		}
+
+		return copied;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private boolean matches(byte[] name) {
+		for (int i = 0; i < name.length; i++)
+			if (buffer[lineStart + i] != name[i])
+				return false;
+
+		return true;
+	}
+
+	private void setLine(int start, int end) {
+		lineStart = start;
+
+		// Tolerate CRLF line endings (e.g. ExifTool on Windows).
+		lineEnd = (end > start && buffer[end - 1] == '\r') ? end - 1 : end;
+	}
+
+	/**
+	 * Used to read more bytes from the stream into the buffer, first moving
+	 * any unread bytes to the start of the buffer (or growing it if it is
+	 * entirely unread) to make room.
+	 * 
+	 * @return the number of bytes read or <code>-1</code> at the end of the
+	 *         stream.
+	 */
+	private int fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		} else if (limit == buffer.length) {
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+
+		int read = in.read(buffer, limit, buffer.length - limit);
+
+		if (read > 0)
+			limit += read;
+
+		return read;
+	}
+
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = FNV_OFFSET_BASIS;
+
+		for (int i = offset; i < offset + length; i++)
+			hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+
+		return hash;
+	}
+
+	static byte[] toBytes(String value) {
+		return value.getBytes(UTF_8);
+	}
+}
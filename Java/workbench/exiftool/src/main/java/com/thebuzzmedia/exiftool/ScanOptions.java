@@ -0,0 +1,224 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to describe how a directory tree is scanned by
+ * {@link ExifTool#scan(Path, ScanOptions)} and
+ * {@link ExifToolPool#scan(Path, ScanOptions)}: which tags are queried, which
+ * files are included and how many files are sent to ExifTool per request.
+ * <p/>
+ * Every setter returns this instance so options can be chained:
+ * 
+ * <pre>
+ * ScanOptions options = new ScanOptions(Format.NUMERIC, Tag.ISO,
+ * 		Tag.DATE_TIME_ORIGINAL).setExtensions(&quot;jpg&quot;, &quot;jpeg&quot;)
+ * 		.setBatchSize(200);
+ * </pre>
+ * 
+ * Instances of this class are <strong>not</strong> Thread-safe and should not
+ * be modified while a scan using them is running.
+ * 
+ * @since 1.2
+ */
+public class ScanOptions {
+	/**
+	 * Number of files sent to ExifTool per request unless changed with
+	 * {@link #setBatchSize(int)}.
+	 * <p/>
+	 * Default value is <code>100</code>. This can be set with the
+	 * "<code>exiftool.scan.batchSize</code>" system property.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = Integer.getInteger(
+			"exiftool.scan.batchSize", 100);
+
+	private final PreparedQuery query;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxDepth = Integer.MAX_VALUE;
+	private boolean followLinks;
+	private Predicate<Path> filter;
+
+	/**
+	 * Creates options that query the given tags from every regular file in
+	 * the tree.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> is <code>null</code> or if
+	 *             <code>tags</code> is <code>null</code> or empty.
+	 */
+	public ScanOptions(Format format, Tag... tags)
+			throws IllegalArgumentException {
+		this(new PreparedQuery(format, tags));
+	}
+
+	/**
+	 * Creates options that run the given query against every regular file in
+	 * the tree.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>query</code> is <code>null</code>.
+	 */
+	public ScanOptions(PreparedQuery query) throws IllegalArgumentException {
+		if (query == null)
+			throw new IllegalArgumentException("query cannot be null");
+
+		this.query = query;
+	}
+
+	/**
+	 * @return the query run against every file.
+	 */
+	public PreparedQuery getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the number of files sent to ExifTool per request.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Used to set the number of files sent to ExifTool per request.
+	 * <p/>
+	 * This is also what bounds the memory used by a scan: at most one batch
+	 * of paths and results is held per ExifTool process working on the scan,
+	 * no matter how many files the tree holds.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>batchSize</code> is &lt; <code>1</code>.
+	 */
+	public ScanOptions setBatchSize(int batchSize)
+			throws IllegalArgumentException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize [" + batchSize
+					+ "] must be >= 1");
+
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @return the maximum number of directory levels below the root that
+	 *         are scanned.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Used to limit how many directory levels below the root are scanned;
+	 * <code>0</code> only scans the files directly in the root. By default
+	 * the whole tree is scanned.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxDepth</code> is &lt; <code>0</code>.
+	 */
+	public ScanOptions setMaxDepth(int maxDepth)
+			throws IllegalArgumentException {
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("maxDepth [" + maxDepth
+					+ "] must be >= 0");
+
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if symbolic links are followed.
+	 */
+	public boolean isFollowLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * Used to set if symbolic links to files and directories are followed.
+	 * By default they are skipped. Directories already being scanned are
+	 * never entered twice, so link cycles are safe.
+	 */
+	public ScanOptions setFollowLinks(boolean followLinks) {
+		this.followLinks = followLinks;
+		return this;
+	}
+
+	/**
+	 * @return the filter files must pass to be scanned or <code>null</code>
+	 *         if every regular file is scanned.
+	 */
+	public Predicate<Path> getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Used to set a filter that every regular file must pass to be sent to
+	 * ExifTool, replacing any filter set before (including one set with
+	 * {@link #setExtensions(String...)}).
+	 * 
+	 * @param filter
+	 *            The filter or <code>null</code> to scan every regular file.
+	 */
+	public ScanOptions setFilter(Predicate<Path> filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Convenience method used to only scan files with one of the given
+	 * extensions, compared ignoring case (e.g. "<code>jpg</code>" matches
+	 * "<code>IMG_0001.JPG</code>").
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>extensions</code> is <code>null</code> or empty.
+	 * 
+	 * @see #setFilter(Predicate)
+	 */
+	public ScanOptions setExtensions(String... extensions)
+			throws IllegalArgumentException {
+		if (extensions == null || extensions.length == 0)
+			throw new IllegalArgumentException(
+					"extensions cannot be null and must contain 1 or more extension.");
+
+		final String[] suffixes = new String[extensions.length];
+
+		for (int i = 0; i < extensions.length; i++) {
+			String extension = extensions[i].toLowerCase(Locale.ROOT);
+			suffixes[i] = (extension.startsWith(".") ? extension : "."
+					+ extension);
+		}
+
+		return setFilter(new Predicate<Path>() {
+			public boolean test(Path path) {
+				String name = path.getFileName().toString()
+						.toLowerCase(Locale.ROOT);
+
+				for (int i = 0; i < suffixes.length; i++)
+					if (name.endsWith(suffixes[i]))
+						return true;
+
+				return false;
+			}
+		});
+	}
+}
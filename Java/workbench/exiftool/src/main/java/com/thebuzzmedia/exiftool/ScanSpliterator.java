@@ -0,0 +1,338 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Class used to back the lazy {@link java.util.stream.Stream} returned by
+ * {@link ExifTool#scan(Path, ScanOptions)} and
+ * {@link ExifToolPool#scan(Path, ScanOptions)}.
+ * <p/>
+ * Nothing happens until the stream is consumed. Each time the consumer needs
+ * another result and the current batch is used up, the next
+ * {@link ScanOptions#getBatchSize()} files are pulled from a depth-first walk
+ * of the tree and sent to ExifTool in a single request. The walk only holds
+ * one open {@link DirectoryStream} per directory level, so neither the paths
+ * nor the results of the whole tree are ever held in memory at once; how fast
+ * the tree is walked is driven entirely by how fast the consumer asks for
+ * results.
+ * <p/>
+ * A spliterator created for a pool can be split (up to a fixed number of
+ * times) into spliterators that pull batches from the same walk, which lets
+ * a parallel stream keep several daemons busy at once.
+ * <p/>
+ * Directories and files that cannot be read are logged and skipped rather
+ * than ending the scan.
+ * 
+ * @since 1.2
+ */
+final class ScanSpliterator implements Spliterator<ImageMetadata> {
+	/**
+	 * Interface used to send a batch of files to ExifTool.
+	 */
+	interface BatchQuery {
+		Map<File, ImageMetadata> query(List<File> images, PreparedQuery query)
+				throws IOException;
+	}
+
+	private final TreeWalker walker;
+	private final BatchQuery batchQuery;
+	private final PreparedQuery query;
+	private final int batchSize;
+	private final AtomicInteger remainingSplits;
+
+	private Iterator<ImageMetadata> current;
+
+	/**
+	 * Creates a spliterator over the tree at the given root.
+	 * 
+	 * @param maxSplits
+	 *            How many times this spliterator (and the ones split from it)
+	 *            may be split in total; <code>0</code> makes the spliterator
+	 *            sequential and ordered.
+	 * 
+	 * @throws IOException
+	 *             if the root does not exist or cannot be read.
+	 */
+	public ScanSpliterator(Path root, ScanOptions options,
+			BatchQuery batchQuery, int maxSplits) throws IOException {
+		this.walker = new TreeWalker(root, options);
+		this.batchQuery = batchQuery;
+		this.query = options.getQuery();
+		this.batchSize = options.getBatchSize();
+		this.remainingSplits = (maxSplits > 0 ? new AtomicInteger(maxSplits)
+				: null);
+	}
+
+	private ScanSpliterator(ScanSpliterator parent) {
+		this.walker = parent.walker;
+		this.batchQuery = parent.batchQuery;
+		this.query = parent.query;
+		this.batchSize = parent.batchSize;
+		this.remainingSplits = parent.remainingSplits;
+	}
+
+	public boolean tryAdvance(Consumer<? super ImageMetadata> action) {
+		while (current == null || !current.hasNext()) {
+			// Drop the finished batch before pulling the next one.
+			current = null;
+
+			List<File> batch = walker.nextBatch(batchSize);
+
+			if (batch.isEmpty())
+				return false;
+
+			current = queryBatch(batch).values().iterator();
+		}
+
+		action.accept(current.next());
+		return true;
+	}
+
+	public Spliterator<ImageMetadata> trySplit() {
+		if (remainingSplits == null || walker.isDone()
+				|| remainingSplits.getAndDecrement() <= 0)
+			return null;
+
+		return new ScanSpliterator(this);
+	}
+
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	public int characteristics() {
+		/*
+		 * Once split, spliterators take batches from the shared walk in
+		 * whatever order they get to it, so there is no encounter order.
+		 */
+		return (remainingSplits == null ? ORDERED | NONNULL : NONNULL);
+	}
+
+	/**
+	 * Used to close every directory the walk still has open; called when the
+	 * stream is closed.
+	 */
+	public void close() {
+		walker.close();
+	}
+
+	private Map<File, ImageMetadata> queryBatch(List<File> batch) {
+		try {
+			try {
+				return batchQuery.query(batch, query);
+			} catch (SecurityException e) {
+				/*
+				 * A file was removed or had its permissions changed between
+				 * being found and being queried; drop it and try again
+				 * instead of ending the whole scan.
+				 */
+				List<File> readable = new ArrayList<File>(batch.size());
+
+				for (File image : batch)
+					if (image.canRead())
+						readable.add(image);
+
+				log("\tSkipping %d files that can no longer be read",
+						batch.size() - readable.size());
+
+				return (readable.isEmpty() ? new HashMap<File, ImageMetadata>()
+						: batchQuery.query(readable, query));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Class used to walk a directory tree depth-first, one entry at a time,
+	 * shared by every spliterator split from the same scan.
+	 */
+	private static class TreeWalker {
+		private final Deque<Frame> stack = new ArrayDeque<Frame>();
+		private final int maxDepth;
+		private final Predicate<Path> filter;
+		private final LinkOption[] linkOptions;
+
+		// Set when the root is a single file instead of a directory.
+		private Path single;
+		private boolean done;
+
+		public TreeWalker(Path root, ScanOptions options) throws IOException {
+			this.maxDepth = options.getMaxDepth();
+			this.filter = options.getFilter();
+			this.linkOptions = (options.isFollowLinks() ? new LinkOption[0]
+					: new LinkOption[] { LinkOption.NOFOLLOW_LINKS });
+
+			BasicFileAttributes attrs = Files.readAttributes(root,
+					BasicFileAttributes.class, linkOptions);
+
+			if (attrs.isDirectory())
+				stack.push(new Frame(root, Files.newDirectoryStream(root), 0,
+						attrs.fileKey()));
+			else if (attrs.isRegularFile())
+				single = root;
+			else
+				done = true;
+		}
+
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		public synchronized List<File> nextBatch(int size) {
+			List<File> batch = new ArrayList<File>(size);
+			Path path;
+
+			while (batch.size() < size && (path = next()) != null)
+				batch.add(path.toFile());
+
+			return batch;
+		}
+
+		public synchronized void close() {
+			while (!stack.isEmpty())
+				closeFrame(stack.pop());
+
+			done = true;
+		}
+
+		private Path next() {
+			if (done)
+				return null;
+
+			if (single != null) {
+				Path path = single;
+				single = null;
+				done = true;
+				return path;
+			}
+
+			while (!stack.isEmpty()) {
+				Frame frame = stack.peek();
+				Path path;
+
+				try {
+					if (!frame.entries.hasNext()) {
+						closeFrame(stack.pop());
+						continue;
+					}
+
+					path = frame.entries.next();
+				} catch (DirectoryIteratorException e) {
+					log("\tSkipping the rest of directory %s: %s",
+							frame.directory, e.getCause());
+					closeFrame(stack.pop());
+					continue;
+				}
+
+				BasicFileAttributes attrs;
+
+				try {
+					attrs = Files.readAttributes(path,
+							BasicFileAttributes.class, linkOptions);
+				} catch (IOException e) {
+					log("\tSkipping unreadable path %s: %s", path, e);
+					continue;
+				}
+
+				if (attrs.isDirectory()) {
+					if (frame.depth < maxDepth)
+						enter(path, frame.depth + 1, attrs.fileKey());
+				} else if (attrs.isRegularFile()
+						&& (filter == null || filter.test(path))) {
+					if (Files.isReadable(path))
+						return path;
+
+					log("\tSkipping unreadable file %s", path);
+				}
+			}
+
+			done = true;
+			return null;
+		}
+
+		private void enter(Path directory, int depth, Object fileKey) {
+			// Only possible when following links; never walk a cycle.
+			if (fileKey != null) {
+				for (Frame frame : stack) {
+					if (fileKey.equals(frame.fileKey)) {
+						log("\tSkipping directory %s, it links back to %s",
+								directory, frame.directory);
+						return;
+					}
+				}
+			}
+
+			try {
+				stack.push(new Frame(directory, Files
+						.newDirectoryStream(directory), depth, fileKey));
+			} catch (IOException e) {
+				log("\tSkipping unreadable directory %s: %s", directory, e);
+			}
+		}
+
+		private static void closeFrame(Frame frame) {
+			try {
+				frame.stream.close();
+			} catch (IOException e) {
+				// no-op, just try to close it.
+			}
+		}
+	}
+
+	/**
+	 * Class used to track a directory the walk is currently inside of.
+	 */
+	private static class Frame {
+		private final Path directory;
+		private final DirectoryStream<Path> stream;
+		private final Iterator<Path> entries;
+		private final int depth;
+		private final Object fileKey;
+
+		public Frame(Path directory, DirectoryStream<Path> stream, int depth,
+				Object fileKey) {
+			this.directory = directory;
+			this.stream = stream;
+			this.entries = stream.iterator();
+			this.depth = depth;
+			this.fileKey = fileKey;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import static com.thebuzzmedia.exiftool.ExifTool.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class used to find out the version of the native ExifTool install pointed at
+ * by {@link ExifTool#EXIF_TOOL_PATH} exactly once per VM, no matter how many
+ * Threads or {@link ExifTool.Feature}s ask for it.
+ * <p/>
+ * Running "<code>exiftool -ver</code>" means launching the Perl interpreter,
+ * which takes hundreds of milliseconds. To keep that off the startup path of
+ * every new VM, the version found is also remembered in a small properties
+ * file (see {@link #CACHE_FILE}) keyed by the canonical path and last-modified
+ * time of the ExifTool executable; upgrading ExifTool in place changes the
+ * last-modified time, so a stale version is never reported.
+ * <p/>
+ * The disk cache is only used when {@link ExifTool#EXIF_TOOL_PATH} can be
+ * resolved to a file, either directly or by searching the <code>PATH</code>
+ * environment variable; otherwise ExifTool is simply asked every time.
+ * 
+ * @since 1.2
+ */
+final class VersionProbe {
+	/**
+	 * File used to remember the version of ExifTool across VM restarts.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dexiftool.versionCache=/path/to/exiftool-version.properties
+	 * </code>
+	 * <p/>
+	 * Setting this value to an empty string disables the disk cache so the
+	 * version is probed once per VM.
+	 * <p/>
+	 * Default value is "<code>exiftool-version.properties</code>" in the
+	 * directory pointed at by the "<code>java.io.tmpdir</code>" system
+	 * property.
+	 */
+	static final String CACHE_FILE = System.getProperty(
+			"exiftool.versionCache",
+			new File(System.getProperty("java.io.tmpdir"),
+					"exiftool-version.properties").getPath());
+
+	/**
+	 * Matches the leading decimal number of a version string (ExifTool
+	 * versions are plain decimal numbers, e.g. "<code>9.90</code>" or
+	 * "<code>12.40</code>").
+	 */
+	private static final Pattern VERSION_PATTERN = Pattern
+			.compile("^\\s*(\\d+(?:\\.\\d+)?)");
+
+	private static final Object LOCK = new Object();
+
+	private static volatile String version;
+
+	private VersionProbe() {
+		// no-op
+	}
+
+	/**
+	 * Used to get the version of the installed ExifTool, probing for it the
+	 * first time it is needed.
+	 * <p/>
+	 * Concurrent callers all wait for the same single probe.
+	 * 
+	 * @return the version reported by "<code>exiftool -ver</code>" or
+	 *         <code>null</code> if ExifTool could not be run or did not report
+	 *         a version, in which case the next call probes again.
+	 */
+	static String getVersion() {
+		String result = version;
+
+		if (result != null)
+			return result;
+
+		synchronized (LOCK) {
+			if (version == null)
+				version = probe();
+
+			return version;
+		}
+	}
+
+	/**
+	 * Used to compare two ExifTool version strings numerically.
+	 * <p/>
+	 * ExifTool versions are decimal numbers, so "<code>10.00</code>" is newer
+	 * than "<code>9.90</code>" even though it sorts before it as a
+	 * {@link String}.
+	 * 
+	 * @return a negative number, zero or a positive number if <code>v1</code>
+	 *         is older than, the same as or newer than <code>v2</code>.
+	 * 
+	 * @throws NumberFormatException
+	 *             if either argument does not start with a version number.
+	 */
+	static int compare(String v1, String v2) throws NumberFormatException {
+		return parse(v1).compareTo(parse(v2));
+	}
+
+	private static BigDecimal parse(String ver) throws NumberFormatException {
+		Matcher matcher = VERSION_PATTERN.matcher(ver);
+
+		if (!matcher.find())
+			throw new NumberFormatException("Not an ExifTool version: " + ver);
+
+		return new BigDecimal(matcher.group(1));
+	}
+
+	private static String probe() {
+		File executable = findExecutable(ExifTool.EXIF_TOOL_PATH);
+		String key = null;
+		File cacheFile = (CACHE_FILE.length() == 0 ? null : new File(
+				CACHE_FILE));
+
+		if (executable != null && cacheFile != null) {
+			try {
+				key = executable.getCanonicalPath() + '@'
+						+ executable.lastModified();
+			} catch (IOException e) {
+				// Without a reliable key, don't risk a stale version.
+			}
+		}
+
+		if (key != null) {
+			String cached = load(cacheFile).getProperty(key);
+
+			if (cached != null) {
+				log("\tUsing cached ExifTool version %s for %s", cached, key);
+				return cached;
+			}
+		}
+
+		String ver = run();
+
+		if (key != null && ver != null)
+			store(cacheFile, key, ver);
+
+		return ver;
+	}
+
+	/**
+	 * Helper method used to run "<code>exiftool -ver</code>" and read its
+	 * single-line reply.
+	 */
+	private static String run() {
+		List<String> args = new ArrayList<String>(2);
+		args.add(ExifTool.EXIF_TOOL_PATH);
+		args.add("-ver");
+
+		log("\tProbing installed ExifTool version...");
+
+		String ver = null;
+		ExifTool.IOStream streams = ExifTool.startExifToolProcess(args);
+
+		try {
+			ver = streams.reader.readLine();
+		} catch (IOException e) {
+			/*
+			 * Like before, the caller finds out something is wrong with the
+			 * ExifTool process on its first real request.
+			 */
+			log("\t\tUnable to read ExifTool version: %s", e);
+		} finally {
+			streams.close();
+		}
+
+		if (ver != null) {
+			ver = ver.trim();
+
+			// Anything that isn't a version (e.g. an error) doesn't count.
+			if (!VERSION_PATTERN.matcher(ver).find())
+				ver = null;
+		}
+
+		log("\t\tFound ExifTool version %s", ver);
+		return ver;
+	}
+
+	/**
+	 * Helper method used to resolve the file that will be run for the given
+	 * command, the same way the OS would: as given when it contains a path
+	 * separator, otherwise by searching each directory on the
+	 * <code>PATH</code>.
+	 * 
+	 * @return the executable or <code>null</code> if it could not be found.
+	 */
+	private static File findExecutable(String command) {
+		File file = new File(command);
+
+		if (command.indexOf('/') != -1
+				|| command.indexOf(File.separatorChar) != -1)
+			return (file.isFile() ? file : null);
+
+		String path = System.getenv("PATH");
+
+		if (path == null)
+			return null;
+
+		for (String dir : path.split(Pattern.quote(File.pathSeparator))) {
+			if (dir.isEmpty())
+				continue;
+
+			File candidate = new File(dir, command);
+
+			if (candidate.isFile())
+				return candidate;
+
+			// Windows resolves "exiftool" to "exiftool.exe".
+			candidate = new File(dir, command + ".exe");
+
+			if (candidate.isFile())
+				return candidate;
+		}
+
+		return null;
+	}
+
+	private static Properties load(File cacheFile) {
+		Properties props = new Properties();
+
+		if (!cacheFile.isFile())
+			return props;
+
+		try (InputStream in = Files.newInputStream(cacheFile.toPath())) {
+			props.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			// A damaged cache is simply rebuilt.
+			log("\tIgnoring unreadable version cache %s: %s", cacheFile, e);
+			props.clear();
+		}
+
+		return props;
+	}
+
+	/**
+	 * Helper method used to add the given version to the disk cache.
+	 * <p/>
+	 * The file is replaced atomically so concurrently starting VMs never read
+	 * a half-written cache; failing to write it only costs the next VM a probe.
+	 */
+	private static void store(File cacheFile, String key, String ver) {
+		Properties props = load(cacheFile);
+		props.setProperty(key, ver);
+
+		Path target = cacheFile.toPath();
+		Path temp = null;
+
+		try {
+			Path dir = target.toAbsolutePath().getParent();
+			Files.createDirectories(dir);
+			temp = Files.createTempFile(dir, "exiftool-version", ".tmp");
+
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				props.store(out, "ExifTool versions by executable@lastModified");
+			}
+
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			log("\tUnable to write version cache %s: %s", cacheFile, e);
+
+			try {
+				if (temp != null)
+					Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+				// no-op
+			}
+		}
+	}
+}
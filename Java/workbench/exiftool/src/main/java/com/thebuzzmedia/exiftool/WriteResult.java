@@ -0,0 +1,156 @@
+/**
+ * Copyright 2011 The Buzz Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Class used to report what happened to a single image when writing tags to
+ * many images at once with {@link ExifTool#setImageMeta(Map, Format)} or
+ * {@link ExifTool#setImageMeta(List, Format, Map)}.
+ * <p/>
+ * Those calls hand many images to ExifTool in a single request, and ExifTool
+ * only reports the outcome of a request as a summary, e.g.:
+ * 
+ * <pre>
+ *     98 image files updated
+ *      1 image files unchanged
+ *      1 files weren't updated due to errors
+ * </pre>
+ * 
+ * The messages ExifTool writes to standard error name the file they are
+ * about, so images that failed can be told apart from the rest; the
+ * {@link Status} of the others is derived from the summary counts. When the
+ * counts don't allow telling images apart (e.g. some images were updated and
+ * some were unchanged), the status says so instead of guessing.
+ * <p/>
+ * Instances of this class are immutable and Thread-safe.
+ * 
+ * @since 1.2
+ */
+public final class WriteResult {
+	/**
+	 * Enum used to define the outcome of writing tags to an image.
+	 * 
+	 * @since 1.2
+	 */
+	public enum Status {
+		/**
+		 * The image was rewritten with the new values.
+		 */
+		UPDATED,
+		/**
+		 * The image already had the given values and was left as-is.
+		 */
+		UNCHANGED,
+		/**
+		 * ExifTool reported no error for the image but it was written in the
+		 * same request as both updated and unchanged images, so which of the
+		 * two it was is not known.
+		 */
+		SUCCEEDED,
+		/**
+		 * ExifTool reported an error for the image and did not write it.
+		 */
+		FAILED,
+		/**
+		 * ExifTool's summary for the request doesn't match the messages it
+		 * printed (e.g. it counted an error that named no file), so it is not
+		 * known if the image was written.
+		 */
+		UNKNOWN;
+	}
+
+	private final File file;
+	private final Status status;
+	private final List<String> messages;
+
+	/**
+	 * Creates a result for the given image.
+	 * 
+	 * @param file
+	 *            The image the tags were written to.
+	 * @param status
+	 *            The outcome of the write.
+	 * @param messages
+	 *            The messages ExifTool printed for the image, may be
+	 *            <code>null</code> if there were none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> or <code>status</code> is
+	 *             <code>null</code>.
+	 */
+	public WriteResult(File file, Status status, List<String> messages)
+			throws IllegalArgumentException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+		if (status == null)
+			throw new IllegalArgumentException("status cannot be null");
+
+		this.file = file;
+		this.status = status;
+		this.messages = (messages == null || messages.isEmpty() ? Collections
+				.<String> emptyList() : Collections.unmodifiableList(messages));
+	}
+
+	/**
+	 * @return the image the tags were written to.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the outcome of the write.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return <code>true</code> if ExifTool is known to have handled the
+	 *         image without error ({@link Status#UPDATED},
+	 *         {@link Status#UNCHANGED} or {@link Status#SUCCEEDED}).
+	 */
+	public boolean isSuccess() {
+		return status == Status.UPDATED || status == Status.UNCHANGED
+				|| status == Status.SUCCEEDED;
+	}
+
+	/**
+	 * Used to get the error and warning messages ExifTool wrote to standard
+	 * error about this image (e.g.
+	 * "<code>Error: File not found - photo.jpg</code>"), exactly as ExifTool
+	 * printed them.
+	 * 
+	 * @return an unmodifiable list of the messages, empty if there were none.
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	@Override
+	public String toString() {
+		return "WriteResult [file=" + file + ", status=" + status
+				+ (messages.isEmpty() ? "" : ", messages=" + messages) + "]";
+	}
+}
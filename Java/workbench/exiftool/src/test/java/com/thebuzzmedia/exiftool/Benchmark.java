@@ -2,15 +2,20 @@ package com.thebuzzmedia.exiftool;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 import com.thebuzzmedia.exiftool.ExifTool.Feature;
+import com.thebuzzmedia.exiftool.ExifTool.Format;
 import com.thebuzzmedia.exiftool.ExifTool.Tag;
 
 public class Benchmark {
 	public static final int ITERS = 25;
 	public static final Tag[] TAGS = Tag.values();
-	public static final File[] IMAGES = new File("src/test/resources")
-			.listFiles();
+	public static final Path IMAGE_DIR = Paths.get("src/test/resources");
+	public static final File[] IMAGES = IMAGE_DIR.toFile().listFiles();
 
 	public static void main(String[] args) throws IOException,
 			InterruptedException {
@@ -53,6 +58,36 @@ public class Benchmark {
 				+ ((double) elapsedTimeSO / 1000) + " secs - "
 				+ ((float) elapsedTime / (float) elapsedTimeSO) + "x faster)");
 
+		/*
+		 * -stay_open True, all images in a single -execute
+		 */
+		System.out.println("\t[-stay_open True, batched]");
+		long elapsedTimeBatch = 0;
+
+		for (int i = 0; i < ITERS; i++) {
+			elapsedTimeBatch += runBatch(toolSO, IMAGES);
+		}
+
+		System.out.println("\t\tElapsed Time: " + elapsedTimeBatch + " ms ("
+				+ ((double) elapsedTimeBatch / 1000) + " secs - "
+				+ ((float) elapsedTime / (float) elapsedTimeBatch)
+				+ "x faster)");
+
+		/*
+		 * -stay_open True, lazily scanning the directory in batches
+		 */
+		System.out.println("\t[-stay_open True, scan]");
+		long elapsedTimeScan = 0;
+
+		for (int i = 0; i < ITERS; i++) {
+			elapsedTimeScan += runScan(toolSO, IMAGE_DIR);
+		}
+
+		System.out.println("\t\tElapsed Time: " + elapsedTimeScan + " ms ("
+				+ ((double) elapsedTimeScan / 1000) + " secs - "
+				+ ((float) elapsedTime / (float) elapsedTimeScan)
+				+ "x faster)");
+
 		// Shut down the running exiftool proc.
 		toolSO.close();
 	}
@@ -66,4 +101,29 @@ public class Benchmark {
 
 		return (System.currentTimeMillis() - startTime);
 	}
+
+	private static long runBatch(ExifTool tool, File[] images)
+			throws IllegalArgumentException, SecurityException, IOException {
+		long startTime = System.currentTimeMillis();
+
+		tool.getImageMeta(Arrays.asList(images), TAGS);
+
+		return (System.currentTimeMillis() - startTime);
+	}
+
+	private static long runScan(ExifTool tool, Path dir)
+			throws IllegalArgumentException, IOException {
+		long startTime = System.currentTimeMillis();
+
+		Stream<ImageMetadata> stream = tool.scan(dir, new ScanOptions(
+				Format.NUMERIC, TAGS));
+
+		try {
+			stream.count();
+		} finally {
+			stream.close();
+		}
+
+		return (System.currentTimeMillis() - startTime);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import com.thebuzzmedia.exiftool.ExifTool.Feature;
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Compares every value {@link FastExifReader} answers for the images in
+ * src/test/resources with what ExifTool prints for the same tag, and exits
+ * with a non-zero status if any of them differ. Needs a real ExifTool
+ * install (see {@link ExifTool#EXIF_TOOL_PATH}).
+ */
+public class FastExifReaderCheck {
+	public static final File[] IMAGES = new File("src/test/resources")
+			.listFiles();
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		ExifTool tool = new ExifTool(Feature.STAY_OPEN);
+		tool.setFastPathEnabled(false);
+
+		int checked = 0;
+		int skipped = 0;
+		int mismatches = 0;
+
+		for (File f : IMAGES) {
+			for (Tag tag : FastExifReader.SUPPORTED_TAGS) {
+				ImageMetadata fast = FastExifReader.read(f, new Tag[] { tag });
+
+				// Left to ExifTool, nothing to compare.
+				if (fast == null) {
+					skipped++;
+					continue;
+				}
+
+				Map<Tag, String> expected = tool.getImageMeta(f,
+						Format.NUMERIC, tag);
+				String actual = fast.getString(tag);
+				checked++;
+
+				if (!actual.equals(expected.get(tag))) {
+					mismatches++;
+					System.out.println("[" + f.getName() + "] " + tag
+							+ ": fast=" + actual + ", exiftool="
+							+ expected.get(tag));
+				}
+			}
+		}
+
+		tool.close();
+
+		System.out.println("Checked " + checked + " values (" + skipped
+				+ " left to ExifTool), " + mismatches + " mismatches.");
+
+		if (mismatches > 0)
+			System.exit(1);
+	}
+}
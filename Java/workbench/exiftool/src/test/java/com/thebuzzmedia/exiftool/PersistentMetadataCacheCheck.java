@@ -0,0 +1,70 @@
+package com.thebuzzmedia.exiftool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import com.thebuzzmedia.exiftool.ExifTool.Format;
+import com.thebuzzmedia.exiftool.ExifTool.Tag;
+
+/**
+ * Makes {@link PersistentMetadataCache#compact()} fail to replace the store
+ * and checks that the cache keeps answering and accepting values afterwards,
+ * and that they are still there once the store is opened again. Exits with a
+ * non-zero status if anything is lost.
+ */
+public class PersistentMetadataCacheCheck {
+	public static final Tag[] TAGS = { Tag.ISO };
+
+	public static void main(String[] args) throws IOException {
+		File store = File.createTempFile("metadata", ".cache");
+		store.delete();
+
+		PersistentMetadataCache cache = new PersistentMetadataCache(store) {
+			@Override
+			void moveStore(Path source, Path target) throws IOException {
+				throw new IOException("Simulated failure moving " + source);
+			}
+		};
+
+		FileIdentity first = new FileIdentity("/images/first.jpg", 1, 1, 1);
+		FileIdentity second = new FileIdentity("/images/second.jpg", 2, 2, 2);
+		cache.put(first, Format.NUMERIC, TAGS,
+				Collections.singletonMap(Tag.ISO, "100"));
+
+		try {
+			cache.compact();
+			fail("compact() did not report the failed move");
+		} catch (IOException e) {
+			// no-op, expected.
+		}
+
+		check(cache.get(first, Format.NUMERIC, TAGS), "100");
+		cache.put(second, Format.NUMERIC, TAGS,
+				Collections.singletonMap(Tag.ISO, "200"));
+		check(cache.get(second, Format.NUMERIC, TAGS), "200");
+		cache.close();
+
+		cache = new PersistentMetadataCache(store);
+		check(cache.get(first, Format.NUMERIC, TAGS), "100");
+		check(cache.get(second, Format.NUMERIC, TAGS), "200");
+		cache.close();
+
+		if (!store.delete() || new File(store.getPath() + ".compact").exists())
+			fail("Store or compaction copy left behind");
+
+		System.out.println("OK");
+	}
+
+	private static void check(Map<Tag, String> values, String expected) {
+		if (values == null || !expected.equals(values.get(Tag.ISO)))
+			fail("Expected ISO " + expected + ", got " + values);
+	}
+
+	private static void fail(String message) {
+		System.out.println(message);
+		System.exit(1);
+	}
+}